@@ -9,6 +9,9 @@ import simpledb.transaction.TransactionId;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 
 public class SimpleDb {
     public static void main(String[] args)
@@ -17,6 +20,28 @@ public class SimpleDb {
         switch (args[0]) {
             case "convert":
                 try {
+                    // --threads N and --pax may come anywhere after "convert"
+                    int threads = Runtime.getRuntime().availableProcessors();
+                    List<String> rest = new ArrayList<>(Arrays.asList(args));
+                    int opt = rest.indexOf("--threads");
+                    if (opt >= 0) {
+                        if (opt + 1 >= rest.size()) {
+                            System.err.println("--threads needs a number of threads");
+                            return;
+                        }
+                        try {
+                            threads = Integer.parseInt(rest.get(opt + 1));
+                        } catch (NumberFormatException e) {
+                            threads = 0;
+                        }
+                        if (threads < 1) {
+                            System.err.println("--threads needs a positive number of threads, not " + rest.get(opt + 1));
+                            return;
+                        }
+                        rest.subList(opt, opt + 2).clear();
+                    }
+                    PageLayout layout = rest.remove("--pax") ? PageLayout.PAX : PageLayout.ROW;
+                    args = rest.toArray(new String[0]);
                     if (args.length < 3 || args.length > 5) {
                         System.err.println("Unexpected number of arguments to convert ");
                         return;
@@ -43,7 +68,11 @@ public class SimpleDb {
                                 ts[index++] = Type.INT_TYPE;
                             else if (s.equalsIgnoreCase("string"))
                                 ts[index++] = Type.STRING_TYPE;
-                            else {
+                            else if (s.equalsIgnoreCase("varchar")) {
+                                // strings without padding, on slotted pages
+                                ts[index++] = Type.STRING_TYPE;
+                                layout = PageLayout.SLOTTED;
+                            } else {
                                 System.err.println("Unknown type " + s);
                                 return;
                             }
@@ -52,8 +81,12 @@ public class SimpleDb {
                             fieldSeparator = args[4].charAt(0);
                     }
 
-                    HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
-                            BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator);
+                    long start = System.nanoTime();
+                    long rows = HeapFileEncoder.convert(sourceTxtFile, targetDatFile,
+                            BufferPool.getPageSize(), numOfAttributes, ts, fieldSeparator, threads, layout);
+                    double seconds = Math.max(System.nanoTime() - start, 1) / 1e9;
+                    System.out.printf("Converted %d rows in %.2f s (%.0f rows/s, %d threads)%n",
+                            rows, seconds, rows / seconds, threads);
 
                 } catch (IOException e) {
                     throw new RuntimeException(e);
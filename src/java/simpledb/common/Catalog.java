@@ -1,7 +1,9 @@
 package simpledb.common;
 
+import simpledb.index.BTreeFile;
 import simpledb.storage.DbFile;
 import simpledb.storage.HeapFile;
+import simpledb.storage.PageLayout;
 import simpledb.storage.TupleDesc;
 
 import java.io.BufferedReader;
@@ -128,6 +130,49 @@ public class Catalog {
         throw new NoSuchElementException();
     }
 
+    /**
+     * Switches the specified table between reading pages from a memory
+     * mapping of its file and copying each page out of the file.
+     *
+     * @param tableid The id of the table, as specified by the DbFile.getId()
+     *                function passed to addTable
+     * @param mapped  true to read the table through a memory mapping
+     * @throws NoSuchElementException   if the table doesn't exist
+     * @throws IllegalArgumentException if the table is not stored in a HeapFile
+     * @see HeapFile#setMemoryMapped
+     */
+    public void setMemoryMapped(int tableid, boolean mapped) throws NoSuchElementException {
+        DbFile file = getDatabaseFile(tableid);
+        if (!(file instanceof HeapFile)) {
+            throw new IllegalArgumentException("table " + tableid + " is not a heap file");
+        }
+        ((HeapFile) file).setMemoryMapped(mapped);
+    }
+
+    /**
+     * Turns compression of the pages written to the specified table on or
+     * off.
+     *
+     * @param tableid    The id of the table, as specified by the
+     *                   DbFile.getId() function passed to addTable
+     * @param compressed true to compress the pages written to the table
+     * @throws NoSuchElementException   if the table doesn't exist
+     * @throws IllegalArgumentException if the table is not stored in a
+     *                                  HeapFile or a BTreeFile
+     * @see HeapFile#setCompressed
+     * @see BTreeFile#setCompressed
+     */
+    public void setCompressed(int tableid, boolean compressed) throws NoSuchElementException {
+        DbFile file = getDatabaseFile(tableid);
+        if (file instanceof HeapFile) {
+            ((HeapFile) file).setCompressed(compressed);
+        } else if (file instanceof BTreeFile) {
+            ((BTreeFile) file).setCompressed(compressed);
+        } else {
+            throw new IllegalArgumentException("table " + tableid + " is not a heap file or a B+ tree");
+        }
+    }
+
     public String getPrimaryKey(int tableid) {
         // some code goes here
         return idTables.get(tableid).pkeyField;
@@ -166,19 +211,32 @@ public class Catalog {
                 //assume line is of the format name (field type, field type, ...)
                 String name = line.substring(0, line.indexOf("(")).trim();
                 //System.out.println("TABLE NAME: " + name);
-                String fields = line.substring(line.indexOf("(") + 1, line.indexOf(")")).trim();
+                String fields = line.substring(line.indexOf("(") + 1, line.lastIndexOf(")")).trim();
                 String[] els = fields.split(",");
                 ArrayList<String> names = new ArrayList<>();
                 ArrayList<Type> types = new ArrayList<>();
+                ArrayList<Integer> maxLengths = new ArrayList<>();
                 String primaryKey = "";
+                boolean varchar = false;
                 for (String e : els) {
                     String[] els2 = e.trim().split(" ");
                     names.add(els2[0].trim());
+                    maxLengths.add(Type.STRING_LEN);
                     if (els2[1].trim().equalsIgnoreCase("int"))
                         types.add(Type.INT_TYPE);
                     else if (els2[1].trim().equalsIgnoreCase("string"))
                         types.add(Type.STRING_TYPE);
-                    else {
+                    else if (els2[1].trim().toLowerCase().matches("varchar\\(\\d+\\)")) {
+                        //varchar(n) strings are stored without padding
+                        int n = Integer.parseInt(els2[1].substring(els2[1].indexOf("(") + 1, els2[1].indexOf(")")));
+                        if (n < 1 || n > Type.STRING_LEN) {
+                            System.out.println("Invalid length " + els2[1] + ", at most " + Type.STRING_LEN);
+                            System.exit(0);
+                        }
+                        types.add(Type.STRING_TYPE);
+                        maxLengths.set(maxLengths.size() - 1, n);
+                        varchar = true;
+                    } else {
                         System.out.println("Unknown type " + els2[1]);
                         System.exit(0);
                     }
@@ -191,10 +249,29 @@ public class Catalog {
                         }
                     }
                 }
+                //an optional "pax" after the fields lays the pages out by
+                //column, unless they are slotted for varchar fields, and an
+                //optional "compressed" compresses them
+                PageLayout layout = varchar ? PageLayout.SLOTTED : PageLayout.ROW;
+                boolean compressed = false;
+                for (String annotation : line.substring(line.lastIndexOf(")") + 1).trim().split("\\s+")) {
+                    if (annotation.equalsIgnoreCase("pax") && !varchar)
+                        layout = PageLayout.PAX;
+                    else if (annotation.equalsIgnoreCase("compressed"))
+                        compressed = true;
+                    else if (!annotation.isEmpty()) {
+                        System.out.println("Unknown annotation " + annotation);
+                        System.exit(0);
+                    }
+                }
                 Type[] typeAr = types.toArray(new Type[0]);
                 String[] namesAr = names.toArray(new String[0]);
-                TupleDesc t = new TupleDesc(typeAr, namesAr);
-                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t);
+                int[] lengthsAr = new int[maxLengths.size()];
+                for (int i = 0; i < lengthsAr.length; i++)
+                    lengthsAr[i] = maxLengths.get(i);
+                TupleDesc t = new TupleDesc(typeAr, namesAr, lengthsAr);
+                HeapFile tabHf = new HeapFile(new File(baseFolder + "/" + name + ".dat"), t, layout);
+                tabHf.setCompressed(compressed);
                 addTable(tabHf, name, primaryKey);
                 System.out.println("Added table : " + name + " with schema " + t);
             }
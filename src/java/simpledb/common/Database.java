@@ -1,6 +1,7 @@
 package simpledb.common;
 
 import simpledb.storage.BufferPool;
+import simpledb.storage.FileChannelPool;
 import simpledb.storage.LogFile;
 
 import java.io.File;
@@ -21,6 +22,7 @@ public class Database {
     private static final AtomicReference<Database> _instance = new AtomicReference<>(new Database());
     private final Catalog _catalog;
     private final BufferPool _bufferpool;
+    private final FileChannelPool _channelpool;
 
     private final static String LOGFILENAME = "log";
     private final LogFile _logfile;
@@ -28,6 +30,7 @@ public class Database {
     private Database() {
         _catalog = new Catalog();
         _bufferpool = new BufferPool(BufferPool.DEFAULT_PAGES);
+        _channelpool = new FileChannelPool(FileChannelPool.DEFAULT_CHANNELS);
         LogFile tmp = null;
         try {
             tmp = new LogFile(new File(LOGFILENAME));
@@ -53,6 +56,13 @@ public class Database {
         return _instance.get()._bufferpool;
     }
 
+    /**
+     * Return the pool of open table files of the static Database instance
+     */
+    public static FileChannelPool getFileChannelPool() {
+        return _instance.get()._channelpool;
+    }
+
     /**
      * Return the catalog of the static Database instance
      */
@@ -66,6 +76,13 @@ public class Database {
      */
     public static BufferPool resetBufferPool(int pages) {
         java.lang.reflect.Field bufferPoolF = null;
+        try {
+            // the new pool reads the pages committed through the old one
+            // from disk
+            _instance.get()._bufferpool.close(true);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
         try {
             bufferPoolF = Database.class.getDeclaredField("_bufferpool");
             bufferPoolF.setAccessible(true);
@@ -79,7 +96,15 @@ public class Database {
 
     // reset the database, used for unit tests only.
     public static void reset() {
-        _instance.set(new Database());
+        // like a crash: whatever the old pool has not written is lost; its
+        // writer is stopped before the catalog it writes through is replaced
+        try {
+            _instance.get()._bufferpool.close(false);
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+        Database old = _instance.getAndSet(new Database());
+        old._channelpool.closeAll();
     }
 
 }
@@ -7,6 +7,7 @@ import simpledb.storage.StringField;
 import java.io.DataInputStream;
 import java.io.IOException;
 import java.io.Serializable;
+import java.nio.ByteBuffer;
 import java.text.ParseException;
 
 /**
@@ -30,6 +31,16 @@ public enum Type implements Serializable {
             }
         }
 
+        @Override
+        public Field parse(ByteBuffer buf) {
+            return new IntField(buf.getInt());
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int index) {
+            return new IntField(buf.getInt(index));
+        }
+
     }, STRING_TYPE() {
         @Override
         public int getLen() {
@@ -48,6 +59,23 @@ public enum Type implements Serializable {
                 throw new ParseException("couldn't parse", 0);
             }
         }
+
+        @Override
+        public Field parse(ByteBuffer buf) {
+            int start = buf.position();
+            int strLen = buf.getInt();
+            byte[] bs = new byte[strLen];
+            buf.get(bs);
+            buf.position(start + getLen());
+            return new StringField(new String(bs), STRING_LEN);
+        }
+
+        @Override
+        public Field parse(ByteBuffer buf, int index) {
+            byte[] bs = new byte[buf.getInt(index)];
+            buf.get(index + 4, bs);
+            return new StringField(new String(bs), STRING_LEN);
+        }
     };
 
     public static final int STRING_LEN = 128;
@@ -66,4 +94,21 @@ public enum Type implements Serializable {
      */
     public abstract Field parse(DataInputStream dis) throws ParseException;
 
+    /**
+     * @param buf The buffer to read from, positioned at the start of the field
+     * @return a Field object of the same type as this object that has contents
+     * read from the specified buffer. The buffer is left positioned just past
+     * the field.
+     */
+    public abstract Field parse(ByteBuffer buf);
+
+    /**
+     * @param buf   The buffer to read from
+     * @param index The index in the buffer the field starts at
+     * @return a Field object of the same type as this object that has contents
+     * read from the specified buffer, without changing the buffer's position,
+     * so that threads may share the buffer.
+     */
+    public abstract Field parse(ByteBuffer buf, int index);
+
 }
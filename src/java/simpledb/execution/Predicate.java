@@ -4,6 +4,7 @@ import simpledb.storage.Field;
 import simpledb.storage.Tuple;
 
 import java.io.Serializable;
+import java.util.List;
 
 /**
  * Predicate compares tuples to a specified Field value.
@@ -103,6 +104,17 @@ public class Predicate implements Serializable {
         return t.getField(field).compare(op, operand);
     }
 
+    /**
+     * @return true if t satisfies all of the predicates, false otherwise.
+     */
+    public static boolean filterAll(List<Predicate> predicates, Tuple t) {
+        for (Predicate p : predicates) {
+            if (!p.filter(t))
+                return false;
+        }
+        return true;
+    }
+
     /**
      * Returns something useful, like "f = field_id op = op_string operand =
      * operand_string"
@@ -3,12 +3,15 @@ package simpledb.execution;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Type;
+import simpledb.storage.AccessHint;
 import simpledb.storage.DbFileIterator;
 import simpledb.storage.Tuple;
 import simpledb.storage.TupleDesc;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
+import java.util.ArrayList;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -23,7 +26,16 @@ public class SeqScan implements OpIterator {
     private int tableId;
     private String tableAlias;
     private DbFileIterator it;
-    private final TupleDesc td;
+    // the TupleDesc of the table with aliased names, and of the tuples the
+    // scan returns
+    private final TupleDesc tableTd;
+    private TupleDesc td;
+    // null unless set explicitly, see setAccessHint
+    private AccessHint accessHint;
+    private boolean rewound;
+    private List<Predicate> predicates = List.of();
+    // the fields of the table the tuples hold, null for all
+    private int[] columns;
 
     /**
      * Creates a sequential scan over the specified table as a part of the
@@ -50,7 +62,8 @@ public class SeqScan implements OpIterator {
             types[i] = originTd.getFieldType(i);
             strings[i] = tableAlias + "." + originTd.getFieldName(i);
         }
-        td = new TupleDesc(types, strings);
+        tableTd = new TupleDesc(types, strings);
+        td = tableTd;
     }
 
     /**
@@ -90,9 +103,87 @@ public class SeqScan implements OpIterator {
         this(tid, tableId, Database.getCatalog().getTableName(tableId));
     }
 
+    /**
+     * Sets how this scan reads its pages, e.g. {@link AccessHint#SEQUENTIAL}
+     * for a one-shot scan of a large table that should not push other pages
+     * out of the buffer pool. Takes effect the next time the scan is opened.
+     * <p>
+     * By default a scan reads its pages as sequential on the first pass and
+     * as normal once it has been rewound, since a table that is scanned over
+     * and over, like the inner relation of a join, is worth caching.
+     */
+    public void setAccessHint(AccessHint hint) {
+        this.accessHint = hint;
+    }
+
+    /**
+     * @return the access hint the scan currently reads its pages with.
+     */
+    public AccessHint getAccessHint() {
+        if (accessHint != null)
+            return accessHint;
+        return rewound ? AccessHint.NORMAL : AccessHint.SEQUENTIAL;
+    }
+
+    /**
+     * Gives the scan predicates on the fields of the table, of which the
+     * tuples it returns satisfy all; a Filter the scan takes the place of.
+     * The file of the table tests them as it reads the tuples, e.g. on the
+     * bytes of a HeapPage before it builds the tuples. Takes effect the next
+     * time the scan is opened.
+     *
+     * @see simpledb.storage.DbFile#iterator(TransactionId, AccessHint, List)
+     */
+    public void setPredicates(List<Predicate> predicates) {
+        this.predicates = List.copyOf(predicates);
+    }
+
+    /**
+     * @return the predicates given to the scan, see setPredicates.
+     */
+    public List<Predicate> getPredicates() {
+        return predicates;
+    }
+
+    /**
+     * Cuts the tuples the scan returns down to some of the fields of the
+     * table, so that the fields the query has no use for are neither decoded
+     * nor carried up the plan; a Project the scan takes the place of. The
+     * predicates of the scan still refer to the fields of the table. Takes
+     * effect on getTupleDesc at once, and on the tuples the next time the
+     * scan is opened.
+     *
+     * @param fields the indices of the fields of the table the tuples hold,
+     *               in order, or null for all of them
+     */
+    public void setProjection(List<Integer> fields) {
+        if (fields == null) {
+            columns = null;
+            td = tableTd;
+            return;
+        }
+        columns = new int[fields.size()];
+        for (int i = 0; i < columns.length; i++)
+            columns[i] = fields.get(i);
+        td = TupleDesc.project(tableTd, columns);
+    }
+
+    /**
+     * @return the fields of the table the tuples hold, see setProjection,
+     * or null if they hold all of them.
+     */
+    public List<Integer> getProjection() {
+        if (columns == null)
+            return null;
+        List<Integer> fields = new ArrayList<>(columns.length);
+        for (int column : columns)
+            fields.add(column);
+        return fields;
+    }
+
     public void open() throws DbException, TransactionAbortedException {
         // some code goes here
-        it = Database.getCatalog().getDatabaseFile(tableId).iterator(tid);
+        it = Database.getCatalog().getDatabaseFile(tableId).iterator(tid, getAccessHint(), predicates, columns);
         it.open();
     }
 
@@ -130,6 +221,12 @@ public class SeqScan implements OpIterator {
     public void rewind() throws DbException, NoSuchElementException,
             TransactionAbortedException {
         // some code goes here
-        it.rewind();
+        if (accessHint == null && !rewound) {
+            rewound = true;
+            it.close();
+            open();
+        } else {
+            it.rewind();
+        }
     }
 }
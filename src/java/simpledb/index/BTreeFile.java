@@ -11,6 +11,7 @@ import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.*;
 
 /**
@@ -32,6 +33,7 @@ public class BTreeFile implements DbFile {
     private final TupleDesc td;
     private final int tableid;
     private final int keyField;
+    private volatile boolean compressed;
 
     /**
      * Constructs a B+ tree file backed by the specified file.
@@ -87,11 +89,11 @@ public class BTreeFile implements DbFile {
     public Page readPage(PageId pid) {
         BTreePageId id = (BTreePageId) pid;
 
-        try (BufferedInputStream bis = new BufferedInputStream(new FileInputStream(f))) {
+        try {
             if (id.pgcateg() == BTreePageId.ROOT_PTR) {
-                byte[] pageBuf = new byte[BTreeRootPtrPage.getPageSize()];
-                int retval = bis.read(pageBuf, 0, BTreeRootPtrPage.getPageSize());
-                if (retval == -1) {
+                ByteBuffer pageBuf = ByteBuffer.allocate(BTreeRootPtrPage.getPageSize());
+                int retval = Database.getFileChannelPool().read(tableid, f, pageBuf, 0);
+                if (retval == 0) {
                     throw new IllegalArgumentException("Read past end of table");
                 }
                 if (retval < BTreeRootPtrPage.getPageSize()) {
@@ -99,36 +101,25 @@ public class BTreeFile implements DbFile {
                             + BTreeRootPtrPage.getPageSize() + " bytes from BTreeFile");
                 }
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
-                return new BTreeRootPtrPage(id, pageBuf);
+                return new BTreeRootPtrPage(id, pageBuf.array());
             } else {
-                byte[] pageBuf = new byte[BufferPool.getPageSize()];
-                if (bis.skip(BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) !=
-                        BTreeRootPtrPage.getPageSize() + (long) (id.getPageNumber() - 1) * BufferPool.getPageSize()) {
-                    throw new IllegalArgumentException(
-                            "Unable to seek to correct place in BTreeFile");
-                }
-                int retval = bis.read(pageBuf, 0, BufferPool.getPageSize());
-                if (retval == -1) {
-                    throw new IllegalArgumentException("Read past end of table");
-                }
-                if (retval < BufferPool.getPageSize()) {
+                byte[] pageData = PageCompression.read(tableid, f, pageOffset(id.getPageNumber()), BufferPool.getPageSize());
+                if (pageData == null) {
                     throw new IllegalArgumentException("Unable to read "
                             + BufferPool.getPageSize() + " bytes from BTreeFile");
                 }
                 Debug.log(1, "BTreeFile.readPage: read page %d", id.getPageNumber());
                 if (id.pgcateg() == BTreePageId.INTERNAL) {
-                    return new BTreeInternalPage(id, pageBuf, keyField);
+                    return new BTreeInternalPage(id, pageData, keyField);
                 } else if (id.pgcateg() == BTreePageId.LEAF) {
-                    return new BTreeLeafPage(id, pageBuf, keyField);
+                    return new BTreeLeafPage(id, pageData, keyField);
                 } else { // id.pgcateg() == BTreePageId.HEADER
-                    return new BTreeHeaderPage(id, pageBuf);
+                    return new BTreeHeaderPage(id, pageData);
                 }
             }
         } catch (IOException e) {
             throw new RuntimeException(e);
         }
-        // Close the file on success or error
-        // Ignore failures closing the file
     }
 
     /**
@@ -141,12 +132,42 @@ public class BTreeFile implements DbFile {
         BTreePageId id = (BTreePageId) page.getId();
 
         byte[] data = page.getPageData();
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
+        long offset = 0;
+        ByteBuffer buf = ByteBuffer.wrap(data);
         if (id.pgcateg() != BTreePageId.ROOT_PTR) {
-            rf.seek(BTreeRootPtrPage.getPageSize() + (long) (page.getId().getPageNumber() - 1) * BufferPool.getPageSize());
+            offset = pageOffset(page.getId().getPageNumber());
+            // pages are appended before they are first written, so the file
+            // covers the rest of the slot of a compressed page
+            if (compressed)
+                buf = PageCompression.encode(data);
         }
-        rf.write(data);
-        rf.close();
+        Database.getFileChannelPool().write(tableid, f, buf, offset);
+    }
+
+    /**
+     * Returns true if the pages of this B+ tree, other than the root
+     * pointer, are compressed when they are written.
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Turns compression of the pages written to this B+ tree on or off.
+     * Pages already in the file stay as they are until they are written
+     * again; both kinds are read either way.
+     *
+     * @see PageCompression
+     */
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
+    /**
+     * Returns the file offset of the given (non root pointer) page
+     */
+    private long pageOffset(int pgNo) {
+        return BTreeRootPtrPage.getPageSize() + (long) (pgNo - 1) * BufferPool.getPageSize();
     }
 
     /**
@@ -1022,13 +1043,11 @@ public class BTreeFile implements DbFile {
         synchronized (this) {
             if (f.length() == 0) {
                 // create the root pointer page and the root page
-                BufferedOutputStream bw = new BufferedOutputStream(
-                        new FileOutputStream(f, true));
                 byte[] emptyRootPtrData = BTreeRootPtrPage.createEmptyPageData();
                 byte[] emptyLeafData = BTreeLeafPage.createEmptyPageData();
-                bw.write(emptyRootPtrData);
-                bw.write(emptyLeafData);
-                bw.close();
+                ByteBuffer buf = ByteBuffer.allocate(emptyRootPtrData.length + emptyLeafData.length);
+                buf.put(emptyRootPtrData).put(emptyLeafData).flip();
+                Database.getFileChannelPool().append(tableid, f, buf);
             }
         }
 
@@ -1082,11 +1101,8 @@ public class BTreeFile implements DbFile {
         if (headerId == null) {
             synchronized (this) {
                 // create the new page
-                BufferedOutputStream bw = new BufferedOutputStream(
-                        new FileOutputStream(f, true));
                 byte[] emptyData = BTreeInternalPage.createEmptyPageData();
-                bw.write(emptyData);
-                bw.close();
+                Database.getFileChannelPool().append(tableid, f, ByteBuffer.wrap(emptyData));
                 emptyPageNo = numPages();
             }
         }
@@ -1116,10 +1132,8 @@ public class BTreeFile implements DbFile {
         BTreePageId newPageId = new BTreePageId(tableid, emptyPageNo, pgcateg);
 
         // write empty page to disk
-        RandomAccessFile rf = new RandomAccessFile(f, "rw");
-        rf.seek(BTreeRootPtrPage.getPageSize() + (long) (emptyPageNo - 1) * BufferPool.getPageSize());
-        rf.write(BTreePage.createEmptyPageData());
-        rf.close();
+        Database.getFileChannelPool().write(tableid, f,
+                ByteBuffer.wrap(BTreePage.createEmptyPageData()), pageOffset(emptyPageNo));
 
         // make sure the page is not in the buffer pool	or in the local cache
         Database.getBufferPool().discardPage(newPageId);
@@ -16,6 +16,9 @@ public class BTreePageId implements PageId {
     public final static int LEAF = 2;
     public final static int HEADER = 3;
 
+    // page numbers are limited to 30 bits so the category fits in pageKey()
+    private final static int CATEG_SHIFT = 30;
+
     private final int tableId;
     private final int pgNo;
     private final int pgcateg;
@@ -81,6 +84,15 @@ public class BTreePageId implements PageId {
         return Objects.hash(tableId, pgNo, pgcateg);
     }
 
+    /**
+     * @return a key made of the table id in the high 32 bits, the category
+     * in the next 2 bits and the page number in the low 30 bits.
+     * @see PageId#pageKey()
+     */
+    public long pageKey() {
+        return ((long) tableId << 32) | ((long) pgcateg << CATEG_SHIFT) | pgNo;
+    }
+
     /**
      * Compares one PageId to another.
      *
@@ -360,7 +360,15 @@ public class LogicalPlan {
             } catch (NoSuchElementException e) {
                 throw new ParsingException("Unknown field " + lf.fieldQuantifiedName);
             }
-            subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            if (subplan instanceof SeqScan) {
+                // the scan tests the predicate as it reads the tuples
+                SeqScan ss = (SeqScan) subplan;
+                List<Predicate> predicates = new ArrayList<>(ss.getPredicates());
+                predicates.add(p);
+                ss.setPredicates(predicates);
+            } else {
+                subplanMap.put(lf.tableAlias, new Filter(p, subplan));
+            }
 
             TableStats s = statsMap.get(Database.getCatalog().getTableName(this.getTableId(lf.tableAlias)));
 
@@ -374,6 +382,8 @@ public class LogicalPlan {
 
         joins = jo.orderJoins(statsMap, filterSelectivities, explain);
 
+        projectScans();
+
         for (LogicalJoinNode lj : joins) {
             OpIterator plan1;
             OpIterator plan2;
@@ -503,6 +513,47 @@ public class LogicalPlan {
         return new Project(outFields, outTypes, node);
     }
 
+    /**
+     * Cuts the tuples of each scan down to the fields the rest of the plan
+     * uses: those in the select list, the aggregate, GROUP BY and ORDER BY
+     * fields, and the fields of joins. Filters have been pushed into the
+     * scans before, so they need no fields of their own.
+     */
+    private void projectScans() {
+        Set<String> needed = new HashSet<>();
+        for (LogicalSelectListNode si : selectList) {
+            if (si.fname.equals("null.*"))
+                return;
+            needed.add(si.fname);
+        }
+        if (aggField != null)
+            needed.add(aggField);
+        if (groupByField != null)
+            needed.add(groupByField);
+        if (oByField != null)
+            needed.add(oByField);
+        for (LogicalJoinNode lj : joins) {
+            needed.add(lj.f1QuantifiedName);
+            needed.add(lj.f2QuantifiedName);
+        }
+
+        for (OpIterator subplan : subplanMap.values()) {
+            if (!(subplan instanceof SeqScan))
+                continue;
+            TupleDesc td = subplan.getTupleDesc();
+            List<Integer> fields = new ArrayList<>();
+            for (int i = 0; i < td.numFields(); i++) {
+                if (needed.contains(td.getFieldName(i)))
+                    fields.add(i);
+            }
+            // a table none of whose fields are used still yields its rows
+            if (fields.isEmpty())
+                fields.add(0);
+            if (fields.size() < td.numFields())
+                ((SeqScan) subplan).setProjection(fields);
+        }
+    }
+
     public static void main(String[] argv) {
         // construct a 3-column table schema
         Type[] types = new Type[]{Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE};
@@ -1,5 +1,6 @@
 package simpledb.optimizer;
 
+import simpledb.common.Database;
 import simpledb.execution.*;
 import simpledb.storage.TupleDesc;
 import simpledb.storage.TupleDesc.TDItem;
@@ -76,6 +77,13 @@ public class QueryPlanVisualizer {
                 alias = "";
             thisNode.text = String
                     .format("%1$s(%2$s)", SCAN, tableName + alias);
+            // the predicates refer to the fields of the table, whether the
+            // scan projects them or not
+            TupleDesc tableTd = Database.getCatalog().getTupleDesc(Database.getCatalog().getTableId(tableName));
+            for (Predicate p : s.getPredicates()) {
+                thisNode.text += String.format(",%1$s(%2$s)", SELECT, s.getAlias() + "."
+                        + tableTd.getFieldName(p.getField()) + p.getOp() + p.getOperand());
+            }
             if (SCAN.length() / 2 < parentUpperBarStartShift) {
                 thisNode.upBarPosition = currentStartPosition
                         + parentUpperBarStartShift;
@@ -0,0 +1,18 @@
+package simpledb.storage;
+
+/**
+ * Tells the buffer pool how a page is being accessed, so that its
+ * {@link PageReplacer} can keep pages read once by a large scan from
+ * displacing pages that are used over and over.
+ */
+public enum AccessHint {
+    /**
+     * The page may well be accessed again soon.
+     */
+    NORMAL,
+    /**
+     * The page is read once as part of a sequential scan and is unlikely to
+     * be needed again.
+     */
+    SEQUENTIAL
+}
@@ -9,9 +9,16 @@ import simpledb.transaction.TransactionId;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
 import java.util.List;
-import java.util.Optional;
+import java.util.Map;
+import java.util.OptionalLong;
+import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.IntFunction;
 
 /**
  * BufferPool manages the reading and writing of pages into memory from
@@ -21,6 +28,26 @@ import java.util.concurrent.ConcurrentHashMap;
  * The BufferPool is also responsible for locking;  when a transaction fetches
  * a page, BufferPool checks that the transaction has the appropriate
  * locks to read/write the page.
+ * <p>
+ * Pages are written back under a STEAL / NO-FORCE policy. Committing a
+ * transaction only appends the after images of its pages to the log, which
+ * the commit record then forces; the pages themselves stay in the pool and
+ * are written later, by a background {@link DirtyPageWriter} or when they
+ * are evicted. Eviction prefers clean pages but may also write out and evict
+ * a page an uncommitted transaction modified, after logging its before and
+ * after images and forcing the log, so a transaction may dirty more pages
+ * than the pool holds.
+ * <p>
+ * The frames are partitioned into shards by page key, each with its own
+ * {@link PageReplacer} and latch, so that threads fetching pages of
+ * different shards never wait for each other. Anything that has to append
+ * to or force the log before writing a page takes the pool's monitor first,
+ * as {@link LogFile} does, then the latch of the page's shard.
+ * <p>
+ * A transaction started with {@link #beginSnapshot(TransactionId)} reads
+ * heap pages as they were committed when it began, from a
+ * {@link VersionStore}, without locking them, so it neither waits for
+ * writers nor makes them wait.
  *
  * @Threadsafe, all fields are final
  */
@@ -38,22 +65,169 @@ public class BufferPool {
      * constructor instead.
      */
     public static final int DEFAULT_PAGES = 50;
+
+    /**
+     * Fewest pages a shard is given by {@link #BufferPool(int)}; smaller
+     * pools get fewer shards, down to one.
+     */
+    public static final int MIN_SHARD_PAGES = 64;
+
     private final int numPages;
-    private final ConcurrentHashMap<Integer, Page> pages;
+    private final Shard[] shards;
+    private final int shardMask;
+    private final int shardShift;
     private final LockManager lockManager;
-    private final LRUReplacer replacer;
+    private final VersionStore versions = new VersionStore();
+    // before images of the pages running transactions had written to disk
+    // before they committed, in case they abort; protected by this
+    private final Map<TransactionId, Map<Long, Page>> stolen = new HashMap<>();
+    // runs of pages running transactions appended to heap files without
+    // the pool, as {table id, first page, number of pages}; protected by this
+    private final Map<TransactionId, List<int[]>> loaded = new HashMap<>();
+    // keys of the pages running transactions fetched for writing or
+    // dirtied by insertTuple and deleteTuple, which are the only pages they
+    // may have dirtied
+    private final Map<TransactionId, Set<Long>> dirtied = new ConcurrentHashMap<>();
+    // transactions in the middle of insertTuple or deleteTuple
+    private final Map<TransactionId, Mutation> mutations = new ConcurrentHashMap<>();
+    // heap files in which running transactions have an insert target
+    private final Map<TransactionId, Set<HeapFile>> inserting = new ConcurrentHashMap<>();
+    // inserts and deletes in progress, counted once per thread and
+    // transaction however deeply they nest
+    private final AtomicInteger activeMutations = new AtomicInteger();
+    // threads in awaitMutations waiting for the mutations to end
+    private final AtomicInteger flushWaiters = new AtomicInteger();
+    // started on the first commit; protected by this
+    private DirtyPageWriter writer;
+    private boolean closed;
 
     /**
-     * Creates a BufferPool that caches up to numPages pages.
+     * A partition of the buffer pool. Its fields are protected by the shard
+     * itself.
+     */
+    private static final class Shard {
+        final int capacity;
+        // frames keyed by PageId.pageKey()
+        final PageTable pages;
+        final PageReplacer replacer;
+        // keys of the cached pages that no running transaction has dirtied
+        // but are newer than their copies on disk
+        final Set<Long> unwritten = new HashSet<>();
+        // keys of the pages writeBehind is writing without holding the latch
+        final Set<Long> writing = new HashSet<>();
+        // bumped whenever a page leaves the shard
+        long removals;
+
+        Shard(int capacity, PageReplacer replacer) {
+            this.capacity = capacity;
+            this.pages = new PageTable(capacity);
+            this.replacer = replacer;
+        }
+
+        boolean isClean(long key) {
+            Page p = pages.get(key);
+            return p != null && p.isDirty() == null && !unwritten.contains(key) && !writing.contains(key);
+        }
+
+        /**
+         * Waits until writeBehind has written the pages it took from this
+         * shard. Must be called holding the latch, which the wait gives up.
+         */
+        void awaitWrites() {
+            while (!writing.isEmpty()) {
+                try {
+                    wait();
+                } catch (InterruptedException ignored) {
+
+                }
+            }
+        }
+
+        /**
+         * Evicts a clean page, if there is one.
+         */
+        boolean evictClean() {
+            OptionalLong victim = replacer.evict(this::isClean);
+            if (victim.isEmpty())
+                return false;
+            removals++;
+            pages.remove(victim.getAsLong());
+            return true;
+        }
+    }
+
+    /**
+     * A transaction inserting or deleting a tuple. The pages it fetches for
+     * writing may be modified at any time until the operation returns, so no
+     * other thread may write them to disk in the meantime.
+     */
+    private static class Mutation {
+        final Thread thread = Thread.currentThread();
+        // keys of the pages fetched with READ_WRITE, added under the latch
+        // of their shard
+        final Set<Long> keys = ConcurrentHashMap.newKeySet();
+        int depth;
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages, replacing them
+     * with the scan resistant 2Q policy. The pool is split into up to twice
+     * as many shards as there are processors, as long as each shard gets
+     * {@link #MIN_SHARD_PAGES} pages.
      *
      * @param numPages maximum number of pages in this buffer pool.
      */
     public BufferPool(int numPages) {
         // some code goes here
+        this(numPages, defaultShards(numPages), TwoQueueReplacer::new);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages and asks the
+     * given replacer which page to evict when it is full.
+     *
+     * @param numPages maximum number of pages in this buffer pool.
+     * @param replacer the page replacement policy; must not be shared.
+     */
+    public BufferPool(int numPages, PageReplacer replacer) {
+        this(numPages, 1, n -> replacer);
+    }
+
+    /**
+     * Creates a BufferPool that caches up to numPages pages in numShards
+     * shards of about the same size.
+     *
+     * @param numPages  maximum number of pages in this buffer pool.
+     * @param numShards the number of shards, a power of two
+     * @param replacers creates the page replacement policy of a shard with
+     *                  the given number of pages
+     */
+    public BufferPool(int numPages, int numShards, IntFunction<PageReplacer> replacers) {
+        if (numShards < 1 || Integer.bitCount(numShards) != 1)
+            throw new IllegalArgumentException("number of shards must be a power of two");
+        if (numShards > Math.max(1, numPages))
+            throw new IllegalArgumentException("more shards than pages");
         this.numPages = numPages;
-        this.pages = new ConcurrentHashMap<>();
+        this.shards = new Shard[numShards];
+        for (int i = 0; i < numShards; i++) {
+            int capacity = numPages / numShards + (i < numPages % numShards ? 1 : 0);
+            shards[i] = new Shard(capacity, replacers.apply(capacity));
+        }
+        this.shardMask = numShards - 1;
+        this.shardShift = 64 - Integer.numberOfTrailingZeros(numShards);
         this.lockManager = new LockManager();
-        this.replacer = new LRUReplacer(numPages);
+    }
+
+    private static int defaultShards(int numPages) {
+        int shards = Integer.highestOneBit(2 * Runtime.getRuntime().availableProcessors());
+        while (shards > 1 && numPages / shards < MIN_SHARD_PAGES)
+            shards >>= 1;
+        return shards;
+    }
+
+    // the top bits of the hash, PageTable indexes with the bottom ones
+    private Shard shardOf(long key) {
+        return shards[(int) ((key * 0x9E3779B97F4A7C15L) >>> shardShift) & shardMask];
     }
 
     public static int getPageSize() {
@@ -70,14 +244,62 @@ public class BufferPool {
         BufferPool.pageSize = DEFAULT_PAGE_SIZE;
     }
 
-    public void upgradeLock(TransactionId tid, PageId pid) {
+    public void upgradeLock(TransactionId tid, PageId pid) throws TransactionAbortedException, DbException {
+        if (versions.isSnapshot(tid))
+            throw new DbException("snapshot transactions are read-only");
         lockManager.upgrade(tid, pid);
+        // pins the committed image of the page before it is modified
+        getPage(tid, pid, Permissions.READ_WRITE);
     }
 
     public void releaseSharedLock(TransactionId tid, PageId pid) {
         lockManager.releaseSharedLock(tid, pid);
     }
 
+    /**
+     * Acquires the exclusive lock on a page if that does not mean waiting
+     * for another transaction to release its lock on the page.
+     *
+     * @return true if tid may now fetch the page for writing without
+     * waiting
+     */
+    public boolean tryLockPage(TransactionId tid, PageId pid) throws TransactionAbortedException, DbException {
+        if (versions.isSnapshot(tid))
+            throw new DbException("snapshot transactions are read-only");
+        return lockManager.tryAcquireExclusiveLock(tid, pid);
+    }
+
+    /**
+     * Acquires the shared lock on a page without fetching it, e.g. for a
+     * scan that skips the page by what it knows of its tuples. Snapshot
+     * transactions lock nothing.
+     */
+    public void lockPage(TransactionId tid, PageId pid) throws TransactionAbortedException, DbException {
+        if (versions.isSnapshot(tid))
+            return;
+        lockManager.acquireSharedLock(tid, pid);
+    }
+
+    /**
+     * Locks a whole table, shared or exclusive, so that pages of the table
+     * are fetched and locked without asking the lock manager.
+     *
+     * @param tid     the ID of the transaction locking the table
+     * @param tableId the table to lock
+     * @param perm    READ_ONLY for a shared lock, READ_WRITE for an
+     *                exclusive one
+     */
+    public void lockTable(TransactionId tid, int tableId, Permissions perm)
+            throws TransactionAbortedException, DbException {
+        if (versions.isSnapshot(tid)) {
+            if (perm == Permissions.READ_WRITE)
+                throw new DbException("snapshot transactions are read-only");
+            return;
+        }
+        lockManager.acquireTableLock(tid, tableId,
+                perm == Permissions.READ_WRITE ? LockManager.LockMode.X : LockManager.LockMode.S);
+    }
+
     /**
      * Retrieve the specified page with the associated permissions.
      * Will acquire a lock and may block if that lock is held by another
@@ -96,38 +318,172 @@ public class BufferPool {
     public Page getPage(TransactionId tid, PageId pid, Permissions perm)
             throws TransactionAbortedException, DbException {
         // some code goes here
-        if (perm == Permissions.READ_ONLY) {
-            while (!lockManager.acquireSharedLock(tid, pid)) {
-                try {
-                    Thread.sleep(10);
-                } catch (InterruptedException ignored) {
-
-                }
-            }
-        } else {
-            while (!lockManager.acquireExclusiveLock(tid, pid)) {
-                try {
-                    Thread.sleep(10);
-                } catch (InterruptedException ignored) {
+        return getPage(tid, pid, perm, AccessHint.NORMAL);
+    }
 
-                }
-            }
+    /**
+     * Retrieve the specified page with the associated permissions, telling
+     * the page replacement policy how the page is being accessed.
+     *
+     * @param tid  the ID of the transaction requesting the page
+     * @param pid  the ID of the requested page
+     * @param perm the requested permissions on the page
+     * @param hint how the page is being accessed
+     * @see #getPage(TransactionId, PageId, Permissions)
+     */
+    public Page getPage(TransactionId tid, PageId pid, Permissions perm, AccessHint hint)
+            throws TransactionAbortedException, DbException {
+        if (versions.isSnapshot(tid)) {
+            if (perm == Permissions.READ_WRITE)
+                throw new DbException("snapshot transactions are read-only");
+            if (pid instanceof HeapPageId)
+                return getSnapshotPage(tid, (HeapPageId) pid, hint);
         }
-        Page page;
-        if (!pages.containsKey(pid.hashCode())) {
-            if (pages.size() >= numPages)
-                evictPage();
+        if (perm == Permissions.READ_ONLY)
+            lockManager.acquireSharedLock(tid, pid);
+        else
+            lockManager.acquireExclusiveLock(tid, pid);
+        long key = pid.pageKey();
+        Shard shard = shardOf(key);
+        Page page = shard.pages.get(key);
+        if (page == null) {
+            // read without holding the latch; the transaction's lock keeps
+            // the page from changing, and read-ahead only caches what is on
+            // disk
             DbFile dbfile = Database.getCatalog().getDatabaseFile(pid.getTableId());
             page = dbfile.readPage(pid);
             page.markDirty(false, tid);
-            pages.put(pid.hashCode(), page);
-            replacer.add(pid.hashCode());
+            page = install(shard, key, page, hint, false);
         } else {
-            page = pages.get(pid.hashCode());
+            shard.replacer.access(key, hint);
+        }
+        if (perm == Permissions.READ_WRITE) {
+            dirtied.computeIfAbsent(tid, t -> ConcurrentHashMap.newKeySet()).add(key);
+            if (pid instanceof HeapPageId)
+                versions.pin(tid, key, page);
+            Mutation m = mutations.get(tid);
+            if (m != null && m.thread == Thread.currentThread()) {
+                // waits for a write of the page in progress to finish
+                synchronized (shard) {
+                    m.keys.add(key);
+                }
+            }
         }
         return page;
     }
 
+    /**
+     * @return a private copy of the page as the snapshot of tid sees it
+     */
+    private Page getSnapshotPage(TransactionId tid, HeapPageId pid, AccessHint hint) throws DbException {
+        long key = pid.pageKey();
+        Shard shard = shardOf(key);
+        prefetchPage(pid, hint);
+        try {
+            byte[] data = versions.read(key, versions.snapshotOf(tid), () -> {
+                Page cached = shard.pages.get(key);
+                if (cached == null)
+                    cached = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+                return cached.getPageData();
+            });
+            return new HeapPage(pid, data);
+        } catch (IOException e) {
+            throw new DbException("could not read page " + pid + ": " + e.getMessage());
+        }
+    }
+
+    /**
+     * Starts a snapshot for tid, a read-only transaction. Until tid
+     * completes, it reads the heap pages as the transactions that had
+     * committed by now left them, without acquiring any lock; it may not
+     * fetch pages for writing. Pages of other files are locked as usual.
+     *
+     * @param tid the ID of a transaction that has not fetched any page yet
+     */
+    public void beginSnapshot(TransactionId tid) {
+        versions.begin(tid);
+    }
+
+    /**
+     * @return the number of old page images kept for snapshots
+     */
+    public int getNumVersions() {
+        return versions.getNumVersions();
+    }
+
+    /**
+     * Reads the specified page into the buffer pool, unless it is already
+     * cached, without acquiring any lock on it. Used by {@link ReadAhead} to
+     * warm the pool ahead of a scan; the scan still has to call getPage to
+     * lock and use the page. Only clean pages are evicted to make room, and
+     * the read is silently dropped if that is not possible.
+     *
+     * @param pid  the ID of the page to read
+     * @param hint how the page will be accessed
+     * @return true if the page was read into the buffer pool
+     */
+    public boolean prefetchPage(PageId pid, AccessHint hint) {
+        long key = pid.pageKey();
+        Shard shard = shardOf(key);
+        if (shard.pages.containsKey(key))
+            return false;
+        long epoch;
+        synchronized (shard) {
+            epoch = shard.removals;
+        }
+        Page page = Database.getCatalog().getDatabaseFile(pid.getTableId()).readPage(pid);
+        synchronized (shard) {
+            // if any page left the shard while we were reading, it may have
+            // been this one, flushed with newer contents than we just read
+            if (shard.removals != epoch || shard.pages.containsKey(key))
+                return false;
+            if (shard.pages.size() >= shard.capacity && !shard.evictClean())
+                return false;
+            page.markDirty(false, null);
+            shard.pages.put(key, page);
+            shard.replacer.add(key, hint);
+            return true;
+        }
+    }
+
+    /**
+     * Return true if the specified page is cached in the buffer pool
+     */
+    public boolean isCached(PageId pid) {
+        long key = pid.pageKey();
+        return shardOf(key).pages.containsKey(key);
+    }
+
+    /**
+     * @return the maximum number of pages in this buffer pool
+     */
+    public int getNumPages() {
+        return numPages;
+    }
+
+    /**
+     * @return the number of shards the pages of this buffer pool are
+     * partitioned into
+     */
+    public int getNumShards() {
+        return shards.length;
+    }
+
+    /**
+     * @return the number of cached pages that are newer than their copies
+     * on disk, or being written, and are not dirtied by a running
+     * transaction
+     */
+    public int getNumUnwritten() {
+        int n = 0;
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                n += shard.unwritten.size() + shard.writing.size();
+            }
+        }
+        return n;
+    }
+
     /**
      * Releases the lock on a page.
      * Calling this is very risky, and may result in wrong behavior. Think hard
@@ -168,34 +524,208 @@ public class BufferPool {
     /**
      * Commit or abort a given transaction; release all locks associated to
      * the transaction.
+     * <p>
+     * If the log cannot be written, a commit fails before it changes
+     * anything, and the transaction may still be aborted. If the before
+     * images cannot be written back to disk, an abort fails after undoing
+     * what it could, and may be retried. Either way the transaction keeps
+     * its locks.
      *
      * @param tid    the ID of the transaction requesting the unlock
      * @param commit a flag indicating whether we should commit or abort
+     * @throws RuntimeException wrapping the IOException that failed the
+     *                          commit or abort
      */
     public void transactionComplete(TransactionId tid, boolean commit) {
         // some code goes here
-        if (commit) {
-            try {
-                flushPages(tid);
-            } catch (IOException e) {
-                e.printStackTrace();
-            }
-        } else {    // discard and reread
-            for (Page page : pages.values()) {
-                if (tid == page.isDirty()) {
-                    PageId pid = page.getId();
-                    discardPage(pid);
-                    DbFile dbfile = Database.getCatalog().getDatabaseFile(pid.getTableId());
-                    Page oldPage = dbfile.readPage(pid);
-                    oldPage.markDirty(false, tid);
-                    pages.put(pid.hashCode(), oldPage);
-                    replacer.add(pid.hashCode());
+        synchronized (this) {
+            if (commit) {
+                // NO-FORCE: log the after images, the pages are written later
+                List<Page> logged = new ArrayList<>();
+                try {
+                    for (Map.Entry<Shard, List<Long>> group : dirtiedByShard(tid).entrySet()) {
+                        Shard shard = group.getKey();
+                        synchronized (shard) {
+                            for (long key : group.getValue()) {
+                                Page page = shard.pages.get(key);
+                                if (page != null && tid.equals(page.isDirty())) {
+                                    Database.getLogFile().logWrite(tid, page.getBeforeImage(), page);
+                                    logged.add(page);
+                                }
+                            }
+                        }
+                    }
+                } catch (IOException e) {
+                    throw new RuntimeException("could not log the pages of " + tid, e);
+                }
+                for (Page page : logged) {
+                    long key = page.getId().pageKey();
+                    Shard shard = shardOf(key);
+                    synchronized (shard) {
+                        page.setBeforeImage();
+                        page.markDirty(false, null);
+                        shard.unwritten.add(key);
+                    }
+                }
+                if (!logged.isEmpty())
+                    startWriter();
+                stolen.remove(tid);
+                loaded.remove(tid);
+                dirtied.remove(tid);
+                versions.commit(tid);
+            } else {    // go back to the before images
+                IOException failure = null;
+                Map<Long, Page> stolenPages = stolen.remove(tid);
+                if (stolenPages != null) {
+                    // the pages on disk, and any copies read back since, hold
+                    // changes of the transaction
+                    for (Iterator<Page> it = stolenPages.values().iterator(); it.hasNext(); ) {
+                        Page before = it.next();
+                        discardPage(before.getId());
+                        try {
+                            Database.getCatalog().getDatabaseFile(before.getId().getTableId()).writePage(before);
+                            it.remove();
+                        } catch (IOException e) {
+                            failure = e;
+                        }
+                    }
+                    if (!stolenPages.isEmpty())
+                        stolen.put(tid, stolenPages);
+                }
+                List<int[]> loadedRuns = loaded.remove(tid);
+                if (loadedRuns != null) {
+                    // the pages were empty before they were loaded
+                    for (Iterator<int[]> it = loadedRuns.iterator(); it.hasNext(); ) {
+                        int[] run = it.next();
+                        DbFile file = Database.getCatalog().getDatabaseFile(run[0]);
+                        try {
+                            for (int pgNo = run[1]; pgNo < run[1] + run[2]; pgNo++) {
+                                HeapPageId pid = new HeapPageId(run[0], pgNo);
+                                discardPage(pid);
+                                file.writePage(new HeapPage(pid, HeapPage.createEmptyPageData()));
+                            }
+                            it.remove();
+                        } catch (IOException e) {
+                            failure = e;
+                        }
+                    }
+                    if (!loadedRuns.isEmpty())
+                        loaded.put(tid, loadedRuns);
                 }
+                for (Map.Entry<Shard, List<Long>> group : dirtiedByShard(tid).entrySet()) {
+                    Shard shard = group.getKey();
+                    synchronized (shard) {
+                        for (long key : group.getValue()) {
+                            Page page = shard.pages.get(key);
+                            if (page != null && tid.equals(page.isDirty())) {
+                                Page oldPage = page.getBeforeImage();
+                                oldPage.markDirty(false, null);
+                                shard.pages.put(key, oldPage);
+                                // a stolen copy may be on disk
+                                shard.unwritten.add(key);
+                                restored(oldPage);
+                            }
+                        }
+                    }
+                }
+                if (failure != null)
+                    throw new RuntimeException("could not roll back " + tid, failure);
+                dirtied.remove(tid);
+                versions.abort(tid);
             }
         }
+        Set<HeapFile> files = inserting.remove(tid);
+        if (files != null) {
+            for (HeapFile file : files)
+                file.releaseInsertTarget(tid);
+        }
+        versions.end(tid);
         lockManager.releaseAll(tid);
     }
 
+    /**
+     * @return the keys of the pages tid fetched for writing, grouped by
+     * the shard they belong to, so that each shard is latched once
+     */
+    private Map<Shard, List<Long>> dirtiedByShard(TransactionId tid) {
+        Map<Shard, List<Long>> groups = new HashMap<>();
+        Set<Long> keys = dirtied.get(tid);
+        if (keys != null) {
+            for (long key : keys)
+                groups.computeIfAbsent(shardOf(key), s -> new ArrayList<>()).add(key);
+        }
+        return groups;
+    }
+
+    /**
+     * Logs the update records of a run of empty pages at the end of a heap
+     * file that tid filled without the pool, e.g. in a bulk load, forcing
+     * the log once for all of them. Must be called before the pages are
+     * written; if tid aborts, they are emptied again. Until tid ends,
+     * snapshot readers see the pages as they were, empty.
+     *
+     * @param pages consecutive pages of the same file
+     */
+    void logLoadedPages(TransactionId tid, List<HeapPage> pages) throws IOException {
+        if (pages.isEmpty())
+            return;
+        synchronized (this) {
+            for (HeapPage page : pages) {
+                HeapPage empty = new HeapPage(page.getId(), HeapPage.createEmptyPageData());
+                versions.pin(tid, page.getId().pageKey(), empty);
+                Database.getLogFile().logWrite(tid, empty, page);
+            }
+            Database.getLogFile().force();
+            HeapPageId first = pages.get(0).getId();
+            loaded.computeIfAbsent(tid, t -> new ArrayList<>())
+                    .add(new int[]{first.getTableId(), first.getPageNumber(), pages.size()});
+        }
+    }
+
+    /**
+     * Records that tid has an insert target in a heap file, which is
+     * released when tid ends.
+     */
+    void insertTargetChosen(TransactionId tid, HeapFile file) {
+        inserting.computeIfAbsent(tid, t -> ConcurrentHashMap.newKeySet()).add(file);
+    }
+
+    private void startWriter() {
+        if (writer == null && !closed) {
+            writer = new DirtyPageWriter(this);
+            writer.start();
+        }
+    }
+
+    /**
+     * Stops the background writer of this pool. If flush is true, the pages
+     * of committed transactions that have not been written yet are written
+     * first, as if by {@link #flushAllPages()}.
+     *
+     * @param flush whether to write the committed pages to disk
+     */
+    public void close(boolean flush) throws IOException {
+        DirtyPageWriter w;
+        synchronized (this) {
+            closed = true;
+            w = writer;
+            writer = null;
+        }
+        // not under the lock, the writer may be waiting for it
+        if (w != null)
+            w.shutdown();
+        if (flush) {
+            synchronized (this) {
+                for (Shard shard : shards) {
+                    synchronized (shard) {
+                        for (long key : new ArrayList<>(shard.unwritten))
+                            writePage(shard, key, shard.pages.get(key));
+                    }
+                }
+            }
+        }
+    }
+
     /**
      * Add a tuple to the specified table on behalf of transaction tid.  Will
      * acquire a write lock on the page the tuple is added to and any other
@@ -216,17 +746,15 @@ public class BufferPool {
         // some code goes here
         ArrayList<Page> list;
         DbFile file = Database.getCatalog().getDatabaseFile(tableId);
-        list = (ArrayList<Page>) file.insertTuple(tid, t);
-        for (Page p : list) {
-            p.markDirty(true, tid);
-            if (pages.containsKey(p.getId().hashCode())) {
-                replacer.update(p.getId().hashCode());
-            } else {
-                if (pages.size() >= numPages)
-                    evictPage();
-                pages.put(p.getId().hashCode(), p);
-                replacer.add(p.getId().hashCode());
+        Mutation m = beginMutation(tid);
+        try {
+            list = (ArrayList<Page>) file.insertTuple(tid, t);
+            for (Page p : list) {
+                p.markDirty(true, tid);
+                cacheDirtyPage(tid, p);
             }
+        } finally {
+            endMutation(tid, m);
         }
     }
 
@@ -249,29 +777,159 @@ public class BufferPool {
         List<Page> list;
         int tableId = t.getRecordId().getPageId().getTableId();
         DbFile file = Database.getCatalog().getDatabaseFile(tableId);
-        list = file.deleteTuple(tid, t);
-        for (Page p : list) {
-            p.markDirty(true, tid);
-            if (pages.containsKey(p.getId().hashCode())) {
-                replacer.update(p.getId().hashCode());
-            } else {
-                if (pages.size() >= numPages)
-                    evictPage();
-                pages.put(p.getId().hashCode(), p);
-                replacer.add(p.getId().hashCode());
+        Mutation m = beginMutation(tid);
+        try {
+            list = file.deleteTuple(tid, t);
+            for (Page p : list) {
+                p.markDirty(true, tid);
+                cacheDirtyPage(tid, p);
+            }
+        } finally {
+            endMutation(tid, m);
+        }
+    }
+
+    private Mutation beginMutation(TransactionId tid) {
+        Mutation m = mutations.get(tid);
+        if (m == null || m.thread != Thread.currentThread()) {
+            m = new Mutation();
+            mutations.put(tid, m);
+            activeMutations.incrementAndGet();
+        }
+        m.depth++;
+        return m;
+    }
+
+    private void endMutation(TransactionId tid, Mutation m) {
+        if (--m.depth == 0) {
+            mutations.remove(tid, m);
+            // a waiter counts itself before it reads the count
+            if (activeMutations.decrementAndGet() == 0 && flushWaiters.get() > 0) {
+                synchronized (this) {
+                    notifyAll();
+                }
             }
         }
     }
 
+    /**
+     * @return true if no other thread may be modifying the page with the
+     * specified key
+     */
+    private boolean isStable(long key) {
+        for (Mutation m : mutations.values()) {
+            if (m.thread != Thread.currentThread() && m.keys.contains(key))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Puts a page dirtied by insertTuple or deleteTuple into the pool,
+     * replacing any other version of it, e.g. one read ahead after this
+     * copy was evicted.
+     */
+    private void cacheDirtyPage(TransactionId tid, Page p) throws DbException {
+        long key = p.getId().pageKey();
+        dirtied.computeIfAbsent(tid, t -> ConcurrentHashMap.newKeySet()).add(key);
+        install(shardOf(key), key, p, AccessHint.NORMAL, true);
+    }
+
+    /**
+     * Caches page under key, evicting a page of the same shard if the shard
+     * is full. Only when no clean page is left is the pool's monitor taken to
+     * write a dirty page out.
+     *
+     * @param replace whether page replaces a page already cached under key;
+     *                otherwise the cached page is kept and returned
+     * @return the page now cached under key
+     */
+    private Page install(Shard shard, long key, Page page, AccessHint hint, boolean replace)
+            throws DbException {
+        synchronized (shard) {
+            Page cached = tryInstall(shard, key, page, hint, replace, false);
+            if (cached != null)
+                return cached;
+        }
+        synchronized (this) {
+            synchronized (shard) {
+                Page cached = tryInstall(shard, key, page, hint, replace, true);
+                if (cached != null)
+                    return cached;
+            }
+        }
+        throw new DbException("All the pages are being modified!");
+    }
+
+    /**
+     * @return the page now cached under key, or null if the shard is full
+     * and no page could be evicted
+     */
+    private Page tryInstall(Shard shard, long key, Page page, AccessHint hint, boolean replace, boolean steal)
+            throws DbException {
+        Page cached = shard.pages.get(key);
+        if (cached != null && !replace) {
+            shard.replacer.access(key, hint);
+            return cached;
+        }
+        if (cached == null && shard.pages.size() >= shard.capacity
+                && !shard.evictClean() && !(steal && evictPage(shard)))
+            return null;
+        shard.pages.put(key, page);
+        shard.replacer.add(key, hint);
+        return page;
+    }
+
     /**
      * Flush all dirty pages to disk.
      * NB: Be careful using this routine -- it writes dirty data to disk so will
      * break simpledb if running in NO STEAL mode.
+     * <p>
+     * Must not be called holding the log's monitor, see
+     * {@link #awaitMutations()}.
      */
-    public synchronized void flushAllPages() throws IOException {
+    public void flushAllPages() throws IOException {
         // some code goes here
-        for (Page page : pages.values()) {
-            flushPage(page.getId());
+        awaitMutations();
+        writeAllPages();
+    }
+
+    /**
+     * Waits until no insert or delete is in progress, so that every page is
+     * as its last operation left it. Waiting gives up only the pool's
+     * monitor, so this must not be called holding the log's: a thread we
+     * wait for may need both to go on, e.g. to steal a page or to commit.
+     * Nor may it be called in the middle of an insert or delete, or by a
+     * thread whose transaction holds locks such an operation waits for.
+     */
+    synchronized void awaitMutations() {
+        flushWaiters.incrementAndGet();
+        try {
+            while (activeMutations.get() > 0) {
+                try {
+                    wait();
+                } catch (InterruptedException ignored) {
+
+                }
+            }
+        } finally {
+            flushWaiters.decrementAndGet();
+        }
+    }
+
+    /**
+     * Writes every dirty page to disk, without waiting for other threads.
+     * Afterwards, every update a transaction committed is on disk, so a
+     * checkpoint may let go of the log before it.
+     */
+    synchronized void writeAllPages() throws IOException {
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                shard.awaitWrites();
+                for (Page page : shard.pages.values()) {
+                    flushPage(page.getId());
+                }
+            }
         }
     }
 
@@ -284,10 +942,16 @@ public class BufferPool {
      * Also used by B+ tree files to ensure that deleted pages
      * are removed from the cache so they can be reused safely
      */
-    public synchronized void discardPage(PageId pid) {
+    public void discardPage(PageId pid) {
         // some code goes here
-        pages.remove(pid.hashCode());
-        replacer.remove(pid.hashCode());
+        long key = pid.pageKey();
+        Shard shard = shardOf(key);
+        synchronized (shard) {
+            shard.removals++;
+            shard.pages.remove(key);
+            shard.replacer.remove(key);
+            shard.unwritten.remove(key);
+        }
     }
 
     /**
@@ -297,19 +961,117 @@ public class BufferPool {
      */
     private synchronized void flushPage(PageId pid) throws IOException {
         // some code goes here
+        long key = pid.pageKey();
+        Shard shard = shardOf(key);
+        synchronized (shard) {
+            shard.awaitWrites();
+            Page p = shard.pages.get(key);
+            if (p == null)
+                return;
+            if (isStable(key)) {
+                if (p.isDirty() != null || shard.unwritten.contains(key))
+                    writePage(shard, key, p);
+            } else if (shard.unwritten.contains(key)) {
+                // another thread is modifying the page; write it as it was
+                // last committed, which is its before image
+                Database.getLogFile().force();
+                Database.getCatalog().getDatabaseFile(p.getId().getTableId()).writePage(p.getBeforeImage());
+                shard.unwritten.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Writes a cached page to disk. If a running transaction dirtied the
+     * page, an update record with its before and after images is appended
+     * to the log and forced first, and the page stays dirty; otherwise the
+     * update records of the transaction that committed it are already in
+     * the log, and only have to be forced. Must be called holding both the
+     * pool's monitor and the shard's latch.
+     */
+    private void writePage(Shard shard, long key, Page p) throws IOException {
         // append an update record to the log, with
         // a before-image and after-image.
-        Page p = pages.get(pid.hashCode());
         TransactionId dirtier = p.isDirty();
         if (dirtier != null) {
             Database.getLogFile().logWrite(dirtier, p.getBeforeImage(), p);
-            Database.getLogFile().force();
+            stolen.computeIfAbsent(dirtier, t -> new HashMap<>()).putIfAbsent(key, p.getBeforeImage());
         }
-        DbFile file = Database.getCatalog().getDatabaseFile(pid.getTableId());
+        Database.getLogFile().force();
+        DbFile file = Database.getCatalog().getDatabaseFile(p.getId().getTableId());
         file.writePage(p);
-        pages.get(pid.hashCode()).markDirty(false, null);
-        pages.remove(pid.hashCode());
-        replacer.remove(pid.hashCode());
+        shard.unwritten.remove(key);
+    }
+
+    /**
+     * Tells the file of a page restored to its before image in the pool, so
+     * that a heap file's free space map shows the room the abort made.
+     */
+    private void restored(Page p) {
+        DbFile file = Database.getCatalog().getDatabaseFile(p.getId().getTableId());
+        if (file instanceof HeapFile) {
+            try {
+                ((HeapFile) file).pageRestored((HeapPage) p);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Writes up to maxPages of the pages committed transactions left in the
+     * pool to disk, leaving them cached. Called by the background writer.
+     * <p>
+     * The pages are picked under the latch of their shard, which copies
+     * their committed images, and written holding neither that latch nor
+     * the pool's monitor. Until then they may not be evicted, and anything
+     * else that has to write them waits. A page committed again meanwhile
+     * is back among the unwritten ones once the write is done.
+     *
+     * @return the number of pages written
+     */
+    int writeBehind(int maxPages) throws IOException {
+        List<Page> images = new ArrayList<>();
+        for (Shard shard : shards) {
+            synchronized (shard) {
+                for (Iterator<Long> it = shard.unwritten.iterator(); it.hasNext() && images.size() < maxPages; ) {
+                    long key = it.next();
+                    Page p = shard.pages.get(key);
+                    if (p == null) {
+                        it.remove();
+                    } else if (p.isDirty() == null && isStable(key)) {
+                        // a clean page is its own before image
+                        images.add(p.getBeforeImage());
+                        shard.writing.add(key);
+                        it.remove();
+                    }
+                }
+            }
+        }
+        if (images.isEmpty())
+            return 0;
+        int written = 0;
+        try {
+            // the update records of the pages were appended before they
+            // committed
+            Database.getLogFile().force();
+            for (Page image : images) {
+                Database.getCatalog().getDatabaseFile(image.getId().getTableId()).writePage(image);
+                written++;
+            }
+        } finally {
+            for (int i = 0; i < images.size(); i++) {
+                long key = images.get(i).getId().pageKey();
+                Shard shard = shardOf(key);
+                synchronized (shard) {
+                    shard.writing.remove(key);
+                    if (i >= written && shard.pages.containsKey(key))
+                        shard.unwritten.add(key);
+                    shard.notifyAll();
+                }
+            }
+        }
+        return written;
     }
 
     /**
@@ -317,10 +1079,15 @@ public class BufferPool {
      */
     public synchronized void flushPages(TransactionId tid) throws IOException {
         // some code goes here
-        for (Page page : pages.values()) {
-            if (tid == page.isDirty()) {
-                flushPage(page.getId());
-                page.setBeforeImage();
+        for (Map.Entry<Shard, List<Long>> group : dirtiedByShard(tid).entrySet()) {
+            Shard shard = group.getKey();
+            synchronized (shard) {
+                shard.awaitWrites();
+                for (long key : group.getValue()) {
+                    Page page = shard.pages.get(key);
+                    if (page != null && tid.equals(page.isDirty()))
+                        flushPage(page.getId());
+                }
             }
         }
     }
@@ -328,20 +1095,29 @@ public class BufferPool {
     /**
      * Discards a page from the buffer pool.
      * Flushes the page to disk to ensure dirty pages are updated on disk.
+     * Called when the shard has no clean page left: a dirty page that no
+     * other thread is modifying is written out, stealing it from its
+     * transaction if that one is still running. Must be called holding both
+     * the pool's monitor and the shard's latch.
+     *
+     * @return false if every page of the shard is being modified
      */
-    private synchronized void evictPage() throws DbException {
+    private boolean evictPage(Shard shard) throws DbException {
         // some code goes here
-        if (pages.isEmpty()) {
-            throw new DbException("No page, can not evict!");
-        }
-        if (pages.size() >= numPages) {
-            Optional<Integer> pageEvict = replacer.evict(pages);
-            if (pageEvict.isPresent()) {
-                pages.remove(pageEvict.get());
-            } else {
-                throw new DbException("All the pages are dirty!");
-            }
+        OptionalLong victim = shard.replacer.evict(key -> shard.pages.containsKey(key) && isStable(key)
+                && !shard.writing.contains(key));
+        if (victim.isEmpty())
+            return false;
+        long key = victim.getAsLong();
+        try {
+            writePage(shard, key, shard.pages.get(key));
+        } catch (IOException e) {
+            shard.replacer.add(key);
+            throw new DbException("could not write page to evict: " + e.getMessage());
         }
+        shard.removals++;
+        shard.pages.remove(key);
+        return true;
     }
 
-}
\ No newline at end of file
+}
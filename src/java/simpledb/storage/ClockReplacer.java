@@ -0,0 +1,115 @@
+package simpledb.storage;
+
+import java.util.Arrays;
+import java.util.OptionalLong;
+import java.util.function.LongPredicate;
+
+/**
+ * ClockReplacer approximates LRU with the CLOCK (second chance) algorithm.
+ * Every tracked page occupies a frame with a reference bit that is set on
+ * each access; the clock hand sweeps over the frames, clearing reference
+ * bits, and evicts the first evictable page whose bit is already clear.
+ * <p>
+ * Hits only set a bit, so they never reorder anything, and an eviction
+ * visits each frame at most twice. Pages read by a sequential scan start
+ * without their bit set and are not given a second chance by the scan's own
+ * accesses.
+ *
+ * @Threadsafe
+ */
+public class ClockReplacer implements PageReplacer {
+
+    private long[] keys;
+    private boolean[] occupied;
+    private boolean[] referenced;
+    private int[] free;
+    private int numFree;
+    private int hand;
+    private final LongIntMap frames;
+
+    /**
+     * Creates a replacer with room for numFrames pages. It grows if more
+     * pages are added.
+     *
+     * @param numFrames the number of pages in the buffer pool
+     */
+    public ClockReplacer(int numFrames) {
+        int capacity = Math.max(1, numFrames);
+        keys = new long[capacity];
+        occupied = new boolean[capacity];
+        referenced = new boolean[capacity];
+        free = new int[capacity];
+        for (int i = 0; i < capacity; i++)
+            free[i] = capacity - 1 - i;
+        numFree = capacity;
+        frames = new LongIntMap(capacity);
+    }
+
+    public synchronized void add(long key, AccessHint hint) {
+        int frame = frames.get(key);
+        if (frame == LongIntMap.NO_VALUE) {
+            if (numFree == 0)
+                grow();
+            frame = free[--numFree];
+            keys[frame] = key;
+            occupied[frame] = true;
+            frames.put(key, frame);
+            referenced[frame] = false;
+        }
+        if (hint != AccessHint.SEQUENTIAL)
+            referenced[frame] = true;
+    }
+
+    public synchronized void access(long key, AccessHint hint) {
+        int frame = frames.get(key);
+        if (frame != LongIntMap.NO_VALUE && hint != AccessHint.SEQUENTIAL)
+            referenced[frame] = true;
+    }
+
+    public synchronized void remove(long key) {
+        int frame = frames.remove(key);
+        if (frame != LongIntMap.NO_VALUE)
+            release(frame);
+    }
+
+    public synchronized OptionalLong evict(LongPredicate evictable) {
+        int n = keys.length;
+        // the first lap clears reference bits, the second finds them clear
+        for (int step = 0; step < 2 * n; step++) {
+            int frame = hand;
+            hand = (hand + 1) % n;
+            long key = keys[frame];
+            if (!occupied[frame] || !evictable.test(key))
+                continue;
+            if (referenced[frame]) {
+                referenced[frame] = false;
+                continue;
+            }
+            frames.remove(key);
+            release(frame);
+            return OptionalLong.of(key);
+        }
+        return OptionalLong.empty();
+    }
+
+    public synchronized int size() {
+        return frames.size();
+    }
+
+    private void release(int frame) {
+        occupied[frame] = false;
+        referenced[frame] = false;
+        free[numFree++] = frame;
+    }
+
+    private void grow() {
+        int old = keys.length;
+        int capacity = old * 2;
+        keys = Arrays.copyOf(keys, capacity);
+        occupied = Arrays.copyOf(occupied, capacity);
+        referenced = Arrays.copyOf(referenced, capacity);
+        free = new int[capacity];
+        for (int i = capacity - 1; i >= old; i--)
+            free[numFree++] = i;
+    }
+}
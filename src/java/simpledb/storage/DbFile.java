@@ -2,6 +2,7 @@ package simpledb.storage;
 
 import simpledb.common.Catalog;
 import simpledb.common.DbException;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
@@ -71,6 +72,109 @@ public interface DbFile {
      */
     DbFileIterator iterator(TransactionId tid);
 
+    /**
+     * Returns an iterator over all the tuples stored in this DbFile that
+     * passes the given access hint to {@link BufferPool#getPage} for the
+     * pages it reads. Files that have no use for the hint may ignore it.
+     *
+     * @return an iterator over all the tuples stored in this DbFile.
+     */
+    default DbFileIterator iterator(TransactionId tid, AccessHint hint) {
+        return iterator(tid);
+    }
+
+    /**
+     * Returns an iterator over the tuples stored in this DbFile that satisfy
+     * all of the given predicates, on the fields of this file. Files may
+     * test the predicates before they build the tuples, or skip pages none
+     * of whose tuples match; by default the tuples of
+     * {@link #iterator(TransactionId, AccessHint)} are filtered.
+     *
+     * @return an iterator over the matching tuples stored in this DbFile.
+     */
+    default DbFileIterator iterator(TransactionId tid, AccessHint hint, List<Predicate> predicates) {
+        DbFileIterator it = iterator(tid, hint);
+        if (predicates.isEmpty())
+            return it;
+        return new AbstractDbFileIterator() {
+            @Override
+            public void open() throws DbException, TransactionAbortedException {
+                it.open();
+            }
+
+            @Override
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                while (it.hasNext()) {
+                    Tuple t = it.next();
+                    if (Predicate.filterAll(predicates, t))
+                        return t;
+                }
+                return null;
+            }
+
+            @Override
+            public void rewind() throws DbException, TransactionAbortedException {
+                super.close();
+                it.rewind();
+            }
+
+            @Override
+            public void close() {
+                super.close();
+                it.close();
+            }
+        };
+    }
+
+    /**
+     * Returns an iterator over the tuples stored in this DbFile that satisfy
+     * all of the given predicates, each cut down to some of its fields, so
+     * that the fields the reader has no use for need not be decoded. By
+     * default the fields are copied from the tuples of
+     * {@link #iterator(TransactionId, AccessHint, List)}.
+     *
+     * @param predicates predicates on the fields of this file
+     * @param columns    the fields of this file the tuples hold, in order,
+     *                   or null for all of them
+     * @return an iterator over the matching tuples stored in this DbFile.
+     */
+    default DbFileIterator iterator(TransactionId tid, AccessHint hint, List<Predicate> predicates, int[] columns) {
+        DbFileIterator it = iterator(tid, hint, predicates);
+        if (columns == null)
+            return it;
+        TupleDesc td = TupleDesc.project(getTupleDesc(), columns);
+        return new AbstractDbFileIterator() {
+            @Override
+            public void open() throws DbException, TransactionAbortedException {
+                it.open();
+            }
+
+            @Override
+            protected Tuple readNext() throws DbException, TransactionAbortedException {
+                if (!it.hasNext())
+                    return null;
+                Tuple t = it.next();
+                Tuple projected = new Tuple(td);
+                for (int i = 0; i < columns.length; i++)
+                    projected.setField(i, t.getField(columns[i]));
+                projected.setRecordId(t.getRecordId());
+                return projected;
+            }
+
+            @Override
+            public void rewind() throws DbException, TransactionAbortedException {
+                super.close();
+                it.rewind();
+            }
+
+            @Override
+            public void close() {
+                super.close();
+                it.close();
+            }
+        };
+    }
+
     /**
      * Returns a unique ID used to identify this DbFile in the Catalog. This id
      * can be used to look up the table via {@link Catalog#getDatabaseFile} and
@@ -0,0 +1,99 @@
+package simpledb.storage;
+
+import java.io.IOException;
+
+/**
+ * DirtyPageWriter is the background writer of a BufferPool. A committed
+ * transaction leaves the pages it modified in the pool, newer than their
+ * copies on disk; the writer periodically writes a batch of them back so
+ * that most evictions find a clean frame and commits never wait for data
+ * pages to reach disk.
+ * <p>
+ * Each round writes at most {@link #BATCH_FRACTION} of the pool, or every
+ * page that can be written once more than {@link #HIGH_WATER} of the pool is
+ * waiting to be written.
+ */
+class DirtyPageWriter implements Runnable {
+
+    /**
+     * Milliseconds between two rounds of writes.
+     */
+    static final long INTERVAL_MILLIS = 50;
+
+    /**
+     * Fraction of the pool written in one round.
+     */
+    static final double BATCH_FRACTION = 0.125;
+
+    /**
+     * Fraction of the pool that may be waiting to be written before a round
+     * writes everything it can.
+     */
+    static final double HIGH_WATER = 0.5;
+
+    private final BufferPool bufferPool;
+    private final Thread thread;
+    // protected by this
+    private boolean running = true;
+
+    DirtyPageWriter(BufferPool bufferPool) {
+        this.bufferPool = bufferPool;
+        this.thread = new Thread(this, "simpledb-pagewriter");
+        this.thread.setDaemon(true);
+    }
+
+    void start() {
+        thread.start();
+    }
+
+    /**
+     * Stops the writer and waits for the round in progress, if any, to
+     * finish.
+     */
+    void shutdown() {
+        synchronized (this) {
+            running = false;
+            notifyAll();
+        }
+        if (thread == Thread.currentThread())
+            return;
+        boolean interrupted = false;
+        while (thread.isAlive()) {
+            try {
+                thread.join();
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+    }
+
+    public void run() {
+        int numPages = bufferPool.getNumPages();
+        int batch = Math.max(1, (int) (numPages * BATCH_FRACTION));
+        int highWater = Math.max(1, (int) (numPages * HIGH_WATER));
+        while (true) {
+            // not interrupted, since that would close the table files the
+            // writer happens to be using
+            synchronized (this) {
+                if (running) {
+                    try {
+                        wait(INTERVAL_MILLIS);
+                    } catch (InterruptedException ignored) {
+
+                    }
+                }
+                if (!running)
+                    return;
+            }
+            try {
+                int waiting = bufferPool.getNumUnwritten();
+                if (waiting > 0)
+                    bufferPool.writeBehind(waiting > highWater ? Integer.MAX_VALUE : batch);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+}
@@ -0,0 +1,250 @@
+package simpledb.storage;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * FileChannelPool keeps a bounded set of long-lived FileChannels, keyed by
+ * table id, so that DbFiles can read and write pages with positional I/O
+ * instead of opening the backing file on every page access.
+ * <p>
+ * Channels are pinned for the duration of a single read or write. When the
+ * pool is full, the least recently used unpinned channel is closed; if every
+ * channel is pinned the pool temporarily grows past its bound rather than
+ * blocking the caller.
+ *
+ * @Threadsafe
+ */
+public class FileChannelPool {
+
+    /**
+     * Default number of channels kept open by the pool.
+     */
+    public static final int DEFAULT_CHANNELS = 64;
+
+    private static class Handle {
+        final File file;
+        final FileChannel channel;
+        int pins;
+        boolean retired;
+
+        Handle(File file, FileChannel channel) {
+            this.file = file;
+            this.channel = channel;
+        }
+    }
+
+    private final int maxChannels;
+    private final LongAdder bytesRead = new LongAdder();
+    // access-ordered, so iteration starts at the least recently used channel
+    private final LinkedHashMap<Integer, Handle> handles;
+
+    /**
+     * Creates a pool that keeps at most maxChannels channels open.
+     *
+     * @param maxChannels maximum number of idle channels kept open.
+     */
+    public FileChannelPool(int maxChannels) {
+        if (maxChannels <= 0)
+            throw new IllegalArgumentException("pool must hold at least one channel");
+        this.maxChannels = maxChannels;
+        this.handles = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /**
+     * Reads from the file of the specified table into dst, starting at the
+     * given file position, until dst is full or the end of the file is reached.
+     *
+     * @param tableId  the table the file belongs to
+     * @param f        the file backing the table
+     * @param dst      the buffer to read into
+     * @param position the file position to start reading at
+     * @return the number of bytes read
+     */
+    public int read(int tableId, File f, ByteBuffer dst, long position) throws IOException {
+        Handle h = pin(tableId, f);
+        try {
+            int total = 0;
+            while (dst.hasRemaining()) {
+                int n = h.channel.read(dst, position + total);
+                if (n < 0)
+                    break;
+                total += n;
+            }
+            bytesRead.add(total);
+            return total;
+        } finally {
+            unpin(h);
+        }
+    }
+
+    /**
+     * Writes all remaining bytes of src to the file of the specified table,
+     * starting at the given file position.
+     *
+     * @param tableId  the table the file belongs to
+     * @param f        the file backing the table
+     * @param src      the bytes to write
+     * @param position the file position to start writing at
+     */
+    public void write(int tableId, File f, ByteBuffer src, long position) throws IOException {
+        Handle h = pin(tableId, f);
+        try {
+            long offset = position;
+            while (src.hasRemaining()) {
+                offset += h.channel.write(src, offset);
+            }
+        } finally {
+            unpin(h);
+        }
+    }
+
+    /**
+     * Appends all remaining bytes of src to the end of the file of the
+     * specified table. Callers are responsible for serializing appends to
+     * the same file.
+     *
+     * @return the file position the bytes were written at
+     */
+    public long append(int tableId, File f, ByteBuffer src) throws IOException {
+        Handle h = pin(tableId, f);
+        try {
+            long position = h.channel.size();
+            long offset = position;
+            while (src.hasRemaining()) {
+                offset += h.channel.write(src, offset);
+            }
+            return position;
+        } finally {
+            unpin(h);
+        }
+    }
+
+    /**
+     * Maps a region of the file of the specified table read-only into
+     * memory. The mapping stays valid after the channel itself is closed.
+     *
+     * @param tableId  the table the file belongs to
+     * @param f        the file backing the table
+     * @param position the file position the mapping starts at
+     * @param size     the number of bytes to map
+     */
+    public MappedByteBuffer map(int tableId, File f, long position, long size) throws IOException {
+        Handle h = pin(tableId, f);
+        try {
+            return h.channel.map(FileChannel.MapMode.READ_ONLY, position, size);
+        } finally {
+            unpin(h);
+        }
+    }
+
+    /**
+     * Forces any writes to the file of the specified table to the storage
+     * device.
+     */
+    public void force(int tableId, File f) throws IOException {
+        Handle h = pin(tableId, f);
+        try {
+            h.channel.force(false);
+        } finally {
+            unpin(h);
+        }
+    }
+
+    /**
+     * Closes the channel of the specified table, if it is open. A channel
+     * that is in use is closed as soon as the current I/O finishes.
+     */
+    public synchronized void close(int tableId) {
+        Handle h = handles.remove(tableId);
+        if (h != null)
+            retire(h);
+    }
+
+    /**
+     * Closes every channel in the pool.
+     */
+    public synchronized void closeAll() {
+        for (Handle h : handles.values())
+            retire(h);
+        handles.clear();
+    }
+
+    /**
+     * @return the number of bytes read through the pool since it was
+     * created, not counting memory mapped reads.
+     */
+    public long getBytesRead() {
+        return bytesRead.sum();
+    }
+
+    /**
+     * @return the number of channels currently open.
+     */
+    public synchronized int getNumOpen() {
+        return handles.size();
+    }
+
+    private synchronized Handle pin(int tableId, File f) throws IOException {
+        File file = f.getAbsoluteFile();
+        Handle h = handles.get(tableId);
+        if (h != null && (!h.file.equals(file) || !h.channel.isOpen())) {
+            handles.remove(tableId);
+            retire(h);
+            h = null;
+        }
+        if (h == null) {
+            evictIdle();
+            FileChannel channel = FileChannel.open(file.toPath(),
+                    StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.CREATE);
+            h = new Handle(file, channel);
+            handles.put(tableId, h);
+        }
+        h.pins++;
+        return h;
+    }
+
+    private synchronized void unpin(Handle h) {
+        h.pins--;
+        if (h.retired && h.pins == 0)
+            closeQuietly(h.channel);
+    }
+
+    private void evictIdle() {
+        Iterator<Map.Entry<Integer, Handle>> it = handles.entrySet().iterator();
+        List<Handle> evicted = new ArrayList<>();
+        while (handles.size() >= maxChannels && it.hasNext()) {
+            Handle h = it.next().getValue();
+            if (h.pins == 0) {
+                it.remove();
+                evicted.add(h);
+            }
+        }
+        for (Handle h : evicted)
+            retire(h);
+    }
+
+    private void retire(Handle h) {
+        h.retired = true;
+        if (h.pins == 0)
+            closeQuietly(h.channel);
+    }
+
+    private static void closeQuietly(FileChannel channel) {
+        try {
+            channel.close();
+        } catch (IOException e) {
+            e.printStackTrace();
+        }
+    }
+}
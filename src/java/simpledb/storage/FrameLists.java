@@ -0,0 +1,179 @@
+package simpledb.storage;
+
+import java.util.Arrays;
+
+/**
+ * FrameLists holds the bookkeeping shared by the list-based page replacers:
+ * one frame per tracked page key, found through a {@link LongIntMap}, and a
+ * fixed number of intrusive doubly-linked lists the frames can be linked
+ * into. Every operation is O(1); the frame arrays grow when more keys are
+ * tracked than the table was sized for.
+ * <p>
+ * Not thread safe.
+ */
+class FrameLists {
+
+    static final int NIL = -1;
+
+    private long[] keys;
+    private int[] lists;
+    private int[] counts;
+    private int[] prev;
+    private int[] next;
+    private int[] free;
+    private int numFree;
+    private final LongIntMap frames;
+
+    private final int[] heads;
+    private final int[] tails;
+    private final int[] sizes;
+
+    /**
+     * @param numFrames the expected number of tracked keys
+     * @param numLists  the number of lists frames can be linked into
+     */
+    FrameLists(int numFrames, int numLists) {
+        int capacity = Math.max(1, numFrames);
+        keys = new long[capacity];
+        lists = new int[capacity];
+        Arrays.fill(lists, NIL);
+        counts = new int[capacity];
+        prev = new int[capacity];
+        next = new int[capacity];
+        free = new int[capacity];
+        for (int i = 0; i < capacity; i++)
+            free[i] = capacity - 1 - i;
+        numFree = capacity;
+        frames = new LongIntMap(capacity);
+        heads = new int[numLists];
+        tails = new int[numLists];
+        Arrays.fill(heads, NIL);
+        Arrays.fill(tails, NIL);
+        sizes = new int[numLists];
+    }
+
+    /**
+     * @return the frame of key, or NIL if key is not tracked
+     */
+    int find(long key) {
+        int frame = frames.get(key);
+        return frame == LongIntMap.NO_VALUE ? NIL : frame;
+    }
+
+    /**
+     * Starts tracking key in a new frame that is not linked into any list.
+     */
+    int allocate(long key) {
+        if (numFree == 0)
+            grow();
+        int frame = free[--numFree];
+        keys[frame] = key;
+        counts[frame] = 0;
+        frames.put(key, frame);
+        return frame;
+    }
+
+    /**
+     * Stops tracking the key of frame, unlinking it first if necessary.
+     */
+    void release(int frame) {
+        if (lists[frame] != NIL)
+            unlink(frame);
+        frames.remove(keys[frame]);
+        free[numFree++] = frame;
+    }
+
+    long key(int frame) {
+        return keys[frame];
+    }
+
+    /**
+     * @return the list frame is linked into, or NIL
+     */
+    int list(int frame) {
+        return lists[frame];
+    }
+
+    /**
+     * A per-frame counter that replacers may use as they see fit.
+     */
+    int count(int frame) {
+        return counts[frame];
+    }
+
+    void setCount(int frame, int count) {
+        counts[frame] = count;
+    }
+
+    int head(int list) {
+        return heads[list];
+    }
+
+    int next(int frame) {
+        return next[frame];
+    }
+
+    int size(int list) {
+        return sizes[list];
+    }
+
+    /**
+     * @return the number of tracked keys
+     */
+    int size() {
+        return frames.size();
+    }
+
+    /**
+     * Links an unlinked frame at the tail of the specified list.
+     */
+    void linkTail(int frame, int list) {
+        prev[frame] = tails[list];
+        next[frame] = NIL;
+        if (tails[list] == NIL)
+            heads[list] = frame;
+        else
+            next[tails[list]] = frame;
+        tails[list] = frame;
+        lists[frame] = list;
+        sizes[list]++;
+    }
+
+    /**
+     * Moves a linked frame to the tail of the specified list.
+     */
+    void moveToTail(int frame, int list) {
+        unlink(frame);
+        linkTail(frame, list);
+    }
+
+    void unlink(int frame) {
+        int list = lists[frame];
+        int p = prev[frame], n = next[frame];
+        if (p == NIL)
+            heads[list] = n;
+        else
+            next[p] = n;
+        if (n == NIL)
+            tails[list] = p;
+        else
+            prev[n] = p;
+        prev[frame] = next[frame] = NIL;
+        lists[frame] = NIL;
+        sizes[list]--;
+    }
+
+    private void grow() {
+        int old = keys.length;
+        int capacity = old * 2;
+        keys = Arrays.copyOf(keys, capacity);
+        lists = Arrays.copyOf(lists, capacity);
+        Arrays.fill(lists, old, capacity, NIL);
+        counts = Arrays.copyOf(counts, capacity);
+        prev = Arrays.copyOf(prev, capacity);
+        next = Arrays.copyOf(next, capacity);
+        free = new int[capacity];
+        for (int i = capacity - 1; i >= old; i--)
+            free[numFree++] = i;
+    }
+}
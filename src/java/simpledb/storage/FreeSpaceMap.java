@@ -0,0 +1,180 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
+/**
+ * FreeSpaceMap records how much room each page of a {@link HeapFile} has
+ * left, so that an insert goes straight to a page with an empty slot
+ * instead of reading every page before it. There is one byte per page: the
+ * fraction of its room that is free, in 255ths, rounded up so that only
+ * full pages have 0; the room is counted in slots, or in bytes on SLOTTED
+ * pages.
+ * <p>
+ * The map is kept in memory and in a side file next to the heap file,
+ * named after it with {@link #SUFFIX} appended. The side file is updated
+ * whenever a page is written to the heap file, from what was written, so
+ * it describes the pages on disk, including the ones recovery rolls back;
+ * the map in memory also follows the changes made to cached pages. Both are
+ * hints: a page the map wrongly shows as having room is corrected when an
+ * insert finds it full. Pages the side file does not cover, e.g. every page
+ * the first time a file is used, are read once to fill the gap.
+ *
+ * @Threadsafe
+ */
+class FreeSpaceMap {
+
+    static final String SUFFIX = ".fsm";
+
+    private final HeapFile hf;
+    private final File file;
+    // FileChannelPool key of the side file
+    private final int channelKey;
+
+    // the fields below are protected by this
+    private boolean loaded;
+    // free space of the pages, as in memory and as in the side file
+    private byte[] free = new byte[0];
+    private byte[] stored = new byte[0];
+    // pages with an empty slot
+    private final BitSet hasRoom = new BitSet();
+
+    FreeSpaceMap(HeapFile hf) {
+        this.hf = hf;
+        this.file = sideFile(hf.getFile());
+        this.channelKey = channelKey(hf.getFile());
+    }
+
+    /**
+     * @return the side file that holds the free space map of a heap file
+     */
+    static File sideFile(File heapFile) {
+        return new File(heapFile.getPath() + SUFFIX);
+    }
+
+    private static int channelKey(File heapFile) {
+        return ~heapFile.getAbsoluteFile().hashCode();
+    }
+
+    /**
+     * Deletes the side file of a heap file, closing the channel open on it.
+     */
+    static void drop(File heapFile) {
+        Database.getFileChannelPool().close(channelKey(heapFile));
+        sideFile(heapFile).delete();
+    }
+
+    /**
+     * @return the free space of a page, in 255ths of its room, rounded up
+     */
+    static int freeSpaceOf(HeapPage page) {
+        return freeSpaceOf(page.getFreeSpace(), page.getCapacity());
+    }
+
+    /**
+     * @return the free space of a page with the given room left out of its
+     * capacity, e.g. empty slots out of all its slots
+     */
+    static int freeSpaceOf(int free, int capacity) {
+        return (255 * free + capacity - 1) / capacity;
+    }
+
+    /**
+     * @param minFree the least free space the page must have, at least 1
+     * @return the first page at or after pgNo with at least minFree free
+     * space, or -1 if there is none
+     */
+    synchronized int nextWithRoom(int pgNo, int minFree) throws IOException {
+        load();
+        for (pgNo = hasRoom.nextSetBit(pgNo); pgNo >= 0; pgNo = hasRoom.nextSetBit(pgNo + 1)) {
+            if ((free[pgNo] & 0xFF) >= minFree)
+                return pgNo;
+        }
+        return -1;
+    }
+
+    /**
+     * Records the free space of a page modified in the buffer pool.
+     */
+    synchronized void update(HeapPage page) throws IOException {
+        load();
+        set(page.getId().getPageNumber(), freeSpaceOf(page));
+    }
+
+    /**
+     * Records the free space of a page just written to the heap file, in the
+     * side file too.
+     */
+    synchronized void written(HeapPage page) throws IOException {
+        load();
+        int pgNo = page.getId().getPageNumber();
+        set(pgNo, freeSpaceOf(page));
+        if (stored[pgNo] != free[pgNo])
+            store(pgNo, pgNo + 1);
+    }
+
+    /**
+     * Records the free space of consecutive pages just written to the heap
+     * file, in the side file too.
+     */
+    synchronized void written(List<HeapPage> pages) throws IOException {
+        if (pages.isEmpty())
+            return;
+        load();
+        for (HeapPage page : pages)
+            set(page.getId().getPageNumber(), freeSpaceOf(page));
+        int first = pages.get(0).getId().getPageNumber();
+        store(first, first + pages.size());
+    }
+
+    private void set(int pgNo, int space) {
+        if (pgNo >= free.length) {
+            int length = Math.max(pgNo + 1, 2 * free.length);
+            free = Arrays.copyOf(free, length);
+            stored = Arrays.copyOf(stored, length);
+        }
+        free[pgNo] = (byte) space;
+        hasRoom.set(pgNo, space != 0);
+    }
+
+    private void store(int from, int to) throws IOException {
+        Database.getFileChannelPool().write(channelKey, file, ByteBuffer.wrap(free, from, to - from), from);
+        System.arraycopy(free, from, stored, from, to - from);
+    }
+
+    /**
+     * Reads the side file, and the pages it does not cover, the first time
+     * the map is used.
+     */
+    private void load() throws IOException {
+        if (loaded)
+            return;
+        loaded = true;
+        int numPages = hf.numPages();
+        ByteBuffer buf = ByteBuffer.allocate(numPages);
+        int read = file.exists() ? Database.getFileChannelPool().read(channelKey, file, buf, 0) : 0;
+        for (int pgNo = 0; pgNo < numPages; pgNo++) {
+            if (pgNo < read) {
+                set(pgNo, buf.get(pgNo) & 0xFF);
+                stored[pgNo] = free[pgNo];
+            } else {
+                set(pgNo, freeSpaceOf(readPage(pgNo)));
+            }
+        }
+        if (read < numPages)
+            store(read, numPages);
+    }
+
+    // reads a page from the heap file directly; HeapFile.readPage may take
+    // the monitor of the file, which is held while this one is acquired
+    private HeapPage readPage(int pgNo) throws IOException {
+        byte[] data = hf.readPageData(pgNo);
+        return new HeapPage(new HeapPageId(hf.getId(), pgNo), data != null ? data : HeapPage.createEmptyPageData());
+    }
+}
@@ -3,16 +3,24 @@ package simpledb.storage;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Permissions;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 import java.io.File;
 import java.io.IOException;
-import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.NoSuchElementException;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * HeapFile is an implementation of a DbFile that stores a collection of tuples
@@ -28,6 +36,32 @@ public class HeapFile implements DbFile {
 
     private final File file;
     private final TupleDesc td;
+    private final PageLayout layout;
+
+    // upper bound on the bytes covered by a single mapping of the file
+    private static final long MAX_SEGMENT_BYTES = 1L << 30;
+
+    private volatile boolean memoryMapped;
+    // read-only mappings of consecutive, page aligned regions of the file;
+    // replaced as a whole under this object's monitor
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private int mappedPageSize;
+
+    private volatile boolean readAhead = true;
+    private volatile boolean compressed;
+
+    // pages bulkLoad builds in memory and writes at once
+    private static final int BULK_LOAD_PAGES = 256;
+
+    private final FreeSpaceMap freeSpace;
+    private final ZoneMap zoneMap;
+
+    // fraction of the slots of a page inserts fill
+    private volatile double fillFactor = 1.0;
+    // the page each running transaction inserts into, and the other way
+    // around
+    private final Map<TransactionId, Integer> insertTargets = new ConcurrentHashMap<>();
+    private final Map<Integer, TransactionId> targeted = new ConcurrentHashMap<>();
 
     /**
      * Constructs a heap file backed by the specified file.
@@ -37,8 +71,58 @@ public class HeapFile implements DbFile {
      */
     public HeapFile(File f, TupleDesc td) {
         // some code goes here
+        this(f, td, PageLayout.ROW);
+    }
+
+    /**
+     * Constructs a heap file backed by the specified file, whose pages are
+     * laid out as given. The side files of a heap file in the temporary
+     * directory are deleted when the virtual machine terminates; they are
+     * rebuilt from the pages if the heap file outlives them.
+     *
+     * @param f      the file that stores the on-disk backing store for this
+     *               heap file.
+     * @param layout the layout of the tuples on the pages of f
+     */
+    public HeapFile(File f, TupleDesc td, PageLayout layout) {
         this.file = f;
         this.td = td;
+        this.layout = layout;
+        this.freeSpace = new FreeSpaceMap(this);
+        this.zoneMap = new ZoneMap(this);
+        if (isTemporary(f)) {
+            FreeSpaceMap.sideFile(f).deleteOnExit();
+            ZoneMap.sideFile(f).deleteOnExit();
+        }
+    }
+
+    /**
+     * @return true if f is in the temporary directory
+     */
+    private static boolean isTemporary(File f) {
+        Path tmp = Paths.get(System.getProperty("java.io.tmpdir")).toAbsolutePath().normalize();
+        return tmp.equals(f.getAbsoluteFile().toPath().normalize().getParent());
+    }
+
+    /**
+     * Deletes the free space map kept next to the heap file stored in f. Call
+     * it when f is rewritten other than through a HeapFile.
+     *
+     * @see FreeSpaceMap
+     */
+    public static void dropFreeSpaceMap(File f) {
+        FreeSpaceMap.drop(f);
+    }
+
+    /**
+     * Deletes the zone map kept next to the heap file stored in f. Call it
+     * when f is rewritten other than through a HeapFile or a
+     * HeapFileEncoder.
+     *
+     * @see ZoneMap
+     */
+    public static void dropZoneMap(File f) {
+        ZoneMap.drop(f);
     }
 
     /**
@@ -75,49 +159,213 @@ public class HeapFile implements DbFile {
         return td;
     }
 
+    /**
+     * Returns the layout of the tuples on the pages of this file.
+     */
+    public PageLayout getLayout() {
+        return layout;
+    }
+
+    /**
+     * Returns true if pages of this file are read from a memory mapping
+     * rather than copied out of the file.
+     */
+    public boolean isMemoryMapped() {
+        return memoryMapped;
+    }
+
+    /**
+     * Switches the read path of this file between reading each page through
+     * the file channel and copying it out of a read-only memory mapping of
+     * the file. Writes always go through the file channel; the mapping sees
+     * them since both share the OS page cache, which is also why every page
+     * gets its own copy of the mapped bytes rather than a view of them.
+     *
+     * @see simpledb.common.Catalog#setMemoryMapped
+     */
+    public synchronized void setMemoryMapped(boolean mapped) {
+        memoryMapped = mapped;
+        segments = new MappedByteBuffer[0];
+    }
+
+    /**
+     * Extends the memory mapping of this file to cover all of its pages, e.g.
+     * after the file was grown by insertTuple. Does nothing if the file is not
+     * memory mapped.
+     */
+    synchronized void remap() throws IOException {
+        if (!memoryMapped)
+            return;
+        int pageSize = BufferPool.getPageSize();
+        MappedByteBuffer[] old = segments;
+        if (pageSize != mappedPageSize) {
+            old = new MappedByteBuffer[0];
+            mappedPageSize = pageSize;
+        }
+        long segmentBytes = segmentBytes(pageSize);
+        long length = (long) numPages() * pageSize;
+        int n = (int) ((length + segmentBytes - 1) / segmentBytes);
+        MappedByteBuffer[] next = Arrays.copyOf(old, Math.max(n, old.length));
+        for (int i = 0; i < n; i++) {
+            long start = i * segmentBytes;
+            long size = Math.min(segmentBytes, length - start);
+            // only the last, partially covered segment can have grown
+            if (i < old.length && old[i].capacity() == size)
+                continue;
+            next[i] = Database.getFileChannelPool().map(getId(), file, start, size);
+        }
+        segments = next;
+    }
+
+    private static long segmentBytes(int pageSize) {
+        return MAX_SEGMENT_BYTES / pageSize * pageSize;
+    }
+
+    /**
+     * Returns a view of the specified page in the memory mapping of this
+     * file, or null if this file is not memory mapped.
+     */
+    private ByteBuffer mappedPage(int pgNo) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        long segmentBytes = segmentBytes(pageSize);
+        long offset = (long) pgNo * pageSize;
+        int seg = (int) (offset / segmentBytes);
+        int segOffset = (int) (offset % segmentBytes);
+
+        MappedByteBuffer[] segs = segments;
+        if (seg >= segs.length || segs[seg].capacity() < segOffset + pageSize || pageSize != mappedPageSize) {
+            remap();
+            segs = segments;
+            if (seg >= segs.length)
+                return null;
+        }
+        return segs[seg].slice(segOffset, pageSize);
+    }
+
     // see DbFile.java for javadocs
     public Page readPage(PageId pid) {
         // some code goes here
 
         int tableId = pid.getTableId();
         int pgNo = pid.getPageNumber();
+        int pageSize = BufferPool.getPageSize();
 
-        RandomAccessFile f;
+        if ((long) (pgNo + 1) * pageSize > file.length()) {
+            throw new IllegalArgumentException(String.format("table %d page %d is invalid", tableId, pgNo));
+        }
         try {
-            f = new RandomAccessFile(file, "r");
-            if ((long) (pgNo + 1) * BufferPool.getPageSize() > f.length()) {
-                f.close();
-                throw new IllegalArgumentException(String.format("table %d page %d is invalid", tableId, pgNo));
+            HeapPageId id = new HeapPageId(pid.getTableId(), pid.getPageNumber());
+            if (memoryMapped) {
+                ByteBuffer mapped = mappedPage(pgNo);
+                if (mapped != null) {
+                    byte[] data = PageCompression.decode(mapped, pageSize);
+                    if (data == null) {
+                        // the mapping changes under the page when the file is written
+                        data = new byte[pageSize];
+                        mapped.get(0, data);
+                    }
+                    return new HeapPage(id, data);
+                }
             }
-            byte[] bytes = new byte[BufferPool.getPageSize()];
-            f.seek((long) pgNo * BufferPool.getPageSize());
-            // big end
-            int read = f.read(bytes, 0, BufferPool.getPageSize());
-            if (read != BufferPool.getPageSize()) {
-                throw new IllegalArgumentException(String.format("table %d page %d read %d bytes", tableId, pgNo, read));
+            byte[] data = readPageData(pgNo);
+            if (data == null) {
+                throw new IllegalArgumentException(String.format("table %d page %d is past the end of the file", tableId, pgNo));
             }
-            HeapPageId id = new HeapPageId(pid.getTableId(), pid.getPageNumber());
-            return new HeapPage(id, bytes);
+            return new HeapPage(id, data);
         } catch (IOException e) {
             e.printStackTrace();
         }
         return null;
     }
 
+    /**
+     * Reads the data of the specified page from the file, decompressing it
+     * if it is stored compressed.
+     *
+     * @return the data of the page, or null if the file ends before it
+     */
+    byte[] readPageData(int pgNo) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        long position = (long) pgNo * pageSize;
+        if (compressed)
+            return PageCompression.read(getId(), file, position, pageSize);
+        // uncompressed files are read at once; they may still hold pages
+        // written while compression was on
+        ByteBuffer buf = ByteBuffer.allocate(pageSize);
+        int read = Database.getFileChannelPool().read(getId(), file, buf, position);
+        if (read != pageSize)
+            return null;
+        byte[] decompressed = PageCompression.decode(buf.rewind(), pageSize);
+        return decompressed != null ? decompressed : buf.array();
+    }
+
+    /**
+     * Returns true if sequential scans of this file read pages ahead of the
+     * scan in the background.
+     */
+    public boolean isReadAhead() {
+        return readAhead;
+    }
+
+    /**
+     * Turns background read-ahead for sequential scans of this file on or off.
+     *
+     * @see ReadAhead
+     */
+    public void setReadAhead(boolean readAhead) {
+        this.readAhead = readAhead;
+    }
+
+    /**
+     * Returns true if pages of this file are compressed when they are
+     * written.
+     */
+    public boolean isCompressed() {
+        return compressed;
+    }
+
+    /**
+     * Turns compression of the pages written to this file on or off. Pages
+     * already in the file stay as they are until they are written again;
+     * both kinds are read either way.
+     *
+     * @see PageCompression
+     * @see simpledb.common.Catalog#setCompressed
+     */
+    public void setCompressed(boolean compressed) {
+        this.compressed = compressed;
+    }
+
     // see DbFile.java for javadocs
     public void writePage(Page page) throws IOException {
         // some code goes here
-        PageId pid = page.getId();
-        int pgNo = pid.getPageNumber();
+        int pgNo = page.getId().getPageNumber();
+        int pageSize = BufferPool.getPageSize();
+        long position = (long) pgNo * pageSize;
+        ByteBuffer buf = stored(page.getPageData());
+        // a page that extends the file fills its slot, so the file stays a
+        // whole number of pages long
+        if (position + pageSize > file.length())
+            buf.limit(pageSize);
+        int[] ranges = zoneMap.writing(List.of((HeapPage) page));
+        Database.getFileChannelPool().write(getId(), file, buf, position);
+        zoneMap.written(pgNo, ranges);
+        freeSpace.written((HeapPage) page);
+    }
 
-        RandomAccessFile f;
-        try {
-            f = new RandomAccessFile(file, "rw");
-            f.seek((long) pgNo * BufferPool.getPageSize());
-            f.write(page.getPageData(), 0, BufferPool.getPageSize());
-        } catch (IOException e) {
-            e.printStackTrace();
-        }
+    // the bytes to write for a page, as long as the page or shorter; the
+    // array behind them is as long as the page and zero after them
+    private ByteBuffer stored(byte[] data) {
+        return compressed ? PageCompression.encode(data) : ByteBuffer.wrap(data, 0, BufferPool.getPageSize());
+    }
+
+    /**
+     * Called by the BufferPool when it restores the cached copy of a page to
+     * its before image, which may have more room than the page had.
+     */
+    void pageRestored(HeapPage page) throws IOException {
+        freeSpace.update(page);
+        zoneMap.update(page);
     }
 
     /**
@@ -128,36 +376,128 @@ public class HeapFile implements DbFile {
         return (int) Math.ceil((int) (file.length() / BufferPool.getPageSize()));
     }
 
+    /**
+     * Returns the fraction of the slots of a page that inserts fill before
+     * they move on to another page.
+     */
+    public double getFillFactor() {
+        return fillFactor;
+    }
+
+    /**
+     * Sets the fraction of the slots of a page that inserts fill, leaving
+     * the rest for tuples that later updates put back on the page. At least
+     * one slot of every page is filled.
+     *
+     * @param fillFactor a fraction in (0, 1]
+     */
+    public void setFillFactor(double fillFactor) {
+        if (!(fillFactor > 0 && fillFactor <= 1))
+            throw new IllegalArgumentException("fill factor must be in (0, 1]: " + fillFactor);
+        this.fillFactor = fillFactor;
+    }
+
+    // room inserts fill on a page, e.g. the number of slots
+    private int spaceToFill(int capacity) {
+        return Math.max(1, (int) Math.ceil(fillFactor * capacity));
+    }
+
+    private boolean canInsertInto(HeapPage page, Tuple t) {
+        int need = page.spaceFor(t);
+        int used = page.getCapacity() - page.getFreeSpace();
+        return need <= page.getFreeSpace() && (used == 0 || used + need <= spaceToFill(page.getCapacity()));
+    }
+
+    /**
+     * Forgets the page tid inserted into; called when tid ends, which
+     * releases its lock on the page.
+     */
+    void releaseInsertTarget(TransactionId tid) {
+        Integer pgNo = insertTargets.remove(tid);
+        if (pgNo != null)
+            targeted.remove(pgNo, tid);
+    }
+
+    private void chooseInsertTarget(BufferPool bp, TransactionId tid, int pgNo) {
+        insertTargets.put(tid, pgNo);
+        targeted.put(pgNo, tid);
+        bp.insertTargetChosen(tid, this);
+    }
+
     // see DbFile.java for javadocs
     public List<Page> insertTuple(TransactionId tid, Tuple t)
             throws DbException, IOException, TransactionAbortedException {
         // some code goes here
-        int pgNo;
-        int numPages = numPages();
         HeapPageId pageId;
         HeapPage page;
         ArrayList<Page> list = new ArrayList<>();
-        for (pgNo = 0; pgNo < numPages; pgNo++) {
-            pageId = new HeapPageId(getId(), pgNo);
-            page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_ONLY);
-            if (page.getNumEmptySlots() > 0) {
-                Database.getBufferPool().upgradeLock(tid, page.getId());
+        BufferPool bp = Database.getBufferPool();
+        // a transaction keeps inserting into the page it chose until the
+        // page is filled, and holds its lock on the page meanwhile
+        Integer target = insertTargets.get(tid);
+        if (target != null) {
+            pageId = new HeapPageId(getId(), target);
+            page = (HeapPage) bp.getPage(tid, pageId, Permissions.READ_WRITE);
+            if (canInsertInto(page, t)) {
                 page.insertTuple(t);
                 page.markDirty(true, tid);
+                freeSpace.update(page);
+                zoneMap.inserted(target, t);
                 list.add(page);
-                break;
+                return list;
             }
-            Database.getBufferPool().releaseSharedLock(tid, page.getId());
+            releaseInsertTarget(tid);
         }
-        if (list.isEmpty()) {
+        // only the pages the free space map shows with room are looked at
+        int capacity = HeapPage.getCapacity(td, layout);
+        int need = HeapPage.spaceFor(td, layout, t);
+        int minFree = FreeSpaceMap.freeSpaceOf(Math.min(capacity, capacity - spaceToFill(capacity) + need), capacity);
+        for (int pgNo = freeSpace.nextWithRoom(0, minFree); pgNo >= 0; pgNo = freeSpace.nextWithRoom(pgNo + 1, minFree)) {
             pageId = new HeapPageId(getId(), pgNo);
+            // another transaction's target is being filled, unless the
+            // transaction is gone without releasing it, e.g. with its pool
+            TransactionId owner = targeted.get(pgNo);
+            if (owner != null && !owner.equals(tid)) {
+                if (bp.holdsLock(owner, pageId))
+                    continue;
+                targeted.remove(pgNo, owner);
+                insertTargets.remove(owner, pgNo);
+            }
+            // a page another transaction uses would make us wait for it to
+            // end, so concurrent inserts spread over different pages
+            boolean held = bp.holdsLock(tid, pageId);
+            if (!held && !bp.tryLockPage(tid, pageId))
+                continue;
+            page = (HeapPage) bp.getPage(tid, pageId, Permissions.READ_ONLY);
+            if (canInsertInto(page, t)) {
+                bp.upgradeLock(tid, page.getId());
+                page.insertTuple(t);
+                page.markDirty(true, tid);
+                freeSpace.update(page);
+                zoneMap.inserted(pgNo, t);
+                chooseInsertTarget(bp, tid, pgNo);
+                list.add(page);
+                return list;
+            }
+            // the map was out of date, and we only looked at the page
+            freeSpace.update(page);
+            if (!held)
+                bp.unsafeReleasePage(tid, pageId);
+        }
+        // other inserts may be appending pages too
+        synchronized (this) {
+            pageId = new HeapPageId(getId(), numPages());
             page = new HeapPage(pageId, HeapPage.createEmptyPageData());
             writePage(page);
-            page = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_WRITE);
-            page.insertTuple(t);
-            page.markDirty(true, tid);
-            list.add(page);
         }
+        remap();
+        page = (HeapPage) bp.getPage(tid, pageId, Permissions.READ_WRITE);
+        page.insertTuple(t);
+        page.markDirty(true, tid);
+        freeSpace.update(page);
+        zoneMap.inserted(pageId.getPageNumber(), t);
+        chooseInsertTarget(bp, tid, pageId.getPageNumber());
+        list.add(page);
         return list;
     }
 
@@ -170,74 +510,171 @@ public class HeapFile implements DbFile {
         ArrayList<Page> list = new ArrayList<>();
         page.deleteTuple(t);
         page.markDirty(true, tid);
+        try {
+            freeSpace.update(page);
+        } catch (IOException e) {
+            throw new DbException("could not update the free space map: " + e.getMessage());
+        }
         list.add(page);
         return list;
     }
 
+    /**
+     * Appends tuples to this file on new pages, filled up to the fill
+     * factor, without inserting them one by one through the BufferPool.
+     * The pages are built in memory {@link #BULK_LOAD_PAGES} at a time; each
+     * batch is logged with a single force of the log and written to the end
+     * of the file with a single write. tid locks the whole table
+     * exclusively, so other transactions see the tuples once it commits;
+     * if it aborts, the pages are left empty.
+     *
+     * @return the number of tuples loaded
+     */
+    public int bulkLoad(TransactionId tid, Iterator<Tuple> tuples)
+            throws DbException, IOException, TransactionAbortedException {
+        BufferPool bp = Database.getBufferPool();
+        bp.lockTable(tid, getId(), Permissions.READ_WRITE);
+        int pageSize = BufferPool.getPageSize();
+        int count = 0;
+        // the tuple that did not fit in the last batch
+        Tuple carry = null;
+        while (carry != null || tuples.hasNext()) {
+            // the pages are filled before their numbers are known, as
+            // tuples of varying size fill them unevenly
+            List<byte[]> filled = new ArrayList<>();
+            List<List<Tuple>> onPages = new ArrayList<>();
+            HeapPage page = new HeapPage(new HeapPageId(getId(), -1), HeapPage.createEmptyPageData());
+            List<Tuple> onPage = new ArrayList<>();
+            while (carry != null || tuples.hasNext()) {
+                Tuple t = carry != null ? carry : tuples.next();
+                carry = null;
+                if (!canInsertInto(page, t)) {
+                    filled.add(page.getPageData());
+                    onPages.add(onPage);
+                    page = new HeapPage(new HeapPageId(getId(), -1), HeapPage.createEmptyPageData());
+                    onPage = new ArrayList<>();
+                    if (filled.size() == BULK_LOAD_PAGES) {
+                        carry = t;
+                        break;
+                    }
+                }
+                page.insertTuple(t);
+                onPage.add(t);
+                count++;
+            }
+            if (carry == null) {
+                filled.add(page.getPageData());
+                onPages.add(onPage);
+            }
+            int n = filled.size();
+            int first;
+            // claim the pages by writing the last one; the ones before it
+            // read as empty pages meanwhile
+            synchronized (this) {
+                first = numPages();
+                writePage(new HeapPage(new HeapPageId(getId(), first + n - 1), HeapPage.createEmptyPageData()));
+            }
+            List<HeapPage> pages = new ArrayList<>(n);
+            ByteBuffer buf = ByteBuffer.allocate(n * pageSize);
+            for (int i = 0; i < n; i++) {
+                HeapPageId pid = new HeapPageId(getId(), first + i);
+                pages.add(new HeapPage(pid, filled.get(i)));
+                buf.put(stored(filled.get(i))).position((i + 1) * pageSize);
+                for (Tuple t : onPages.get(i))
+                    t.setRecordId(new RecordId(pid, t.getRecordId().getTupleNumber()));
+            }
+            bp.logLoadedPages(tid, pages);
+            buf.flip();
+            int[] ranges = zoneMap.writing(pages);
+            Database.getFileChannelPool().write(getId(), file, buf, (long) first * pageSize);
+            zoneMap.written(first, ranges);
+            for (HeapPage loaded : pages)
+                bp.discardPage(loaded.getId());
+            freeSpace.written(pages);
+        }
+        remap();
+        return count;
+    }
+
     // see DbFile.java for javadocs
     public DbFileIterator iterator(TransactionId tid) {
         // some code goes here
+        return iterator(tid, AccessHint.NORMAL);
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid, AccessHint hint) {
+        return iterator(tid, hint, List.of());
+    }
+
+    // see DbFile.java for javadocs
+    public DbFileIterator iterator(TransactionId tid, AccessHint hint, List<Predicate> predicates) {
+        return iterator(tid, hint, predicates, null);
+    }
+
+    /**
+     * Returns an iterator over the tuples of this file that satisfy all of
+     * the predicates. It skips the pages whose {@link ZoneMap zone map}
+     * shows that none of their tuples match, and tests the tuples of the
+     * other pages on the bytes of the page, before it builds them. The
+     * skipped pages are still locked, as if they were read. The tuples
+     * read only the given columns from the page.
+     */
+    public DbFileIterator iterator(TransactionId tid, AccessHint hint, List<Predicate> predicates, int[] columns) {
+        TupleDesc tupleDesc = columns == null ? td : TupleDesc.project(td, columns);
         return new DbFileIterator() {
-            private HeapPage currPage;
-            private HeapPage nextPage;
+            // the page the tuples of it are on
             private int pgNo;
-            private PageId pageId;
             private int numPages;
             private Iterator<Tuple> it;
-            private boolean switchPage;
-            private int detector = 1;
+            private ReadAhead pagesAhead;
 
             @Override
             public void open() throws DbException, TransactionAbortedException {
-                pgNo = 0;
-                pageId = new HeapPageId(getId(), pgNo);
+                pgNo = -1;
                 numPages = numPages();
-                currPage = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_ONLY);
-                if (currPage == null) {
-                    throw new DbException("No page");
+                if (readAhead)
+                    pagesAhead = new ReadAhead(Database.getBufferPool(), getId(), numPages, hint);
+                nextPage();
+            }
+
+            // moves on to the next page that may hold a matching tuple
+            private void nextPage() throws DbException, TransactionAbortedException {
+                BufferPool bp = Database.getBufferPool();
+                while (++pgNo < numPages) {
+                    HeapPageId pageId = new HeapPageId(getId(), pgNo);
+                    if (!mayMatch(pgNo, predicates)) {
+                        bp.lockPage(tid, pageId);
+                        // inserts widen the zone map under the page lock
+                        if (!mayMatch(pgNo, predicates))
+                            continue;
+                    }
+                    if (pagesAhead != null)
+                        pagesAhead.access(pgNo);
+                    it = ((HeapPage) bp.getPage(tid, pageId, Permissions.READ_ONLY, hint)).iterator(predicates, columns, tupleDesc);
+                    return;
                 }
-                it = currPage.iterator();
-                switchPage = false;
+                it = Collections.emptyIterator();
             }
 
             @Override
             public boolean hasNext() throws DbException, TransactionAbortedException {
-                if (currPage == null) {
-                    return false;
-                }
                 if (it == null) {
-                    throw new DbException("Not open");
-                }
-                if (it.hasNext()) {
-                    return true;
-                } else if (pgNo + 1 < numPages) {
-                    detector = 1;
-                    while (pgNo + detector < numPages) {
-                        pageId = new HeapPageId(getId(), pgNo + detector);
-                        nextPage = (HeapPage) Database.getBufferPool().getPage(tid, pageId, Permissions.READ_ONLY);
-                        it = nextPage.iterator();
-                        if (it.hasNext()) {
-                            switchPage = true;
-                            return true;
-                        }
-                        detector++;
-                    }
-                    return false;
-                } else {
                     return false;
                 }
+                while (!it.hasNext()) {
+                    if (pgNo >= numPages - 1)
+                        return false;
+                    nextPage();
+                }
+                return true;
             }
 
             @Override
             public Tuple next() throws DbException, TransactionAbortedException, NoSuchElementException {
-                if (currPage == null || it == null) {
+                if (it == null || !hasNext()) {
                     throw new NoSuchElementException();
                 }
-                if (switchPage) {
-                    pgNo += detector;
-                    currPage = nextPage;
-                    switchPage = false;
-                }
                 return it.next();
             }
 
@@ -250,9 +687,20 @@ public class HeapFile implements DbFile {
             @Override
             public void close() {
                 it = null;
+                if (pagesAhead != null) {
+                    pagesAhead.close();
+                    pagesAhead = null;
+                }
             }
         };
     }
 
-}
+    private boolean mayMatch(int pgNo, List<Predicate> predicates) throws DbException {
+        try {
+            return zoneMap.mayMatch(pgNo, predicates);
+        } catch (IOException e) {
+            throw new DbException("could not read the zone map: " + e.getMessage());
+        }
+    }
 
+}
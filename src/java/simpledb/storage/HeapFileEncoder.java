@@ -4,8 +4,18 @@ import simpledb.common.Type;
 import simpledb.common.Utility;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
 import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 
 /**
  * HeapFileEncoder reads a comma delimited text file or accepts
@@ -13,10 +23,23 @@ import java.util.List;
  * pages of binary data in the appropriate format for simpledb heap pages
  * Pages are padded out to a specified length, and written consecutive in a
  * data file.
+ * <p>
+ * A text file is converted by a pipeline: the calling thread reads the
+ * input in large blocks and cuts it, on line boundaries, into chunks that
+ * each fill {@link #CHUNK_PAGES} pages; a pool of worker threads parses the
+ * chunks and builds their pages; and the calling thread writes the pages to
+ * the output file in order, through a single channel. The workers also
+ * summarize the pages for the {@link ZoneMap} of the output file, which the
+ * calling thread writes next to it.
  */
 
 public class HeapFileEncoder {
 
+    // pages built from each chunk of the input
+    private static final int CHUNK_PAGES = 64;
+    // bytes read from the input at a time
+    private static final int BLOCK_BYTES = 1 << 20;
+
     /**
      * Convert the specified tuple list (with only integer fields) into a binary
      * page file. <br>
@@ -69,160 +92,465 @@ public class HeapFileEncoder {
         convert(inFile, outFile, npagebytes, numFields, typeAr, ',');
     }
 
+    /**
+     * Convert the specified input text file into a binary page file, with a
+     * single thread.
+     *
+     * @return the number of tuples written
+     * @see #convert(File, File, int, int, Type[], char, int)
+     */
+    public static long convert(File inFile, File outFile, int npagebytes,
+                               int numFields, Type[] typeAr, char fieldSeparator)
+            throws IOException {
+        return convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, 1);
+    }
+
     /**
      * Convert the specified input text file into a binary
      * page file. <br>
-     * Assume format of the input file is (note that only integer fields are
-     * supported):<br>
-     * int,...,int\n<br>
-     * int,...,int\n<br>
+     * Assume format of the input file is:<br>
+     * field,...,field\n<br>
+     * field,...,field\n<br>
      * ...<br>
-     * where each row represents a tuple.<br>
+     * where each row represents a tuple, and each field is an int or a
+     * string, as given by typeAr. Blank lines and carriage returns are
+     * ignored; an int field that cannot be parsed is reported and stored as
+     * 0, and missing trailing fields are stored as zeroes.<br>
      * <p>
      * The format of the output file will be as specified in HeapPage and
      * HeapFile.
      *
-     * @param inFile     The input file to read data from
-     * @param outFile    The output file to write data to
-     * @param npagebytes The number of bytes per page in the output file
-     * @param numFields  the number of fields in each input line/output tuple
+     * @param inFile         The input file to read data from
+     * @param outFile        The output file to write data to
+     * @param npagebytes     The number of bytes per page in the output file
+     * @param numFields      the number of fields in each input line/output tuple
+     * @param typeAr         the types of the fields
+     * @param fieldSeparator the character between the fields of a line
+     * @param threads        the number of threads that parse the input and
+     *                       build the pages
+     * @return the number of tuples written
      * @throws IOException if the input/output file can't be opened or a
      *                     malformed input line is encountered
      * @see HeapPage
      * @see HeapFile
      */
-    public static void convert(File inFile, File outFile, int npagebytes,
-                               int numFields, Type[] typeAr, char fieldSeparator)
+    public static long convert(File inFile, File outFile, int npagebytes,
+                               int numFields, Type[] typeAr, char fieldSeparator, int threads)
             throws IOException {
+        return convert(inFile, outFile, npagebytes, numFields, typeAr, fieldSeparator, threads, PageLayout.ROW);
+    }
 
-        int nrecbytes = 0;
-        for (int i = 0; i < numFields; i++) {
-            nrecbytes += typeAr[i].getLen();
+    /**
+     * Convert the specified input text file into a binary page file whose
+     * pages are laid out as given; the file has to be opened as a HeapFile
+     * of the same layout.
+     *
+     * @param pageLayout the layout of the tuples on the pages
+     * @return the number of tuples written
+     * @see #convert(File, File, int, int, Type[], char, int)
+     */
+    public static long convert(File inFile, File outFile, int npagebytes,
+                               int numFields, Type[] typeAr, char fieldSeparator, int threads,
+                               PageLayout pageLayout)
+            throws IOException {
+        if (threads < 1)
+            throw new IllegalArgumentException("number of threads must be positive");
+        Layout layout = new Layout(npagebytes, numFields, typeAr, fieldSeparator, pageLayout);
+        long records = 0;
+        ExecutorService pool = threads > 1 ? Executors.newFixedThreadPool(threads, r -> {
+            Thread t = new Thread(r, "HeapFileEncoder");
+            t.setDaemon(true);
+            return t;
+        }) : null;
+        // the chunks being converted, in input order
+        ArrayDeque<Future<Converted>> pending = new ArrayDeque<>();
+        HeapFile.dropFreeSpaceMap(outFile);
+        HeapFile.dropZoneMap(outFile);
+        // pages of another size than the BufferPool's cannot be summarized;
+        // they are once the file is opened with that size
+        boolean zones = layout.zoneFields.length > 0 && npagebytes == BufferPool.getPageSize();
+        try (InputStream in = new FileInputStream(inFile);
+             FileChannel out = FileChannel.open(outFile.toPath(), StandardOpenOption.CREATE,
+                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+             Output output = new Output(out, zones ? ZoneMap.sideFile(outFile) : null)) {
+            byte[] block = new byte[BLOCK_BYTES];
+            Chunk chunk = new Chunk(BLOCK_BYTES);
+            // whether the line being read has anything but carriage returns
+            boolean inLine = false;
+            int n;
+            while ((n = in.read(block)) > 0) {
+                int start = 0;
+                for (int i = 0; i < n; i++) {
+                    byte b = block[i];
+                    if (b != '\n') {
+                        if (b != '\r')
+                            inLine = true;
+                        continue;
+                    }
+                    if (inLine) {
+                        chunk.append(block, start, i + 1 - start);
+                        inLine = false;
+                        if (++chunk.records == CHUNK_PAGES * layout.nrecords) {
+                            records += chunk.records;
+                            submit(pool, pending, layout, chunk, output, threads);
+                            chunk = new Chunk(chunk.length);
+                        }
+                    }
+                    start = i + 1;
+                }
+                if (inLine)
+                    chunk.append(block, start, n - start);
+            }
+            // the last line may lack its newline
+            if (inLine) {
+                chunk.append(new byte[]{'\n'}, 0, 1);
+                chunk.records++;
+            }
+            // an empty input still makes a page
+            if (chunk.records > 0 || records == 0) {
+                records += chunk.records;
+                submit(pool, pending, layout, chunk, output, threads);
+            }
+            while (!pending.isEmpty())
+                output.write(pending.poll());
+            output.finish(outFile, npagebytes);
+        } finally {
+            if (pool != null)
+                pool.shutdownNow();
         }
-        int nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);  //floor comes for free
+        return records;
+    }
 
-        //  per record, we need one bit; there are nrecords per page, so we need
-        // nrecords bits, i.e., ((nrecords/32)+1) integers.
-        int nheaderbytes = (nrecords / 8);
-        if (nheaderbytes * 8 < nrecords)
-            nheaderbytes++;  //ceiling
-        int nheaderbits = nheaderbytes * 8;
+    /**
+     * Queues a chunk for conversion, first writing the oldest converted
+     * chunk out while too many are queued.
+     */
+    private static void submit(ExecutorService pool, ArrayDeque<Future<Converted>> pending,
+                               Layout layout, Chunk chunk, Output output, int threads) throws IOException {
+        Callable<Converted> task = () -> {
+            ByteBuffer pages = layout.pages(chunk);
+            return new Converted(pages, output.zones != null ? layout.zones(pages) : null);
+        };
+        if (pool == null) {
+            try {
+                output.write(task.call());
+            } catch (IOException | RuntimeException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException(e);
+            }
+            return;
+        }
+        while (pending.size() >= 2 * threads)
+            output.write(pending.poll());
+        pending.add(pool.submit(task));
+    }
 
-        BufferedReader br = new BufferedReader(new FileReader(inFile));
-        FileOutputStream os = new FileOutputStream(outFile);
+    /**
+     * The pages built from a chunk, and their ranges in the zone map.
+     */
+    private static final class Converted {
+        final ByteBuffer pages;
+        final ByteBuffer zones;
 
-        // our numbers probably won't be much larger than 1024 digits
-        char[] buf = new char[1024];
+        Converted(ByteBuffer pages, ByteBuffer zones) {
+            this.pages = pages;
+            this.zones = zones;
+        }
+    }
 
-        int curpos = 0;
-        int recordcount = 0;
-        int npages = 0;
-        int fieldNo = 0;
+    /**
+     * The output file, and the side file of its zone map if it has one.
+     */
+    private static final class Output implements Closeable {
+        final FileChannel out;
+        final FileChannel zones;
 
-        ByteArrayOutputStream headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-        DataOutputStream headerStream = new DataOutputStream(headerBAOS);
-        ByteArrayOutputStream pageBAOS = new ByteArrayOutputStream(npagebytes);
-        DataOutputStream pageStream = new DataOutputStream(pageBAOS);
+        Output(FileChannel out, File zoneFile) throws IOException {
+            this.out = out;
+            this.zones = zoneFile == null ? null : FileChannel.open(zoneFile.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+            // the header is written once the pages are
+            if (zones != null)
+                zones.position(ZoneMap.HEADER_SIZE);
+        }
 
-        boolean done = false;
-        boolean first = true;
-        while (!done) {
-            int c = br.read();
+        void write(Future<Converted> converted) throws IOException {
+            try {
+                write(converted.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new InterruptedIOException("interrupted while converting");
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException)
+                    throw (IOException) e.getCause();
+                throw new IOException(e.getCause());
+            }
+        }
 
-            // Ignore Windows/Notepad special line endings
-            if (c == '\r')
-                continue;
+        void write(Converted converted) throws IOException {
+            while (converted.pages.hasRemaining())
+                out.write(converted.pages);
+            while (zones != null && converted.zones.hasRemaining())
+                zones.write(converted.zones);
+        }
 
-            if (c == '\n') {
-                if (first)
-                    continue;
-                recordcount++;
-                first = true;
-            } else
-                first = false;
-            if (c == fieldSeparator || c == '\n' || c == '\r') {
-                String s = new String(buf, 0, curpos);
-                if (typeAr[fieldNo] == Type.INT_TYPE) {
-                    try {
-                        pageStream.writeInt(Integer.parseInt(s.trim()));
-                    } catch (NumberFormatException e) {
-                        System.out.println("BAD LINE : " + s);
-                    }
-                } else if (typeAr[fieldNo] == Type.STRING_TYPE) {
-                    s = s.trim();
-                    int overflow = Type.STRING_LEN - s.length();
-                    if (overflow < 0) {
-                        s = s.substring(0, Type.STRING_LEN);
-                    }
-                    pageStream.writeInt(s.length());
-                    pageStream.writeBytes(s);
-                    while (overflow-- > 0)
-                        pageStream.write((byte) 0);
-                }
-                curpos = 0;
-                if (c == '\n')
-                    fieldNo = 0;
-                else
-                    fieldNo++;
-
-            } else if (c == -1) {
-                done = true;
-
-            } else {
-                buf[curpos++] = (char) c;
-                continue;
-            }
-
-            // if we wrote a full page of records, or if we're done altogether,
-            // write out the header of the page.
-            //
-            // in the header, write a 1 for bits that correspond to records we've
-            // written and 0 for empty slots.
-            //
-            // when we're done, also flush the page to disk, but only if it has
-            // records on it.  however, if this file is empty, do flush an empty
-            // page to disk.
-            if (recordcount >= nrecords
-                    || done && recordcount > 0
-                    || done && npages == 0) {
-                int i = 0;
-                byte headerbyte = 0;
-
-                for (i = 0; i < nheaderbits; i++) {
-                    if (i < recordcount)
-                        headerbyte |= (1 << (i % 8));
-
-                    if (((i + 1) % 8) == 0) {
-                        headerStream.writeByte(headerbyte);
-                        headerbyte = 0;
-                    }
-                }
+        /**
+         * Writes the header of the zone map, after every page was written
+         * to outFile; a conversion that fails leaves a zone map without
+         * one, which is rebuilt when it is used.
+         */
+        void finish(File outFile, int pageSize) throws IOException {
+            if (zones == null)
+                return;
+            ByteBuffer header = ZoneMap.header(outFile, pageSize);
+            while (header.hasRemaining())
+                zones.write(header, header.position());
+        }
 
-                if (i % 8 > 0)
-                    headerStream.writeByte(headerbyte);
+        @Override
+        public void close() throws IOException {
+            if (zones != null)
+                zones.close();
+        }
+    }
 
-                // pad the rest of the page with zeroes
+    /**
+     * Complete, non-blank lines of the input, each ending with a newline.
+     */
+    private static final class Chunk {
+        byte[] data;
+        int length;
+        int records;
 
-                for (i = 0; i < (npagebytes - (recordcount * nrecbytes + nheaderbytes)); i++)
-                    pageStream.writeByte(0);
+        Chunk(int capacity) {
+            data = new byte[Math.max(capacity, 1)];
+        }
 
-                // write header and body to file
-                headerStream.flush();
-                headerBAOS.writeTo(os);
-                pageStream.flush();
-                pageBAOS.writeTo(os);
+        void append(byte[] b, int off, int len) {
+            if (length + len > data.length)
+                data = Arrays.copyOf(data, Math.max(2 * data.length, length + len));
+            System.arraycopy(b, off, data, length, len);
+            length += len;
+        }
+    }
 
-                // reset header and body for next page
-                headerBAOS = new ByteArrayOutputStream(nheaderbytes);
-                headerStream = new DataOutputStream(headerBAOS);
-                pageBAOS = new ByteArrayOutputStream(npagebytes);
-                pageStream = new DataOutputStream(pageBAOS);
+    /**
+     * The layout of the pages of the output file, and how lines become
+     * tuples on them.
+     */
+    private static final class Layout {
+        final int npagebytes;
+        final int numFields;
+        final Type[] typeAr;
+        final char fieldSeparator;
+        final int nrecbytes;
+        final int nrecords;
+        final int nheaderbytes;
+        final PageLayout pageLayout;
+        final TupleDesc td;
+        // the fields the zone map covers
+        final int[] zoneFields;
+        // the offset of each field in a record, or in PAX, the offset of the
+        // column of each field relative to nrecords
+        final int[] fieldOffsets;
+        final Charset charset = Charset.defaultCharset();
+
+        Layout(int npagebytes, int numFields, Type[] typeAr, char fieldSeparator, PageLayout pageLayout) {
+            this.npagebytes = npagebytes;
+            this.pageLayout = pageLayout;
+            this.numFields = numFields;
+            this.typeAr = typeAr;
+            this.fieldSeparator = fieldSeparator;
+            this.td = new TupleDesc(typeAr);
+            this.zoneFields = ZoneMap.intFields(td);
+            int nrecbytes = 0;
+            this.fieldOffsets = new int[numFields];
+            for (int i = 0; i < numFields; i++) {
+                fieldOffsets[i] = nrecbytes;
+                nrecbytes += typeAr[i].getLen();
+            }
+            this.nrecbytes = nrecbytes;
+            if (pageLayout == PageLayout.SLOTTED) {
+                // the fewest records of the longest length a page holds
+                this.nrecords = (npagebytes - HeapPage.SLOTTED_HEADER_SIZE) / (nrecbytes + HeapPage.SLOT_ENTRY_SIZE);
+                this.nheaderbytes = 0;
+                return;
+            }
+            this.nrecords = (npagebytes * 8) / (nrecbytes * 8 + 1);  //floor comes for free
+
+            //  per record, we need one bit; there are nrecords per page, so we need
+            // nrecords bits, i.e., ((nrecords/32)+1) integers.
+            int nheaderbytes = (nrecords / 8);
+            if (nheaderbytes * 8 < nrecords)
+                nheaderbytes++;  //ceiling
+            this.nheaderbytes = nheaderbytes;
+        }
+
+        /**
+         * Builds the pages holding the lines of a chunk; only the last page
+         * may have empty slots, and a chunk without lines makes one empty
+         * page.
+         */
+        ByteBuffer pages(Chunk chunk) throws IOException {
+            if (pageLayout == PageLayout.SLOTTED)
+                return slottedPages(chunk);
+            int npages = Math.max(1, (chunk.records + nrecords - 1) / nrecords);
+            ByteBuffer buf = ByteBuffer.allocate(npages * npagebytes);
+            byte[] data = chunk.data;
+            int record = 0;
+            int pos = 0;
+            while (pos < chunk.length) {
+                int end = pos;
+                while (data[end] != '\n')
+                    end++;
+                int base = record / nrecords * npagebytes;
+                int slot = record % nrecords;
+                // in the header, a 1 for the bit of each record
+                buf.put(base + slot / 8, (byte) (buf.get(base + slot / 8) | (1 << (slot % 8))));
+                parseLine(data, pos, end, buf, base + nheaderbytes, slot);
+                record++;
+                pos = end + 1;
+            }
+            buf.clear();
+            return buf;
+        }
 
-                recordcount = 0;
-                npages++;
+        /**
+         * Returns the ranges of the fields of the zone map over each of the
+         * pages, as the zone map stores them.
+         */
+        ByteBuffer zones(ByteBuffer pages) {
+            int npages = pages.remaining() / npagebytes;
+            ByteBuffer buf = ByteBuffer.allocate(npages * 8 * zoneFields.length);
+            for (int i = 0; i < npages; i++) {
+                HeapPage page = new HeapPage(new HeapPageId(0, i), pages.slice(i * npagebytes, npagebytes), td, pageLayout);
+                ZoneMap.summarize(page, zoneFields, buf);
+            }
+            return buf.flip();
+        }
+
+        /**
+         * Builds SLOTTED pages holding the lines of a chunk, as many on each
+         * page as fit, laid out as HeapPage lays them out.
+         */
+        private ByteBuffer slottedPages(Chunk chunk) throws IOException {
+            int maxpages = Math.max(1, (chunk.records + nrecords - 1) / nrecords);
+            ByteBuffer buf = ByteBuffer.allocate(maxpages * npagebytes);
+            ByteBuffer record = ByteBuffer.allocate(nrecbytes);
+            byte[] data = chunk.data;
+            int base = 0;
+            int entries = 0;
+            // where the records on the page start
+            int recordsStart = npagebytes;
+            int pos = 0;
+            while (pos < chunk.length) {
+                int end = pos;
+                while (data[end] != '\n')
+                    end++;
+                record.clear();
+                parseLine(data, pos, end, record, 0, 0);
+                int length = record.position();
+                if (HeapPage.SLOTTED_HEADER_SIZE + (entries + 1) * HeapPage.SLOT_ENTRY_SIZE > recordsStart - length) {
+                    buf.putShort(base, (short) entries);
+                    base += npagebytes;
+                    entries = 0;
+                    recordsStart = npagebytes;
+                }
+                recordsStart -= length;
+                buf.put(base + recordsStart, record.array(), 0, length);
+                int entry = base + HeapPage.SLOTTED_HEADER_SIZE + entries * HeapPage.SLOT_ENTRY_SIZE;
+                buf.putShort(entry, (short) recordsStart);
+                buf.putShort(entry + 2, (short) length);
+                entries++;
+                pos = end + 1;
+            }
+            buf.putShort(base, (short) entries);
+            buf.clear();
+            buf.limit(base + npagebytes);
+            return buf;
+        }
+
+        /**
+         * Returns the offset of a field of a slot, relative to the end of
+         * the header; as in HeapPage.
+         */
+        private int fieldOffset(int slot, int field) {
+            if (pageLayout == PageLayout.PAX)
+                return nrecords * fieldOffsets[field] + slot * typeAr[field].getLen();
+            return slot * nrecbytes + fieldOffsets[field];
+        }
+
+        private void parseLine(byte[] data, int pos, int end, ByteBuffer buf, int tuples, int slot)
+                throws IOException {
+            int fieldNo = 0;
+            int start = pos;
+            for (int i = pos; i <= end; i++) {
+                if (i < end && data[i] != fieldSeparator)
+                    continue;
+                if (fieldNo >= numFields)
+                    throw new IOException("more than " + numFields + " fields in line: "
+                            + new String(data, pos, end - pos, charset).trim());
+                // the fields of a SLOTTED record follow each other
+                if (pageLayout != PageLayout.SLOTTED)
+                    buf.position(tuples + fieldOffset(slot, fieldNo));
+                writeField(typeAr[fieldNo++], data, start, i, buf);
+                start = i + 1;
+            }
+            // the missing fields of a record are zeroes, as 0 or ""
+            if (pageLayout == PageLayout.SLOTTED) {
+                for (; fieldNo < numFields; fieldNo++)
+                    buf.putInt(0);
+            }
+        }
+
+        private void writeField(Type type, byte[] data, int start, int end, ByteBuffer buf) {
+            if (type == Type.INT_TYPE) {
+                buf.putInt(parseInt(data, start, end));
+            } else if (type == Type.STRING_TYPE) {
+                String s = field(data, start, end).trim();
+                if (s.length() > Type.STRING_LEN)
+                    s = s.substring(0, Type.STRING_LEN);
+                buf.putInt(s.length());
+                // the low byte of each char, as DataOutputStream.writeBytes
+                for (int i = 0; i < s.length(); i++)
+                    buf.put((byte) s.charAt(i));
+                if (pageLayout != PageLayout.SLOTTED)
+                    buf.position(buf.position() + Type.STRING_LEN - s.length());
+            }
+        }
+
+        private String field(byte[] data, int start, int end) {
+            String s = new String(data, start, end - start, charset);
+            // carriage returns are not part of the input
+            return s.indexOf('\r') < 0 ? s : s.replace("\r", "");
+        }
+
+        private int parseInt(byte[] data, int start, int end) {
+            // the common case, digits with an optional sign and spaces around
+            int i = start;
+            while (i < end && data[i] == ' ')
+                i++;
+            int j = end;
+            while (j > i && (data[j - 1] == ' ' || data[j - 1] == '\r'))
+                j--;
+            boolean negative = i < j && data[i] == '-';
+            int first = negative || i < j && data[i] == '+' ? i + 1 : i;
+            if (first < j && j - first <= 9) {
+                int v = 0;
+                int k = first;
+                while (k < j && data[k] >= '0' && data[k] <= '9')
+                    v = v * 10 + (data[k++] - '0');
+                if (k == j)
+                    return negative ? -v : v;
+            }
+            String s = field(data, start, end);
+            try {
+                return Integer.parseInt(s.trim());
+            } catch (NumberFormatException e) {
+                System.out.println("BAD LINE : " + s);
+                return 0;
             }
         }
-        br.close();
-        os.close();
     }
 }
@@ -3,10 +3,14 @@ package simpledb.storage;
 import simpledb.common.Catalog;
 import simpledb.common.Database;
 import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
 import simpledb.transaction.TransactionId;
 
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.Iterator;
+import java.util.List;
 import java.util.NoSuchElementException;
 
 /**
@@ -20,14 +24,24 @@ public class HeapPage implements Page {
 
     final HeapPageId pid;
     final TupleDesc td;
+    final PageLayout layout;
     final byte[] header;
+    // the page as read; the tuples in it are decoded when they are used
+    final ByteBuffer data;
+    // the tuples inserted into the page, which replace what data holds
     final Tuple[] tuples;
     final int numSlots;
+    // on a SLOTTED page, where the record of each used slot starts in data
+    // if it was read, and the length of each record
+    private final int[] recordOffsets;
+    private final int[] recordLengths;
+    // the sum of recordLengths
+    private int recordBytes;
     private boolean dirty;
     private TransactionId tid;
 
     byte[] oldData;
-    private final Byte oldDataLock = (byte) 0;
+    private final Object oldDataLock = new Object();
 
     /**
      * Create a HeapPage from a set of bytes of data read from disk.
@@ -42,32 +56,68 @@ public class HeapPage implements Page {
      * ceiling(no. tuple slots / 8)
      * <p>
      *
+     * <p>
+     * The fields of the tuples follow the header as the {@link PageLayout}
+     * of the table places them. A SLOTTED page has no such header; see
+     * {@link PageLayout#SLOTTED}.
+     * <p>
+     * The page keeps data, which must not be modified afterwards, and decodes
+     * the tuples in it as they are used.
+     *
      * @see Database#getCatalog
      * @see Catalog#getTupleDesc
      * @see BufferPool#getPageSize()
      */
     public HeapPage(HeapPageId id, byte[] data) throws IOException {
+        this(id, ByteBuffer.wrap(data));
+    }
+
+    /**
+     * Create a HeapPage directly from a buffer holding the page, e.g. a slice
+     * of a memory mapped table file, without first copying it into a byte
+     * array. The buffer's position is ignored; the page starts at index 0.
+     *
+     * @see #HeapPage(HeapPageId, byte[])
+     */
+    public HeapPage(HeapPageId id, ByteBuffer data) {
+        this(id, data, Database.getCatalog().getTupleDesc(id.getTableId()), layoutOf(id.getTableId()));
+    }
+
+    /**
+     * Create a HeapPage of a table with the given TupleDesc and layout, e.g.
+     * one that is not in the catalog yet.
+     *
+     * @see #HeapPage(HeapPageId, ByteBuffer)
+     */
+    HeapPage(HeapPageId id, ByteBuffer data, TupleDesc td, PageLayout layout) {
         this.pid = id;
-        this.td = Database.getCatalog().getTupleDesc(id.getTableId());
+        this.td = td;
+        this.layout = layout;
         this.numSlots = getNumTuples();
-        DataInputStream dis = new DataInputStream(new ByteArrayInputStream(data));
+        this.data = data.duplicate();
 
         // allocate and read the header slots of this page
         header = new byte[getHeaderSize()];
-        for (int i = 0; i < header.length; i++)
-            header[i] = dis.readByte();
-
         tuples = new Tuple[numSlots];
-        try {
-            // allocate and read the actual records of this page
-            for (int i = 0; i < tuples.length; i++)
-                tuples[i] = readNextTuple(dis, i);
-        } catch (NoSuchElementException e) {
-            e.printStackTrace();
+        if (layout != PageLayout.SLOTTED) {
+            this.data.get(0, header);
+            recordOffsets = null;
+            recordLengths = null;
+            return;
+        }
+        // the header follows the slot directory
+        recordOffsets = new int[numSlots];
+        recordLengths = new int[numSlots];
+        int entries = Math.min(this.data.getShort(0) & 0xFFFF, numSlots);
+        for (int i = 0; i < entries; i++) {
+            int length = this.data.getShort(SLOTTED_HEADER_SIZE + i * SLOT_ENTRY_SIZE + 2) & 0xFFFF;
+            if (length == 0)
+                continue;
+            recordOffsets[i] = this.data.getShort(SLOTTED_HEADER_SIZE + i * SLOT_ENTRY_SIZE) & 0xFFFF;
+            recordLengths[i] = length;
+            recordBytes += length;
+            markSlotUsed(i, true);
         }
-        dis.close();
-
-        setBeforeImage();
     }
 
     /**
@@ -77,9 +127,82 @@ public class HeapPage implements Page {
      */
     private int getNumTuples() {
         // some code goes here
+        if (layout == PageLayout.SLOTTED)
+            return (BufferPool.getPageSize() - SLOTTED_HEADER_SIZE) / (SLOT_ENTRY_SIZE + minRecordLength(td));
+        return getNumSlots(td);
+    }
+
+    /**
+     * Returns the number of tuple slots on a page of a table with the given
+     * TupleDesc.
+     */
+    static int getNumSlots(TupleDesc td) {
         return (BufferPool.getPageSize() * 8) / (td.getSize() * 8 + 1);
     }
 
+    // the number of slots in the directory of a SLOTTED page, and the size
+    // of each of its entries: the offset of the record and its length
+    static final int SLOTTED_HEADER_SIZE = 2;
+    static final int SLOT_ENTRY_SIZE = 4;
+
+    /**
+     * Returns the room on an empty page of a table with the given TupleDesc
+     * and layout, in the units of {@link #getFreeSpace()}.
+     */
+    static int getCapacity(TupleDesc td, PageLayout layout) {
+        if (layout == PageLayout.SLOTTED)
+            return BufferPool.getPageSize() - SLOTTED_HEADER_SIZE;
+        return getNumSlots(td);
+    }
+
+    /**
+     * Returns the room a tuple takes on a page of a table with the given
+     * TupleDesc and layout, in the units of {@link #getFreeSpace()}; on a
+     * SLOTTED page, including a new entry of the slot directory.
+     */
+    static int spaceFor(TupleDesc td, PageLayout layout, Tuple t) {
+        if (layout == PageLayout.SLOTTED)
+            return recordLength(td, t) + SLOT_ENTRY_SIZE;
+        return 1;
+    }
+
+    private static int minRecordLength(TupleDesc td) {
+        int length = 0;
+        for (int j = 0; j < td.numFields(); j++)
+            length += fieldLength(td.getFieldType(j), 0);
+        return length;
+    }
+
+    // the bytes a field takes in a SLOTTED record: strings are not padded
+    private static int fieldLength(Type type, int stringLength) {
+        return type == Type.STRING_TYPE ? 4 + stringLength : type.getLen();
+    }
+
+    private static int recordLength(TupleDesc td, Tuple t) {
+        int length = 0;
+        for (int j = 0; j < td.numFields(); j++) {
+            Type type = td.getFieldType(j);
+            length += fieldLength(type, type == Type.STRING_TYPE ? stringOf(td, j, t.getField(j)).length() : 0);
+        }
+        return length;
+    }
+
+    // the string of field j as a SLOTTED record stores it, cut to the
+    // length of the field
+    private static String stringOf(TupleDesc td, int j, Field f) {
+        String s = ((StringField) f).getValue();
+        return s.length() > td.getMaxLength(j) ? s.substring(0, td.getMaxLength(j)) : s;
+    }
+
+    /**
+     * Returns the layout of the pages of a table; that of its HeapFile, or
+     * ROW if it has none.
+     */
+    static PageLayout layoutOf(int tableId) {
+        DbFile file = Database.getCatalog().getDatabaseFile(tableId);
+        return file instanceof HeapFile ? ((HeapFile) file).getLayout() : PageLayout.ROW;
+    }
+
     /**
      * Computes the number of bytes in the header of a page in a HeapFile with each tuple occupying tupleSize bytes
      *
@@ -102,6 +225,10 @@ public class HeapPage implements Page {
             byte[] oldDataRef = null;
             synchronized (oldDataLock) {
                 oldDataRef = oldData;
+                // the before image is only captured once the page is
+                // modified, which waits until we have read it
+                if (oldDataRef == null)
+                    oldDataRef = getPageData();
             }
             return new HeapPage(pid, oldDataRef);
         } catch (IOException e) {
@@ -114,7 +241,18 @@ public class HeapPage implements Page {
 
     public void setBeforeImage() {
         synchronized (oldDataLock) {
-            oldData = getPageData().clone();
+            oldData = null;
+        }
+    }
+
+    /**
+     * Captures the before image, unless it is already set, ahead of a
+     * modification of this page.
+     */
+    private void captureBeforeImage() {
+        synchronized (oldDataLock) {
+            if (oldData == null)
+                oldData = getPageData();
         }
     }
 
@@ -127,37 +265,84 @@ public class HeapPage implements Page {
     }
 
     /**
-     * Suck up tuples from the source file.
+     * Returns the tuple in a slot, as inserted or as read from data, or null
+     * if the slot is empty.
      */
-    private Tuple readNextTuple(DataInputStream dis, int slotId) throws NoSuchElementException {
-        // if associated bit is not set, read forward to the next tuple, and
-        // return null.
-        if (!isSlotUsed(slotId)) {
-            for (int i = 0; i < td.getSize(); i++) {
-                try {
-                    dis.readByte();
-                } catch (IOException e) {
-                    throw new NoSuchElementException("error reading empty tuple");
-                }
-            }
+    private Tuple tuple(int slotId) {
+        if (!isSlotUsed(slotId))
             return null;
+        Tuple t = tuples[slotId];
+        if (t != null)
+            return t;
+        t = new Tuple(td, this, slotId);
+        t.setRecordId(new RecordId(pid, slotId));
+        return t;
+    }
+
+    /**
+     * Returns some of the fields of the tuple in a used slot, as a tuple of
+     * the given TupleDesc.
+     */
+    private Tuple tuple(int slotId, int[] columns, TupleDesc tupleDesc) {
+        Tuple inserted = tuples[slotId];
+        Tuple t;
+        if (inserted == null) {
+            t = new Tuple(tupleDesc, this, slotId, columns);
+        } else {
+            t = new Tuple(tupleDesc);
+            for (int i = 0; i < columns.length; i++)
+                t.setField(i, inserted.getField(columns[i]));
         }
+        t.setRecordId(new RecordId(pid, slotId));
+        return t;
+    }
 
-        // read fields in the tuple
-        Tuple t = new Tuple(td);
-        RecordId rid = new RecordId(pid, slotId);
-        t.setRecordId(rid);
-        try {
-            for (int j = 0; j < td.numFields(); j++) {
-                Field f = td.getFieldType(j).parse(dis);
-                t.setField(j, f);
+    /**
+     * Returns the offset in the page of a field of a slot.
+     */
+    private int fieldOffset(int slotId, int field) {
+        if (layout == PageLayout.SLOTTED) {
+            int offset = recordOffsets[slotId];
+            for (int j = 0; j < field; j++) {
+                Type type = td.getFieldType(j);
+                offset += fieldLength(type, type == Type.STRING_TYPE ? data.getInt(offset) : 0);
             }
-        } catch (java.text.ParseException e) {
-            e.printStackTrace();
-            throw new NoSuchElementException("parsing error!");
+            return offset;
         }
+        if (layout == PageLayout.PAX)
+            return header.length + numSlots * td.getOffset(field) + slotId * td.getFieldType(field).getLen();
+        return header.length + slotId * td.getSize() + td.getOffset(field);
+    }
 
-        return t;
+    /**
+     * Decodes a field of a slot as read; used by the tuples handed out by
+     * the iterator.
+     */
+    Field readField(int slotId, int field) {
+        return td.getFieldType(field).parse(data, fieldOffset(slotId, field));
+    }
+
+    /**
+     * Tests a used slot against predicates on the fields of the page. A
+     * tuple read from data is tested on its bytes, without building it; INT
+     * fields are compared in place.
+     */
+    private boolean matches(int slotId, List<Predicate> predicates) {
+        Tuple t = tuples[slotId];
+        if (t != null)
+            return Predicate.filterAll(predicates, t);
+        for (Predicate p : predicates) {
+            int field = p.getField();
+            boolean match;
+            if (td.getFieldType(field) == Type.INT_TYPE && p.getOperand() instanceof IntField)
+                match = IntField.compare(data.getInt(fieldOffset(slotId, field)), p.getOp(),
+                        ((IntField) p.getOperand()).getValue());
+            else
+                match = readField(slotId, field).compare(p.getOp(), p.getOperand());
+            if (!match)
+                return false;
+        }
+        return true;
     }
 
     /**
@@ -172,64 +357,104 @@ public class HeapPage implements Page {
      * @see #HeapPage
      */
     public byte[] getPageData() {
-        int len = BufferPool.getPageSize();
-        ByteArrayOutputStream baos = new ByteArrayOutputStream(len);
-        DataOutputStream dos = new DataOutputStream(baos);
-
-        // create the header of the page
-        for (byte b : header) {
-            try {
-                dos.writeByte(b);
-            } catch (IOException e) {
-                // this really shouldn't happen
-                e.printStackTrace();
-            }
-        }
-
-        // create the tuples
-        for (int i = 0; i < tuples.length; i++) {
-
-            // empty slot
-            if (!isSlotUsed(i)) {
-                for (int j = 0; j < td.getSize(); j++) {
-                    try {
-                        dos.writeByte(0);
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-
-                }
+        if (layout == PageLayout.SLOTTED)
+            return getSlottedPageData();
+        byte[] page = new byte[BufferPool.getPageSize()];
+        System.arraycopy(header, 0, page, 0, header.length);
+
+        // the tuples as read are copied over, the inserted ones serialized;
+        // empty slots and the padding stay zero
+        ByteArrayOutputStream baos = null;
+        DataOutputStream dos = null;
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                continue;
+            if (tuples[i] == null && layout == PageLayout.ROW) {
+                int offset = fieldOffset(i, 0);
+                data.get(offset, page, offset, td.getSize());
                 continue;
             }
-
-            // non-empty slot
             for (int j = 0; j < td.numFields(); j++) {
-                Field f = tuples[i].getField(j);
+                int offset = fieldOffset(i, j);
+                int len = td.getFieldType(j).getLen();
+                if (tuples[i] == null) {
+                    data.get(offset, page, offset, len);
+                    continue;
+                }
+                if (baos == null) {
+                    baos = new ByteArrayOutputStream(len);
+                    dos = new DataOutputStream(baos);
+                }
+                baos.reset();
                 try {
-                    f.serialize(dos);
-
+                    tuples[i].getField(j).serialize(dos);
                 } catch (IOException e) {
                     e.printStackTrace();
                 }
+                System.arraycopy(baos.toByteArray(), 0, page, offset, len);
             }
         }
+        return page;
+    }
 
-        // padding
-        int zerolen = BufferPool.getPageSize() - (header.length + td.getSize() * tuples.length); //- numSlots * td.getSize();
-        byte[] zeroes = new byte[zerolen];
-        try {
-            dos.write(zeroes, 0, zerolen);
-        } catch (IOException e) {
-            e.printStackTrace();
+    /**
+     * Lays a SLOTTED page out: the used slots' records are packed at the
+     * end of the page, so that the space of deleted records is reclaimed,
+     * and the directory ends with the last used slot.
+     */
+    private byte[] getSlottedPageData() {
+        byte[] page = new byte[BufferPool.getPageSize()];
+        ByteBuffer buf = ByteBuffer.wrap(page);
+        int entries = directorySize();
+        buf.putShort(0, (short) entries);
+        int end = page.length;
+        for (int i = 0; i < entries; i++) {
+            if (!isSlotUsed(i))
+                continue;
+            int length = recordLengths[i];
+            end -= length;
+            if (tuples[i] == null) {
+                data.get(recordOffsets[i], page, end, length);
+            } else {
+                buf.position(end);
+                for (int j = 0; j < td.numFields(); j++) {
+                    Field f = tuples[i].getField(j);
+                    if (td.getFieldType(j) == Type.STRING_TYPE) {
+                        // the low byte of each char, as StringField.serialize
+                        String s = stringOf(td, j, f);
+                        buf.putInt(s.length());
+                        for (int k = 0; k < s.length(); k++)
+                            buf.put((byte) s.charAt(k));
+                    } else {
+                        buf.putInt(((IntField) f).getValue());
+                    }
+                }
+            }
+            buf.putShort(SLOTTED_HEADER_SIZE + i * SLOT_ENTRY_SIZE, (short) end);
+            buf.putShort(SLOTTED_HEADER_SIZE + i * SLOT_ENTRY_SIZE + 2, (short) length);
         }
+        return page;
+    }
 
-        try {
-            dos.flush();
-        } catch (IOException e) {
-            e.printStackTrace();
+    // cuts the strings of t to the lengths of their fields, as the page
+    // stores them
+    private void cutStrings(Tuple t) {
+        for (int j = 0; j < td.numFields(); j++) {
+            if (td.getFieldType(j) != Type.STRING_TYPE)
+                continue;
+            String s = ((StringField) t.getField(j)).getValue();
+            if (s.length() > td.getMaxLength(j))
+                t.setField(j, new StringField(s, td.getMaxLength(j)));
         }
+    }
 
-        return baos.toByteArray();
+    // the number of entries in the slot directory of a SLOTTED page
+    private int directorySize() {
+        for (int i = numSlots - 1; i >= 0; i--) {
+            if (isSlotUsed(i))
+                return i + 1;
+        }
+        return 0;
     }
 
     /**
@@ -261,8 +486,15 @@ public class HeapPage implements Page {
         if (getNumEmptySlots() == numSlots || !recordId.getPageId().equals(pid) || !isSlotUsed(i)) {
             throw new DbException("Page is empty or page is not found, can not delete!");
         }
+        captureBeforeImage();
         markSlotUsed(i, false);
         tuples[i] = null;
+        // the record's bytes are free right away; the page is compacted
+        // when it is next laid out
+        if (recordLengths != null) {
+            recordBytes -= recordLengths[i];
+            recordLengths[i] = 0;
+        }
     }
 
     /**
@@ -280,7 +512,22 @@ public class HeapPage implements Page {
         }
         for (int i = 0; i < numSlots; i++) {
             if (!isSlotUsed(i)) {
+                int length = 0;
+                if (layout == PageLayout.SLOTTED) {
+                    length = recordLength(td, t);
+                    if (length + (i < directorySize() ? 0 : SLOT_ENTRY_SIZE) > getFreeSpace())
+                        break;
+                }
+                captureBeforeImage();
+                if (recordLengths != null) {
+                    recordLengths[i] = length;
+                    recordBytes += length;
+                }
                 RecordId recordId = new RecordId(pid, i);
+                // the page may outlive the memory t was read from
+                t.materialize();
+                if (layout == PageLayout.SLOTTED)
+                    cutStrings(t);
                 t.setRecordId(recordId);
                 tuples[i] = t;
                 markSlotUsed(i, true);
@@ -312,6 +559,13 @@ public class HeapPage implements Page {
             return null;
     }
 
+    /**
+     * Returns the number of slots on this page.
+     */
+    public int getNumSlots() {
+        return numSlots;
+    }
+
     /**
      * Returns the number of empty slots on this page.
      */
@@ -325,6 +579,39 @@ public class HeapPage implements Page {
         return numSlots - numOccupied;
     }
 
+    /**
+     * Returns the room on this page when it is empty, in the units of
+     * {@link #getFreeSpace()}.
+     */
+    int getCapacity() {
+        return getCapacity(td, layout);
+    }
+
+    /**
+     * Returns the room left on this page: the number of empty slots, or on
+     * a SLOTTED page, the number of bytes not taken by the slot directory
+     * and the records.
+     */
+    int getFreeSpace() {
+        if (layout != PageLayout.SLOTTED)
+            return getNumEmptySlots();
+        return getCapacity() - directorySize() * SLOT_ENTRY_SIZE - recordBytes;
+    }
+
+    /**
+     * Returns the room t would take on this page, in the units of
+     * {@link #getFreeSpace()}, or more than there is if no slot is empty.
+     */
+    int spaceFor(Tuple t) {
+        if (layout != PageLayout.SLOTTED)
+            return 1;
+        for (int i = 0; i < numSlots; i++) {
+            if (!isSlotUsed(i))
+                return recordLength(td, t) + (i < directorySize() ? 0 : SLOT_ENTRY_SIZE);
+        }
+        return getCapacity() + 1;
+    }
+
     /**
      * Returns true if associated slot on this page is filled.
      */
@@ -352,14 +639,41 @@ public class HeapPage implements Page {
      */
     public Iterator<Tuple> iterator() {
         // some code goes here
+        return iterator(List.of());
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page that satisfy all of
+     * the given predicates. Slots are tested before their tuples are built,
+     * so those that do not match cost no tuple.
+     *
+     * @see #iterator()
+     */
+    public Iterator<Tuple> iterator(List<Predicate> predicates) {
+        return iterator(predicates, null, td);
+    }
+
+    /**
+     * Returns an iterator over the tuples on this page that satisfy all of
+     * the given predicates, each cut down to some of its fields.
+     *
+     * @param columns the fields of the page the tuples hold, or null for all
+     * @param tupleDesc the TupleDesc of the tuples
+     * @see #iterator(List)
+     */
+    Iterator<Tuple> iterator(List<Predicate> predicates, int[] columns, TupleDesc tupleDesc) {
         return new Iterator<>() {
             private int cursor = -1;
-            private int detector = 0;
+            // the next slot to return once hasNext found it, so that its
+            // predicates are tested once
+            private int detector = -1;
 
             @Override
             public boolean hasNext() {
+                if (detector > cursor && detector < numSlots && isSlotUsed(detector))
+                    return true;
                 for (detector = cursor + 1; detector < numSlots; detector++) {
-                    if (tuples[detector] != null) {
+                    if (isSlotUsed(detector) && (predicates.isEmpty() || matches(detector, predicates))) {
                         return true;
                     }
                 }
@@ -368,11 +682,12 @@ public class HeapPage implements Page {
 
             @Override
             public Tuple next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
                 cursor = detector;
-                return tuples[cursor];
+                return columns == null ? tuple(cursor) : tuple(cursor, columns, tupleDesc);
             }
         };
     }
 
 }
-
@@ -56,20 +56,27 @@ public class IntField implements Field {
 
         IntField iVal = (IntField) val;
 
+        return compare(value, op, iVal.value);
+    }
+
+    /**
+     * Compares two ints as Field.compare compares IntFields holding them.
+     */
+    static boolean compare(int value, Predicate.Op op, int operand) {
         switch (op) {
             case EQUALS:
             case LIKE:
-                return value == iVal.value;
+                return value == operand;
             case NOT_EQUALS:
-                return value != iVal.value;
+                return value != operand;
             case GREATER_THAN:
-                return value > iVal.value;
+                return value > operand;
             case GREATER_THAN_OR_EQ:
-                return value >= iVal.value;
+                return value >= operand;
             case LESS_THAN:
-                return value < iVal.value;
+                return value < operand;
             case LESS_THAN_OR_EQ:
-                return value <= iVal.value;
+                return value <= operand;
         }
 
         return false;
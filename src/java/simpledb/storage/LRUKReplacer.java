@@ -0,0 +1,98 @@
+package simpledb.storage;
+
+import java.util.OptionalLong;
+import java.util.function.LongPredicate;
+
+/**
+ * LRUKReplacer evicts pages by their access frequency as well as recency,
+ * so a page touched once by a scan does not push out pages that are used
+ * over and over.
+ * <p>
+ * Pages seen fewer than K times have an infinite backward K-distance and
+ * are kept in a history list in the order they were first accessed; they
+ * are always evicted before pages seen at least K times, which live in an
+ * LRU list. Ordering that second list by the last access rather than the
+ * K-th most recent one keeps every operation O(1), at the price of being an
+ * approximation of LRU-K. Sequential accesses are not counted.
+ *
+ * @Threadsafe
+ */
+public class LRUKReplacer implements PageReplacer {
+
+    // lists of the frame table; heads are the next victims
+    private static final int HISTORY = 0;
+    private static final int HOT = 1;
+
+    private final int k;
+    private final FrameLists frames;
+
+    /**
+     * Creates a replacer with room for numFrames pages. It grows if more
+     * pages are added.
+     *
+     * @param numFrames the number of pages in the buffer pool
+     * @param k         the number of accesses after which a page counts as hot
+     */
+    public LRUKReplacer(int numFrames, int k) {
+        if (k < 1)
+            throw new IllegalArgumentException("k must be at least 1");
+        this.k = k;
+        this.frames = new FrameLists(numFrames, 2);
+    }
+
+    public synchronized void add(long key, AccessHint hint) {
+        int frame = frames.find(key);
+        if (frame != FrameLists.NIL) {
+            touch(frame, hint);
+            return;
+        }
+        frame = frames.allocate(key);
+        frames.setCount(frame, 1);
+        frames.linkTail(frame, k == 1 ? HOT : HISTORY);
+    }
+
+    public synchronized void access(long key, AccessHint hint) {
+        int frame = frames.find(key);
+        if (frame != FrameLists.NIL)
+            touch(frame, hint);
+    }
+
+    public synchronized void remove(long key) {
+        int frame = frames.find(key);
+        if (frame != FrameLists.NIL)
+            frames.release(frame);
+    }
+
+    public synchronized OptionalLong evict(LongPredicate evictable) {
+        for (int list : new int[]{HISTORY, HOT}) {
+            // frames that may not be evicted move to the tail, so pages that
+            // stay dirty for a long time are not scanned on every eviction
+            for (int i = frames.size(list); i > 0; i--) {
+                int frame = frames.head(list);
+                long key = frames.key(frame);
+                if (evictable.test(key)) {
+                    frames.release(frame);
+                    return OptionalLong.of(key);
+                }
+                frames.moveToTail(frame, list);
+            }
+        }
+        return OptionalLong.empty();
+    }
+
+    public synchronized int size() {
+        return frames.size();
+    }
+
+    private void touch(int frame, AccessHint hint) {
+        if (frames.list(frame) == HOT) {
+            frames.moveToTail(frame, HOT);
+        } else if (hint != AccessHint.SEQUENTIAL) {
+            // the history list stays in first-access order
+            int count = frames.count(frame) + 1;
+            frames.setCount(frame, count);
+            if (count >= k)
+                frames.moveToTail(frame, HOT);
+        }
+    }
+}
@@ -275,7 +275,9 @@ public class LogFile {
             }
             pid = (PageId) idConsts[0].newInstance(idArgs);
 
-            Constructor<?>[] pageConsts = pageClass.getDeclaredConstructors();
+            // the order of getDeclaredConstructors() is unspecified, and
+            // pages may have other constructors
+            Constructor<?> pageConst = pageClass.getDeclaredConstructor(idClass, byte[].class);
             int pageSize = raf.readInt();
 
             byte[] pageData = new byte[pageSize];
@@ -285,10 +287,11 @@ public class LogFile {
             pageArgs[0] = pid;
             pageArgs[1] = pageData;
 
-            newPage = (Page) pageConsts[0].newInstance(pageArgs);
+            newPage = (Page) pageConst.newInstance(pageArgs);
 
             //            Debug.log("READ PAGE OF TYPE " + pageClassName + ", table = " + newPage.getId().getTableId() + ", page = " + newPage.getId().pageno());
-        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException e) {
+        } catch (ClassNotFoundException | InvocationTargetException | IllegalAccessException | InstantiationException
+                 | NoSuchMethodException e) {
             e.printStackTrace();
             throw new IOException();
         }
@@ -322,6 +325,9 @@ public class LogFile {
      * Checkpoint the log and write a checkpoint record.
      */
     public void logCheckpoint() throws IOException {
+        // let inserts and deletes running in other threads finish before
+        // taking the monitors they may need to go on
+        Database.getBufferPool().awaitMutations();
         //make sure we have buffer pool lock before proceeding
         synchronized (Database.getBufferPool()) {
             synchronized (this) {
@@ -331,7 +337,7 @@ public class LogFile {
                 Set<Long> keys = tidToFirstLogRecord.keySet();
                 Iterator<Long> els = keys.iterator();
                 force();
-                Database.getBufferPool().flushAllPages();
+                Database.getBufferPool().writeAllPages();
                 startCpOffset = raf.getFilePointer();
                 raf.writeInt(CHECKPOINT_RECORD);
                 raf.writeLong(-1); //no tid , but leave space for convenience
@@ -514,10 +520,12 @@ public class LogFile {
      * is necessary so that start up can happen quickly (without
      * extensive recovery.)
      */
-    public synchronized void shutdown() {
+    public void shutdown() {
         try {
             logCheckpoint();  //simple way to shutdown is to write a checkpoint record
-            raf.close();
+            synchronized (this) {
+                raf.close();
+            }
         } catch (IOException e) {
             System.out.println("ERROR SHUTTING DOWN -- IGNORING.");
             e.printStackTrace();
@@ -583,7 +591,11 @@ public class LogFile {
 
                 for (long tid : beforePages.keySet()) {
                     if (!commits.contains(tid)) {
-                        for (Page page : beforePages.get(tid)) {
+                        // a page written out more than once has several
+                        // records; the earliest before image must win
+                        List<Page> befores = beforePages.get(tid);
+                        for (int i = befores.size() - 1; i >= 0; i--) {
+                            Page page = befores.get(i);
                             Database.getCatalog().getDatabaseFile(page.getId().getTableId()).writePage(page);
                         }
                     }
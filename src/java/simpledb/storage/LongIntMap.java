@@ -0,0 +1,140 @@
+package simpledb.storage;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash map from long keys to non-negative int values,
+ * used by the page replacers to find the frame of a page key without boxing.
+ * Uses linear probing with backward-shift deletion, so lookups never have
+ * to skip over tombstones. Every long is a valid key; the one used to mark
+ * empty slots is stored on the side.
+ * <p>
+ * Not thread safe.
+ */
+class LongIntMap {
+
+    static final int NO_VALUE = -1;
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+    private int[] values;
+    private int mask;
+    private int size;
+    // the entry for the EMPTY key, if any
+    private boolean hasEmptyKey;
+    private int emptyKeyValue;
+
+    LongIntMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1;
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        Arrays.fill(keys, EMPTY);
+        values = new int[capacity];
+        mask = capacity - 1;
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    int size() {
+        return size;
+    }
+
+    /**
+     * @return the value of key, or NO_VALUE if key is not in the map
+     */
+    int get(long key) {
+        if (key == EMPTY)
+            return hasEmptyKey ? emptyKeyValue : NO_VALUE;
+        for (int i = hash(key) & mask; ; i = (i + 1) & mask) {
+            long k = keys[i];
+            if (k == key)
+                return values[i];
+            if (k == EMPTY)
+                return NO_VALUE;
+        }
+    }
+
+    /**
+     * Maps key to value, replacing any previous value.
+     */
+    void put(long key, int value) {
+        if (key == EMPTY) {
+            if (!hasEmptyKey)
+                size++;
+            hasEmptyKey = true;
+            emptyKeyValue = value;
+            return;
+        }
+        if (size + 1 > keys.length * LOAD_FACTOR)
+            rehash(keys.length << 1);
+        int i = hash(key) & mask;
+        for (; keys[i] != EMPTY; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                values[i] = value;
+                return;
+            }
+        }
+        keys[i] = key;
+        values[i] = value;
+        size++;
+    }
+
+    /**
+     * Removes key from the map.
+     *
+     * @return the value key was mapped to, or NO_VALUE if it was not in the map
+     */
+    int remove(long key) {
+        if (key == EMPTY) {
+            if (!hasEmptyKey)
+                return NO_VALUE;
+            hasEmptyKey = false;
+            size--;
+            return emptyKeyValue;
+        }
+        int i = hash(key) & mask;
+        for (; keys[i] != key; i = (i + 1) & mask) {
+            if (keys[i] == EMPTY)
+                return NO_VALUE;
+        }
+        int value = values[i];
+        // shift back any following entry that would no longer be reachable
+        for (int j = (i + 1) & mask; keys[j] != EMPTY; j = (j + 1) & mask) {
+            int home = hash(keys[j]) & mask;
+            // move entry j into the hole at i unless its home lies cyclically in (i, j]
+            if (i <= j ? (home <= i || home > j) : (home <= i && home > j)) {
+                keys[i] = keys[j];
+                values[i] = values[j];
+                i = j;
+            }
+        }
+        keys[i] = EMPTY;
+        size--;
+        return value;
+    }
+
+    void clear() {
+        Arrays.fill(keys, EMPTY);
+        hasEmptyKey = false;
+        size = 0;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        size = hasEmptyKey ? 1 : 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldKeys[i] != EMPTY)
+                put(oldKeys[i], oldValues[i]);
+        }
+    }
+}
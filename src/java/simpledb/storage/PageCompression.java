@@ -0,0 +1,266 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.CRC32;
+
+/**
+ * PageCompression stores pages of DbFiles compressed on disk. A page keeps
+ * its fixed size slot in the file, so page numbers still map to file
+ * offsets, but a compressed page only fills the start of its slot and
+ * reading it reads that much.
+ * <p>
+ * A compressed page starts with a tag: a magic int, the codec, the length of
+ * the compressed bytes and their CRC32. Any other page is stored as is, so
+ * files can mix compressed and uncompressed pages, and files written before
+ * compression was turned on stay readable. The magic has its high bit set,
+ * which the first int of B+ tree pages and the entry count of slotted heap
+ * pages never have; a page of another layout is only taken for a
+ * compressed one if it also carries the CRC of the bytes after its tag.
+ * <p>
+ * The codec is a byte oriented LZ77 variant in the style of LZ4: sequences
+ * of literals, each followed by a copy of earlier output. It knows nothing
+ * about the layout of the page, so it works for every kind of page, and
+ * compresses the zeros of empty slots and string padding, repeated small
+ * ints and repeated strings.
+ *
+ * @Threadsafe
+ */
+public final class PageCompression {
+
+    private static final int MAGIC = 0xC0DEC0DE;
+    private static final byte CODEC_LZ = 1;
+    /**
+     * Bytes of the tag in front of a compressed page.
+     */
+    public static final int HEADER_SIZE = 13;
+
+    private static final int MIN_MATCH = 4;
+    private static final int MAX_OFFSET = 0xFFFF;
+    private static final int HASH_BITS = 12;
+    // after every 1 << SKIP_SHIFT bytes without a match, the compressor
+    // looks for matches one byte further apart
+    private static final int SKIP_SHIFT = 6;
+
+    private PageCompression() {
+    }
+
+    /**
+     * Returns the bytes to store for a page: its compressed form and tag, or
+     * the page itself if compressing it does not save at least the tag.
+     */
+    public static ByteBuffer encode(byte[] page) {
+        byte[] frame = new byte[page.length];
+        int length = compress(page, frame, HEADER_SIZE, page.length - HEADER_SIZE);
+        if (length < 0)
+            return ByteBuffer.wrap(page);
+        CRC32 crc = new CRC32();
+        crc.update(frame, HEADER_SIZE, length);
+        ByteBuffer buf = ByteBuffer.wrap(frame, 0, HEADER_SIZE + length);
+        buf.putInt(MAGIC).put(CODEC_LZ).putInt(length).putInt((int) crc.getValue());
+        buf.rewind();
+        return buf;
+    }
+
+    /**
+     * Returns the page stored compressed at the start of stored, or null if
+     * stored holds a page as is.
+     *
+     * @param stored   the bytes of the slot of the page in the file, from
+     *                 its start; its position is left unchanged
+     * @param pageSize the size of the page
+     */
+    public static byte[] decode(ByteBuffer stored, int pageSize) throws IOException {
+        int start = stored.position();
+        int length = compressedLength(stored, pageSize);
+        if (length < 0 || stored.remaining() < HEADER_SIZE + length)
+            return null;
+        byte[] compressed = new byte[length];
+        stored.get(start + HEADER_SIZE, compressed);
+        if (!crcMatches(stored, compressed, 0, length))
+            return null;
+        return decompress(compressed, 0, length, pageSize);
+    }
+
+    /**
+     * Reads the page stored at the given position of a file, reading only
+     * its compressed bytes if it is compressed.
+     *
+     * @param tableId  the table the file belongs to
+     * @param f        the file backing the table
+     * @param position the file position of the slot of the page
+     * @param pageSize the size of the page
+     * @return the page, or null if the file ends before the page does
+     */
+    public static byte[] read(int tableId, File f, long position, int pageSize) throws IOException {
+        FileChannelPool channels = Database.getFileChannelPool();
+        ByteBuffer buf = ByteBuffer.allocate(pageSize);
+        buf.limit(HEADER_SIZE);
+        int read = channels.read(tableId, f, buf, position);
+        int length = compressedLength(buf.rewind(), pageSize);
+        if (length >= 0) {
+            buf.limit(HEADER_SIZE + length).position(HEADER_SIZE);
+            read += channels.read(tableId, f, buf, position + HEADER_SIZE);
+            if (read == HEADER_SIZE + length && crcMatches(buf.rewind(), buf.array(), HEADER_SIZE, length))
+                return decompress(buf.array(), HEADER_SIZE, length, pageSize);
+        }
+        // stored as is
+        buf.limit(pageSize).position(read);
+        read += channels.read(tableId, f, buf, position + read);
+        return read == pageSize ? buf.array() : null;
+    }
+
+    // the length of the compressed bytes the tag at the start of stored
+    // announces, or -1 if it does not start with a tag
+    private static int compressedLength(ByteBuffer stored, int pageSize) {
+        int start = stored.position();
+        if (stored.remaining() < HEADER_SIZE || stored.getInt(start) != MAGIC || stored.get(start + 4) != CODEC_LZ)
+            return -1;
+        int length = stored.getInt(start + 5);
+        return length > 0 && length <= pageSize - HEADER_SIZE ? length : -1;
+    }
+
+    private static boolean crcMatches(ByteBuffer stored, byte[] compressed, int off, int length) {
+        CRC32 crc = new CRC32();
+        crc.update(compressed, off, length);
+        return stored.getInt(stored.position() + 9) == (int) crc.getValue();
+    }
+
+    /**
+     * Compresses src into dst, starting at dst[off].
+     *
+     * @return the number of bytes written, or -1 if they take more than max
+     */
+    static int compress(byte[] src, byte[] dst, int off, int max) {
+        int[] table = new int[1 << HASH_BITS];
+        Arrays.fill(table, -1);
+        int n = src.length;
+        int end = off + max;
+        int op = off;
+        int anchor = 0;
+        int ip = 0;
+        while (ip + MIN_MATCH <= n) {
+            int seq = getInt(src, ip);
+            int h = (seq * -1640531535) >>> (32 - HASH_BITS);
+            int ref = table[h];
+            table[h] = ip;
+            if (ref < 0 || ip - ref > MAX_OFFSET || getInt(src, ref) != seq) {
+                ip += 1 + ((ip - anchor) >>> SKIP_SHIFT);
+                continue;
+            }
+            int len = MIN_MATCH;
+            while (ip + len < n && src[ref + len] == src[ip + len])
+                len++;
+            int token = op;
+            op = putSequence(src, anchor, ip - anchor, dst, op, end);
+            if (op < 0 || op + 2 > end)
+                return -1;
+            dst[op++] = (byte) ((ip - ref) >>> 8);
+            dst[op++] = (byte) (ip - ref);
+            dst[token] |= (byte) Math.min(len - MIN_MATCH, 15);
+            if (len - MIN_MATCH >= 15) {
+                op = putExtension(len - MIN_MATCH - 15, dst, op, end);
+                if (op < 0)
+                    return -1;
+            }
+            ip += len;
+            anchor = ip;
+        }
+        op = putSequence(src, anchor, n - anchor, dst, op, end);
+        return op < 0 ? -1 : op - off;
+    }
+
+    // writes the token of a sequence, the extension of the length of its
+    // literals and the literals; the caller adds the match length to the
+    // low half of the token, and its extension after the offset
+    private static int putSequence(byte[] src, int from, int literals, byte[] dst, int op, int end) {
+        if (op >= end)
+            return -1;
+        dst[op++] = (byte) (Math.min(literals, 15) << 4);
+        if (literals >= 15) {
+            op = putExtension(literals - 15, dst, op, end);
+            if (op < 0)
+                return -1;
+        }
+        if (op + literals > end)
+            return -1;
+        System.arraycopy(src, from, dst, op, literals);
+        return op + literals;
+    }
+
+    private static int putExtension(int rest, byte[] dst, int op, int end) {
+        while (rest >= 255) {
+            if (op >= end)
+                return -1;
+            dst[op++] = (byte) 255;
+            rest -= 255;
+        }
+        if (op >= end)
+            return -1;
+        dst[op++] = (byte) rest;
+        return op;
+    }
+
+    /**
+     * Decompresses length bytes of src, starting at src[off], into a page of
+     * the given size.
+     */
+    static byte[] decompress(byte[] src, int off, int length, int pageSize) throws IOException {
+        byte[] page = new byte[pageSize];
+        int ip = off;
+        int end = off + length;
+        int op = 0;
+        try {
+            while (true) {
+                int token = src[ip++] & 0xFF;
+                int literals = token >>> 4;
+                if (literals == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        literals += b;
+                    } while (b == 255);
+                }
+                System.arraycopy(src, ip, page, op, literals);
+                ip += literals;
+                op += literals;
+                if (ip == end)
+                    break;
+                int offset = (src[ip++] & 0xFF) << 8 | (src[ip++] & 0xFF);
+                int len = (token & 0x0F) + MIN_MATCH;
+                if ((token & 0x0F) == 15) {
+                    int b;
+                    do {
+                        b = src[ip++] & 0xFF;
+                        len += b;
+                    } while (b == 255);
+                }
+                if (offset == 0 || offset > op)
+                    throw new IOException("invalid match offset " + offset);
+                // the copy may overlap the bytes it writes, e.g. for runs;
+                // the bytes from the start of the copy repeat every offset
+                // bytes, so they can be copied as far as they reach
+                int from = op - offset;
+                int copyEnd = op + len;
+                while (op < copyEnd) {
+                    int n = Math.min(op - from, copyEnd - op);
+                    System.arraycopy(page, from, page, op, n);
+                    op += n;
+                }
+            }
+        } catch (IndexOutOfBoundsException e) {
+            throw new IOException("corrupt compressed page", e);
+        }
+        if (op != pageSize)
+            throw new IOException("compressed page has " + op + " bytes, not " + pageSize);
+        return page;
+    }
+
+    private static int getInt(byte[] b, int i) {
+        return (b[i] & 0xFF) << 24 | (b[i + 1] & 0xFF) << 16 | (b[i + 2] & 0xFF) << 8 | (b[i + 3] & 0xFF);
+    }
+}
@@ -37,5 +37,15 @@ public interface PageId {
     boolean equals(Object o);
 
     int getPageNumber();
+
+    /**
+     * @return a key that identifies this page among the pages of all tables,
+     * made of the table id in the high 32 bits and the page number in the
+     * low 32 bits. Two PageIds have the same key if and only if they are
+     * equal; the BufferPool and LockManager key their tables by it.
+     */
+    default long pageKey() {
+        return ((long) getTableId() << 32) | (getPageNumber() & 0xFFFFFFFFL);
+    }
 }
 
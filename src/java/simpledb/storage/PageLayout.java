@@ -0,0 +1,29 @@
+package simpledb.storage;
+
+/**
+ * How the tuples of a {@link HeapPage} are laid out. ROW and PAX have the
+ * same slots, header bitmap and RecordIds; they only place the fields of
+ * the slots differently. SLOTTED stores records of variable length.
+ */
+public enum PageLayout {
+    /**
+     * Each tuple is stored contiguously, its fields one after the other, in
+     * the order of the slots.
+     */
+    ROW,
+    /**
+     * Each column is stored contiguously (PAX): the first field of every
+     * slot, then the second field of every slot, and so on, so that a scan
+     * reading few columns of a wide table touches few bytes of each page.
+     */
+    PAX,
+    /**
+     * Each tuple is stored as a record of its fields, with strings taking
+     * only the bytes of their characters, so that a page holds as many
+     * tuples as fit. The page starts with the number of entries of a slot
+     * directory, 2 bytes, followed by the directory, which has the offset
+     * and length, 2 bytes each, of the record in each slot, or zeroes if the
+     * slot is empty. The records are packed at the end of the page.
+     */
+    SLOTTED
+}
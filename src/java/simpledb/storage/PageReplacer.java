@@ -0,0 +1,69 @@
+package simpledb.storage;
+
+import java.util.OptionalLong;
+import java.util.function.LongPredicate;
+
+/**
+ * PageReplacer decides which page the BufferPool evicts when it is full.
+ * Pages are identified by a key the BufferPool chooses; the replacer only
+ * tracks the keys of the pages currently cached and their access history.
+ * <p>
+ * Implementations are expected to do constant work per call, apart from
+ * skipping over pages the BufferPool refuses to evict.
+ *
+ * @Threadsafe
+ */
+public interface PageReplacer {
+
+    /**
+     * Starts tracking a page that was just brought into the buffer pool.
+     * Adding a page that is already tracked counts as an access.
+     *
+     * @param key  the key of the page
+     * @param hint how the page is being accessed
+     */
+    void add(long key, AccessHint hint);
+
+    /**
+     * Records an access to a tracked page. Does nothing if the page is not
+     * tracked.
+     *
+     * @param key  the key of the page
+     * @param hint how the page is being accessed
+     */
+    void access(long key, AccessHint hint);
+
+    /**
+     * Same as {@code add(key, AccessHint.NORMAL)}.
+     */
+    default void add(long key) {
+        add(key, AccessHint.NORMAL);
+    }
+
+    /**
+     * Same as {@code access(key, AccessHint.NORMAL)}.
+     */
+    default void access(long key) {
+        access(key, AccessHint.NORMAL);
+    }
+
+    /**
+     * Stops tracking a page that left the buffer pool.
+     *
+     * @param key the key of the page
+     */
+    void remove(long key);
+
+    /**
+     * Chooses a page to evict and stops tracking it.
+     *
+     * @param evictable tells whether the page with a given key may be evicted
+     * @return the key of the victim, or empty if no tracked page is evictable
+     */
+    OptionalLong evict(LongPredicate evictable);
+
+    /**
+     * @return the number of tracked pages
+     */
+    int size();
+}
@@ -0,0 +1,241 @@
+package simpledb.storage;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.locks.StampedLock;
+
+/**
+ * PageTable maps the {@link PageId#pageKey() keys} of the pages cached in
+ * the BufferPool to the pages themselves. It is an open-addressing hash
+ * table over primitive long keys with linear probing, so looking up a page
+ * neither boxes its key nor goes through PageId.hashCode(), and two
+ * different pages can never share a slot.
+ * <p>
+ * Lookups are optimistic reads of a {@link StampedLock} and only fall back
+ * to the read lock when they overlap with a modification.
+ *
+ * @Threadsafe
+ */
+class PageTable {
+
+    private static final long EMPTY = Long.MIN_VALUE;
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private static final class Table {
+        final long[] keys;
+        final Page[] pages;
+        final int mask;
+
+        Table(int capacity) {
+            keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            pages = new Page[capacity];
+            mask = capacity - 1;
+        }
+    }
+
+    private final StampedLock lock = new StampedLock();
+    // the keys and pages arrays are swapped together on resize
+    private Table table;
+    // the page whose key is EMPTY, if any
+    private Page emptyKeyPage;
+    private int size;
+
+    /**
+     * @param expectedSize the number of pages the table is sized for
+     */
+    PageTable(int expectedSize) {
+        table = new Table(Integer.highestOneBit(Math.max(4, (int) (expectedSize / LOAD_FACTOR)) - 1) << 1);
+    }
+
+    private static int hash(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    /**
+     * @return the page with the specified key, or null if it is not cached
+     */
+    Page get(long key) {
+        long stamp = lock.tryOptimisticRead();
+        if (stamp != 0) {
+            Page p = find(key);
+            if (lock.validate(stamp))
+                return p;
+        }
+        stamp = lock.readLock();
+        try {
+            return find(key);
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    boolean containsKey(long key) {
+        return get(key) != null;
+    }
+
+    /**
+     * Caches page under key unless a page with that key is already cached.
+     *
+     * @return the page already cached under key, or null if page was added
+     */
+    Page putIfAbsent(long key, Page page) {
+        long stamp = lock.writeLock();
+        try {
+            Page cached = find(key);
+            if (cached == null)
+                insert(key, page);
+            return cached;
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * Caches page under key, replacing any page cached under it.
+     *
+     * @return the page previously cached under key, or null
+     */
+    Page put(long key, Page page) {
+        long stamp = lock.writeLock();
+        try {
+            return insert(key, page);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    /**
+     * @return the page that was cached under key, or null
+     */
+    Page remove(long key) {
+        long stamp = lock.writeLock();
+        try {
+            return delete(key);
+        } finally {
+            lock.unlockWrite(stamp);
+        }
+    }
+
+    int size() {
+        long stamp = lock.readLock();
+        try {
+            return size;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /**
+     * @return a snapshot of the cached pages
+     */
+    List<Page> values() {
+        long stamp = lock.readLock();
+        try {
+            List<Page> values = new ArrayList<>(size);
+            if (emptyKeyPage != null)
+                values.add(emptyKeyPage);
+            for (Page p : table.pages) {
+                if (p != null)
+                    values.add(p);
+            }
+            return values;
+        } finally {
+            lock.unlockRead(stamp);
+        }
+    }
+
+    // may run concurrently with a writer under an optimistic read; it must
+    // terminate and not throw whatever it observes
+    private Page find(long key) {
+        if (key == EMPTY)
+            return emptyKeyPage;
+        Table t = table;
+        long[] keys = t.keys;
+        for (int i = hash(key) & t.mask, probes = 0; probes <= t.mask; i = (i + 1) & t.mask, probes++) {
+            long k = keys[i];
+            if (k == key)
+                return t.pages[i];
+            if (k == EMPTY)
+                return null;
+        }
+        return null;
+    }
+
+    private Page insert(long key, Page page) {
+        if (key == EMPTY) {
+            Page old = emptyKeyPage;
+            emptyKeyPage = page;
+            if (old == null)
+                size++;
+            return old;
+        }
+        if (size + 1 > table.keys.length * LOAD_FACTOR)
+            resize(table.keys.length << 1);
+        Table t = table;
+        int i = hash(key) & t.mask;
+        for (; t.keys[i] != EMPTY; i = (i + 1) & t.mask) {
+            if (t.keys[i] == key) {
+                Page old = t.pages[i];
+                t.pages[i] = page;
+                return old;
+            }
+        }
+        t.pages[i] = page;
+        t.keys[i] = key;
+        size++;
+        return null;
+    }
+
+    private Page delete(long key) {
+        if (key == EMPTY) {
+            Page old = emptyKeyPage;
+            emptyKeyPage = null;
+            if (old != null)
+                size--;
+            return old;
+        }
+        Table t = table;
+        int i = hash(key) & t.mask;
+        for (; t.keys[i] != key; i = (i + 1) & t.mask) {
+            if (t.keys[i] == EMPTY)
+                return null;
+        }
+        Page old = t.pages[i];
+        // shift back any following entry that would no longer be reachable
+        for (int j = (i + 1) & t.mask; t.keys[j] != EMPTY; j = (j + 1) & t.mask) {
+            int home = hash(t.keys[j]) & t.mask;
+            if (i <= j ? (home <= i || home > j) : (home <= i && home > j)) {
+                t.keys[i] = t.keys[j];
+                t.pages[i] = t.pages[j];
+                i = j;
+            }
+        }
+        t.keys[i] = EMPTY;
+        t.pages[i] = null;
+        size--;
+        return old;
+    }
+
+    private void resize(int capacity) {
+        Table old = table;
+        Table t = new Table(capacity);
+        for (int i = 0; i < old.keys.length; i++) {
+            long key = old.keys[i];
+            if (key == EMPTY)
+                continue;
+            int j = hash(key) & t.mask;
+            while (t.keys[j] != EMPTY)
+                j = (j + 1) & t.mask;
+            t.keys[j] = key;
+            t.pages[j] = old.pages[i];
+        }
+        table = t;
+    }
+}
@@ -0,0 +1,253 @@
+package simpledb.storage;
+
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * ReadAhead sits between a sequential scan of a HeapFile and
+ * {@link BufferPool#getPage}. Every page the scan is about to fetch is
+ * reported to {@link #access}; once the accesses look sequential, the next
+ * pages of the file are read into the buffer pool on a background executor
+ * so the scan does not stall on each page miss.
+ * <p>
+ * The read-ahead window adapts to the consumer: it doubles whenever the
+ * scan reaches a page whose background read has not finished yet (the scan
+ * drains pages faster than they arrive), and halves whenever a prefetched
+ * page was evicted again before the scan got to it (the window is larger
+ * than the buffer pool can hold).
+ * <p>
+ * Each instance serves a single scan and is not thread safe; the counters
+ * are also aggregated over all scans, see {@link #getTotalHits} and
+ * {@link #getTotalMisses}.
+ */
+public class ReadAhead {
+
+    /**
+     * Smallest and largest number of pages read ahead of the scan.
+     */
+    public static final int MIN_WINDOW = 2;
+    public static final int MAX_WINDOW = 64;
+
+    // number of consecutive sequential accesses before reading ahead
+    private static final int SEQUENTIAL_THRESHOLD = 2;
+
+    private static final ExecutorService executor = Executors.newFixedThreadPool(2, r -> {
+        Thread t = new Thread(r, "simpledb-readahead");
+        t.setDaemon(true);
+        return t;
+    });
+
+    private static final LongAdder totalHits = new LongAdder();
+    private static final LongAdder totalMisses = new LongAdder();
+
+    private final BufferPool bufferPool;
+    private final int tableId;
+    private final int numPages;
+    private final int maxWindow;
+    private final AccessHint hint;
+
+    // pages scheduled for read-ahead that the scan has not reached yet
+    private final Set<Integer> issued = ConcurrentHashMap.newKeySet();
+    // pages whose background read has not finished, and its completion
+    private final Map<Integer, CompletableFuture<Void>> inFlight = new ConcurrentHashMap<>();
+
+    private int window = MIN_WINDOW;
+    private int lastPage = -1;
+    private int sequentialRun = 0;
+    private int nextToIssue = 0;
+    private volatile boolean closed = false;
+
+    private long hits;
+    private long misses;
+    private long late;
+    private long wasted;
+
+    /**
+     * Creates a read-ahead stage for a scan of the specified table.
+     *
+     * @param bufferPool the buffer pool pages are read into
+     * @param tableId    the table being scanned
+     * @param numPages   the number of pages in the table
+     */
+    public ReadAhead(BufferPool bufferPool, int tableId, int numPages) {
+        this(bufferPool, tableId, numPages, AccessHint.NORMAL);
+    }
+
+    /**
+     * Creates a read-ahead stage for a scan of the specified table whose
+     * pages are read into the buffer pool with the given access hint.
+     *
+     * @param bufferPool the buffer pool pages are read into
+     * @param tableId    the table being scanned
+     * @param numPages   the number of pages in the table
+     * @param hint       how the scan accesses its pages
+     */
+    public ReadAhead(BufferPool bufferPool, int tableId, int numPages, AccessHint hint) {
+        this.bufferPool = bufferPool;
+        this.hint = hint;
+        this.tableId = tableId;
+        this.numPages = numPages;
+        // never read ahead more than a quarter of the buffer pool
+        this.maxWindow = Math.max(MIN_WINDOW, Math.min(MAX_WINDOW, bufferPool.getNumPages() / 4));
+    }
+
+    /**
+     * Reports that the scan is about to fetch the specified page, and
+     * schedules the read of the following pages if the scan is sequential.
+     *
+     * @param pgNo the page number about to be fetched
+     */
+    public void access(int pgNo) {
+        if (closed || pgNo == lastPage)
+            return;
+        HeapPageId pid = new HeapPageId(tableId, pgNo);
+        if (issued.remove(pgNo)) {
+            CompletableFuture<Void> read = inFlight.get(pgNo);
+            if (read != null) {
+                late++;
+                misses++;
+                window = Math.min(window * 2, maxWindow);
+                // the read is under way or next in line; reading the page
+                // again here would only double the I/O
+                read.join();
+            } else if (bufferPool.isCached(pid)) {
+                hits++;
+            } else {
+                wasted++;
+                misses++;
+                window = Math.max(window / 2, MIN_WINDOW);
+            }
+        } else {
+            misses++;
+        }
+
+        // the iterator skips over empty pages, so any short forward jump
+        // still counts as sequential
+        if (pgNo > lastPage && pgNo - lastPage <= window) {
+            sequentialRun++;
+        } else {
+            sequentialRun = 0;
+            issued.clear();
+            nextToIssue = pgNo + 1;
+        }
+        lastPage = pgNo;
+
+        if (sequentialRun >= SEQUENTIAL_THRESHOLD) {
+            int from = Math.max(nextToIssue, pgNo + 1);
+            int to = Math.min(pgNo + window, numPages - 1);
+            for (int p = from; p <= to; p++) {
+                issue(p);
+            }
+            nextToIssue = Math.max(nextToIssue, to + 1);
+        }
+    }
+
+    private void issue(int pgNo) {
+        issued.add(pgNo);
+        CompletableFuture<Void> done = new CompletableFuture<>();
+        inFlight.put(pgNo, done);
+        try {
+            executor.execute(() -> {
+                try {
+                    if (!closed)
+                        bufferPool.prefetchPage(new HeapPageId(tableId, pgNo), hint);
+                } catch (RuntimeException e) {
+                    // read-ahead is only a hint; the scan will read the page itself
+                } finally {
+                    inFlight.remove(pgNo);
+                    done.complete(null);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            issued.remove(pgNo);
+            inFlight.remove(pgNo);
+            done.complete(null);
+        }
+    }
+
+    /**
+     * Waits until every read this scan has issued so far has finished.
+     */
+    public void awaitReads() {
+        for (CompletableFuture<Void> read : inFlight.values())
+            read.join();
+    }
+
+    /**
+     * Stops reading ahead for this scan and folds its counters into the
+     * totals.
+     */
+    public void close() {
+        if (closed)
+            return;
+        closed = true;
+        issued.clear();
+        totalHits.add(hits);
+        totalMisses.add(misses);
+    }
+
+    /**
+     * @return the number of pages that were already in the buffer pool
+     * thanks to read-ahead when the scan reached them.
+     */
+    public long getHits() {
+        return hits;
+    }
+
+    /**
+     * @return the number of pages that were not in the buffer pool when the
+     * scan reached them, including late and wasted read-ahead.
+     */
+    public long getMisses() {
+        return misses;
+    }
+
+    /**
+     * @return the number of pages the scan reached while their read-ahead
+     * was still in flight; the scan waits for those reads rather than
+     * reading the pages a second time.
+     */
+    public long getLate() {
+        return late;
+    }
+
+    /**
+     * @return the number of read-ahead pages that were evicted before the
+     * scan reached them.
+     */
+    public long getWasted() {
+        return wasted;
+    }
+
+    /**
+     * @return the current read-ahead window, in pages.
+     */
+    public int getWindow() {
+        return window;
+    }
+
+    /**
+     * @return the read-ahead hits of all closed scans.
+     */
+    public static long getTotalHits() {
+        return totalHits.sum();
+    }
+
+    /**
+     * @return the read-ahead misses of all closed scans.
+     */
+    public static long getTotalMisses() {
+        return totalMisses.sum();
+    }
+
+    public String toString() {
+        return String.format("ReadAhead(table %d: %d hits, %d misses, %d late, %d wasted, window %d)",
+                tableId, hits, misses, late, wasted, window);
+    }
+}
@@ -65,8 +65,7 @@ public class RecordId implements Serializable {
     @Override
     public int hashCode() {
         // some code goes here
-        String s = pid.hashCode() + "#" + tupleno;
-        return s.hashCode();
+        return 31 * pid.hashCode() + tupleno;
     }
 
 }
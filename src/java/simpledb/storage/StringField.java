@@ -16,6 +16,9 @@ public class StringField implements Field {
     private final String value;
     private final int maxSize;
 
+    // zeroes the padding of serialized strings is written from
+    private static final byte[] PADDING = new byte[Type.STRING_LEN];
+
     public String getValue() {
         return value;
     }
@@ -63,8 +66,8 @@ public class StringField implements Field {
         }
         dos.writeInt(s.length());
         dos.writeBytes(s);
-        while (overflow-- > 0)
-            dos.write((byte) 0);
+        for (; overflow > 0; overflow -= PADDING.length)
+            dos.write(PADDING, 0, Math.min(overflow, PADDING.length));
     }
 
     /**
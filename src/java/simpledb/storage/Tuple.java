@@ -1,5 +1,7 @@
 package simpledb.storage;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
 import java.util.Iterator;
 
@@ -7,6 +9,12 @@ import java.util.Iterator;
  * Tuple maintains information about the contents of a tuple. Tuples have a
  * specified schema specified by a TupleDesc object and contain Field objects
  * with the data for each field.
+ * <p>
+ * The tuples a {@link HeapPage} hands out read their fields straight from
+ * the page's memory, each the first time it is asked for. That memory stays
+ * the same while the transaction that read the page holds its lock; a
+ * consumer that keeps a tuple longer, e.g. by storing it on another page,
+ * has to {@link #materialize()} it first.
  */
 public class Tuple implements Serializable {
 
@@ -14,6 +22,12 @@ public class Tuple implements Serializable {
     TupleDesc tupleDesc;
     Field[] fields;
     private RecordId recordId;
+    // the page the fields that are not decoded yet are read from, and the
+    // slot of this tuple on it; null once the tuple is materialized
+    private transient HeapPage page;
+    private int slot;
+    // the field of the page each field of this tuple is, if not the same
+    private transient int[] columns;
 
     /**
      * Create a new tuple with the specified schema (type).
@@ -27,6 +41,47 @@ public class Tuple implements Serializable {
         fields = new Field[tupleDesc.numFields()];
     }
 
+    /**
+     * Creates a tuple whose fields are decoded from page memory when they
+     * are first asked for.
+     *
+     * @param page the page the tuple is on
+     * @param slot the slot of the tuple
+     */
+    Tuple(TupleDesc td, HeapPage page, int slot) {
+        this(td);
+        this.page = page;
+        this.slot = slot;
+    }
+
+    /**
+     * Creates a tuple of some of the fields of a tuple on a page, decoded
+     * from page memory when they are first asked for.
+     *
+     * @param columns the field of the page each field of the tuple is
+     */
+    Tuple(TupleDesc td, HeapPage page, int slot, int[] columns) {
+        this(td, page, slot);
+        this.columns = columns;
+    }
+
+    /**
+     * Decodes the fields not decoded yet, so that this tuple no longer reads
+     * from the memory of the page it came from.
+     */
+    public void materialize() {
+        if (page == null)
+            return;
+        for (int i = 0; i < fields.length; i++)
+            getField(i);
+        page = null;
+    }
+
+    private void writeObject(ObjectOutputStream out) throws IOException {
+        materialize();
+        out.defaultWriteObject();
+    }
+
     /**
      * @return The TupleDesc representing the schema of this tuple.
      */
@@ -62,6 +117,7 @@ public class Tuple implements Serializable {
      */
     public void setField(int i, Field f) {
         // some code goes here
+        materialize();
         fields[i] = f;
     }
 
@@ -71,7 +127,12 @@ public class Tuple implements Serializable {
      */
     public Field getField(int i) {
         // some code goes here
-        return fields[i];
+        Field f = fields[i];
+        if (f == null && page != null) {
+            f = page.readField(slot, columns == null ? i : columns[i]);
+            fields[i] = f;
+        }
+        return f;
     }
 
     /**
@@ -87,9 +148,9 @@ public class Tuple implements Serializable {
 
         StringBuilder s = new StringBuilder();
         for (int i = 0; i < tupleDesc.numFields() - 1; ++i) {
-            s.append(fields[i].toString() + " ");
+            s.append(getField(i).toString() + " ");
         }
-        s.append(fields[tupleDesc.numFields() - 1].toString() + "\n");
+        s.append(getField(tupleDesc.numFields() - 1).toString() + "\n");
         return s.toString();
     }
 
@@ -108,7 +169,7 @@ public class Tuple implements Serializable {
 
             @Override
             public Field next() {
-                return fields[++cursor];
+                return getField(++cursor);
             }
         };
     }
@@ -118,6 +179,9 @@ public class Tuple implements Serializable {
      */
     public void resetTupleDesc(TupleDesc td) {
         // some code goes here
+        // the fields not decoded yet are laid out by the old TupleDesc
+        if (!td.equals(tupleDesc))
+            materialize();
         tupleDesc = td;
     }
 }
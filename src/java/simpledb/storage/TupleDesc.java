@@ -12,6 +12,9 @@ import java.util.NoSuchElementException;
 public class TupleDesc implements Serializable {
 
     private final TDItem[] idItems;
+    // offset of each field within a tuple, and the size of a tuple
+    private final int[] offsets;
+    private final int size;
 
     /**
      * A help class to facilitate organizing the information of each field
@@ -30,9 +33,19 @@ public class TupleDesc implements Serializable {
          */
         public final String fieldName;
 
+        /**
+         * The most characters a string of the field holds
+         */
+        public final int maxLength;
+
         public TDItem(Type t, String n) {
+            this(t, n, Type.STRING_LEN);
+        }
+
+        public TDItem(Type t, String n, int maxLength) {
             this.fieldName = n;
             this.fieldType = t;
+            this.maxLength = maxLength;
         }
 
         public String toString() {
@@ -78,6 +91,41 @@ public class TupleDesc implements Serializable {
         for (int i = 0; i < typeAr.length; i++) {
             idItems[i] = new TDItem(typeAr[i], fieldAr[i]);
         }
+        offsets = new int[typeAr.length];
+        size = layOut(typeAr, offsets);
+    }
+
+    /**
+     * Create a new TupleDesc with typeAr.length named fields of the
+     * specified types, whose strings hold at most the specified numbers of
+     * characters, like varchar(n) columns. Only SLOTTED heap pages store
+     * strings shorter than {@link Type#STRING_LEN}; the other layouts pad
+     * them to it.
+     *
+     * @param typeAr     array specifying the number of and types of fields
+     *                   in this TupleDesc. It must contain at least one entry.
+     * @param fieldAr    array specifying the names of the fields. Note that
+     *                   names may be null.
+     * @param maxLengths array specifying the most characters a string of
+     *                   each field holds, at most {@link Type#STRING_LEN};
+     *                   ignored for fields that are not strings
+     */
+    public TupleDesc(Type[] typeAr, String[] fieldAr, int[] maxLengths) {
+        idItems = new TDItem[typeAr.length];
+        for (int i = 0; i < typeAr.length; i++) {
+            idItems[i] = new TDItem(typeAr[i], fieldAr[i], maxLengths[i]);
+        }
+        offsets = new int[typeAr.length];
+        size = layOut(typeAr, offsets);
+    }
+
+    private static int layOut(Type[] typeAr, int[] offsets) {
+        int offset = 0;
+        for (int i = 0; i < typeAr.length; i++) {
+            offsets[i] = offset;
+            offset += typeAr[i].getLen();
+        }
+        return offset;
     }
 
     /**
@@ -93,6 +141,8 @@ public class TupleDesc implements Serializable {
         for (int i = 0; i < typeAr.length; i++) {
             idItems[i] = new TDItem(typeAr[i], null);
         }
+        offsets = new int[typeAr.length];
+        size = layOut(typeAr, offsets);
     }
 
     /**
@@ -134,6 +184,13 @@ public class TupleDesc implements Serializable {
         return idItems[i].fieldType;
     }
 
+    /**
+     * @return the most characters a string of the ith field holds
+     */
+    public int getMaxLength(int i) {
+        return idItems[i].maxLength;
+    }
+
     /**
      * Find the index of the field with a given name.
      *
@@ -160,7 +217,15 @@ public class TupleDesc implements Serializable {
      */
     public int getSize() {
         // some code goes here
-        return idItems.length * 4;
+        return size;
+    }
+
+    /**
+     * @return the offset in bytes of the ith field within a tuple stored with
+     * this TupleDesc
+     */
+    public int getOffset(int i) {
+        return offsets[i];
     }
 
     /**
@@ -176,15 +241,38 @@ public class TupleDesc implements Serializable {
         int length = td1.numFields() + td2.numFields();
         Type[] types = new Type[length];
         String[] strings = new String[length];
+        int[] maxLengths = new int[length];
         for (int i = 0; i < td1.numFields(); i++) {
             types[i] = td1.getFieldType(i);
             strings[i] = td1.getFieldName(i);
+            maxLengths[i] = td1.getMaxLength(i);
         }
         for (int i = td1.numFields(); i < length; i++) {
             types[i] = td2.getFieldType(i - td1.numFields());
             strings[i] = td2.getFieldName(i - td1.numFields());
+            maxLengths[i] = td2.getMaxLength(i - td1.numFields());
+        }
+        return new TupleDesc(types, strings, maxLengths);
+    }
+
+    /**
+     * Project a TupleDesc onto some of its fields.
+     *
+     * @param td     The TupleDesc to project
+     * @param fields The indices in td of the fields of the new TupleDesc, in
+     *               their new order
+     * @return the new TupleDesc
+     */
+    public static TupleDesc project(TupleDesc td, int[] fields) {
+        Type[] types = new Type[fields.length];
+        String[] strings = new String[fields.length];
+        int[] maxLengths = new int[fields.length];
+        for (int i = 0; i < fields.length; i++) {
+            types[i] = td.getFieldType(fields[i]);
+            strings[i] = td.getFieldName(fields[i]);
+            maxLengths[i] = td.getMaxLength(fields[i]);
         }
-        return new TupleDesc(types, strings);
+        return new TupleDesc(types, strings, maxLengths);
     }
 
     /**
@@ -0,0 +1,163 @@
+package simpledb.storage;
+
+import java.util.OptionalLong;
+import java.util.function.LongPredicate;
+
+/**
+ * TwoQueueReplacer implements the scan resistant 2Q policy of Johnson and
+ * Shasha. A page brought into the pool first enters a FIFO probation queue,
+ * A1in; further accesses while it is there are considered correlated and do
+ * not promote it. When a page leaves A1in its key is remembered in a ghost
+ * queue, A1out, and only a page that is read again while still remembered
+ * there is admitted to the main LRU queue, Am.
+ * <p>
+ * Pages read with {@link AccessHint#SEQUENTIAL} stay in A1in and are not
+ * remembered in A1out when evicted, so a large scan only ever recycles the
+ * probation queue and leaves hot pages, such as B+ tree internal pages, in
+ * Am alone.
+ *
+ * @Threadsafe
+ */
+public class TwoQueueReplacer implements PageReplacer {
+
+    // lists of the frame table; heads are the next victims
+    private static final int A1IN = 0;
+    private static final int AM = 1;
+
+    // frame counter values for pages in A1in
+    private static final int REUSABLE = 0;
+    private static final int ONE_SHOT = 1;
+
+    private final FrameLists frames;
+    private final int maxIn;
+
+    // A1out: a FIFO ring of the keys of pages recently evicted from A1in;
+    // keys that are readmitted leave a hole behind
+    private final long[] ghosts;
+    private final boolean[] live;
+    private final LongIntMap ghostSlots;
+    private int ghostHead;
+    private int ghostCount;
+
+    /**
+     * Creates a replacer for a buffer pool of numFrames pages that keeps a
+     * quarter of the pool for probation and remembers evicted pages for half
+     * a pool's worth of evictions.
+     *
+     * @param numFrames the number of pages in the buffer pool
+     */
+    public TwoQueueReplacer(int numFrames) {
+        this(numFrames, Math.max(1, numFrames / 4), Math.max(1, numFrames / 2));
+    }
+
+    /**
+     * @param numFrames the number of pages in the buffer pool
+     * @param maxIn     the number of pages A1in may hold before it has to
+     *                  give up pages for new ones
+     * @param maxOut    the number of keys remembered in A1out
+     */
+    public TwoQueueReplacer(int numFrames, int maxIn, int maxOut) {
+        if (maxIn < 1 || maxOut < 1)
+            throw new IllegalArgumentException("queue sizes must be positive");
+        this.frames = new FrameLists(numFrames, 2);
+        this.maxIn = maxIn;
+        this.ghosts = new long[maxOut];
+        this.live = new boolean[maxOut];
+        this.ghostSlots = new LongIntMap(maxOut);
+    }
+
+    public synchronized void add(long key, AccessHint hint) {
+        int frame = frames.find(key);
+        if (frame != FrameLists.NIL) {
+            touch(frame, hint);
+            return;
+        }
+        frame = frames.allocate(key);
+        if (hint == AccessHint.NORMAL && forget(key)) {
+            frames.linkTail(frame, AM);
+        } else {
+            frames.setCount(frame, hint == AccessHint.SEQUENTIAL ? ONE_SHOT : REUSABLE);
+            frames.linkTail(frame, A1IN);
+        }
+    }
+
+    public synchronized void access(long key, AccessHint hint) {
+        int frame = frames.find(key);
+        if (frame != FrameLists.NIL)
+            touch(frame, hint);
+    }
+
+    public synchronized void remove(long key) {
+        int frame = frames.find(key);
+        if (frame != FrameLists.NIL)
+            frames.release(frame);
+    }
+
+    public synchronized OptionalLong evict(LongPredicate evictable) {
+        boolean inFirst = frames.size(A1IN) > maxIn || frames.size(AM) == 0;
+        for (int list : inFirst ? new int[]{A1IN, AM} : new int[]{AM, A1IN}) {
+            // frames that may not be evicted move to the tail, so pages that
+            // stay dirty for a long time are not scanned on every eviction
+            for (int i = frames.size(list); i > 0; i--) {
+                int frame = frames.head(list);
+                long key = frames.key(frame);
+                if (evictable.test(key)) {
+                    if (list == A1IN && frames.count(frame) == REUSABLE)
+                        remember(key);
+                    frames.release(frame);
+                    return OptionalLong.of(key);
+                }
+                frames.moveToTail(frame, list);
+            }
+        }
+        return OptionalLong.empty();
+    }
+
+    public synchronized int size() {
+        return frames.size();
+    }
+
+    /**
+     * @return the number of pages in the main queue, Am
+     */
+    public synchronized int getNumHot() {
+        return frames.size(AM);
+    }
+
+    private void touch(int frame, AccessHint hint) {
+        if (hint == AccessHint.SEQUENTIAL)
+            return;
+        if (frames.list(frame) == AM)
+            frames.moveToTail(frame, AM);
+        else
+            frames.setCount(frame, REUSABLE);
+    }
+
+    private void remember(long key) {
+        forget(key);
+        if (ghostCount == ghosts.length) {
+            if (live[ghostHead])
+                ghostSlots.remove(ghosts[ghostHead]);
+            ghostHead = (ghostHead + 1) % ghosts.length;
+            ghostCount--;
+        }
+        int slot = (ghostHead + ghostCount) % ghosts.length;
+        ghosts[slot] = key;
+        live[slot] = true;
+        ghostSlots.put(key, slot);
+        ghostCount++;
+    }
+
+    /**
+     * Removes key from A1out.
+     *
+     * @return true if key was remembered there
+     */
+    private boolean forget(long key) {
+        int slot = ghostSlots.remove(key);
+        if (slot == LongIntMap.NO_VALUE)
+            return false;
+        live[slot] = false;
+        return true;
+    }
+}
@@ -0,0 +1,263 @@
+package simpledb.storage;
+
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * VersionStore keeps the committed images of heap pages that snapshot
+ * readers may still need, so that they can read without locking.
+ * <p>
+ * Commits are numbered in order. A snapshot reader sees every page as it
+ * was after the last commit before it began. Before a transaction modifies
+ * a heap page for the first time it pins a copy of the page's committed
+ * image here; readers use that copy until the writer ends. When it commits,
+ * the pinned copy becomes an old version of the page, valid until the
+ * commit, and the page in the BufferPool or on disk is the new committed
+ * image. Old versions are vacuumed as soon as no running snapshot is older
+ * than the commit that replaced them, and are not kept at all while no
+ * snapshot is running.
+ *
+ * @Threadsafe
+ */
+class VersionStore {
+
+    private static final int NUM_STRIPES = 64;
+
+    /**
+     * Supplies the latest committed image of a page that no transaction is
+     * modifying; called with the latch of the page's stripe held, which
+     * keeps writers from pinning and modifying the page meanwhile.
+     */
+    interface CommittedImage {
+        byte[] get() throws IOException;
+    }
+
+    private static final class Version {
+        final byte[] data;
+        // number of the commit that replaced this image
+        final long end;
+        Version older;
+
+        Version(byte[] data, long end, Version older) {
+            this.data = data;
+            this.end = end;
+            this.older = older;
+        }
+    }
+
+    private static final class Entry {
+        // the transaction modifying the page and the committed image it
+        // pinned
+        TransactionId writer;
+        byte[] pinned;
+        // number of the commit that produced the current committed image
+        long begin;
+        // newest first
+        Version versions;
+
+        boolean isEmpty() {
+            return writer == null && versions == null;
+        }
+    }
+
+    // key -> entry, for the pages being modified or with old versions;
+    // each map is protected by itself
+    @SuppressWarnings("unchecked")
+    private final Map<Long, Entry>[] stripes = new Map[NUM_STRIPES];
+    // writer -> keys of the pages it pinned
+    private final Map<TransactionId, Set<Long>> pinnedBy = new ConcurrentHashMap<>();
+    // snapshot reader -> the number of the last commit it sees
+    private final Map<TransactionId, Long> snapshots = new ConcurrentHashMap<>();
+    // the fields below are protected by snapshots
+    private final TreeMap<Long, Integer> running = new TreeMap<>();
+    // (end, key) of the old versions in the order they were created
+    private final ArrayDeque<long[]> retired = new ArrayDeque<>();
+    private volatile long lastCommit;
+
+    VersionStore() {
+        for (int i = 0; i < stripes.length; i++)
+            stripes[i] = new HashMap<>();
+    }
+
+    private Map<Long, Entry> stripeOf(long key) {
+        return stripes[(int) ((key * 0x9E3779B97F4A7C15L) >>> 58) & (NUM_STRIPES - 1)];
+    }
+
+    /**
+     * Starts a snapshot for tid, which sees every commit so far.
+     */
+    void begin(TransactionId tid) {
+        synchronized (snapshots) {
+            if (snapshots.putIfAbsent(tid, lastCommit) == null)
+                running.merge(lastCommit, 1, Integer::sum);
+        }
+    }
+
+    boolean isSnapshot(TransactionId tid) {
+        return !snapshots.isEmpty() && snapshots.containsKey(tid);
+    }
+
+    /**
+     * Ends the snapshot of tid and vacuums the versions no other snapshot
+     * needs.
+     */
+    void end(TransactionId tid) {
+        synchronized (snapshots) {
+            Long ts = snapshots.remove(tid);
+            if (ts == null)
+                return;
+            running.computeIfPresent(ts, (t, n) -> n == 1 ? null : n - 1);
+            vacuum();
+        }
+    }
+
+    /**
+     * Pins the committed image of a page tid is about to modify, unless tid
+     * already did.
+     */
+    void pin(TransactionId tid, long key, Page page) {
+        Map<Long, Entry> stripe = stripeOf(key);
+        synchronized (stripe) {
+            Entry e = stripe.computeIfAbsent(key, k -> new Entry());
+            if (e.writer != null)
+                return;
+            e.writer = tid;
+            e.pinned = page.getPageData();
+            pinnedBy.computeIfAbsent(tid, t -> ConcurrentHashMap.newKeySet()).add(key);
+        }
+    }
+
+    /**
+     * @param ts      the number of the last commit the reader sees
+     * @param current the latest committed image if no one is modifying the
+     *                page
+     * @return the image of a page the commit numbered ts left behind
+     */
+    byte[] read(long key, long ts, CommittedImage current) throws IOException {
+        Map<Long, Entry> stripe = stripeOf(key);
+        synchronized (stripe) {
+            Entry e = stripe.get(key);
+            if (e == null)
+                return current.get();
+            if (e.begin <= ts)
+                return e.writer != null ? e.pinned : current.get();
+            Version visible = null;
+            for (Version v = e.versions; v != null && v.end > ts; v = v.older)
+                visible = v;
+            return visible.data;
+        }
+    }
+
+    /**
+     * @return the number of the last commit tid, a snapshot reader, sees
+     */
+    long snapshotOf(TransactionId tid) {
+        return snapshots.get(tid);
+    }
+
+    /**
+     * Turns the images tid pinned into old versions; the pages it modified
+     * are the committed images now. Called with the BufferPool locked, so
+     * commits are numbered in the order they happen.
+     */
+    void commit(TransactionId tid) {
+        Set<Long> keys = pinnedBy.remove(tid);
+        if (keys == null)
+            return;
+        // no snapshot may begin halfway through
+        synchronized (snapshots) {
+            long ts = lastCommit + 1;
+            boolean keep = !running.isEmpty();
+            for (long key : keys) {
+                Map<Long, Entry> stripe = stripeOf(key);
+                synchronized (stripe) {
+                    Entry e = stripe.get(key);
+                    if (keep) {
+                        e.versions = new Version(e.pinned, ts, e.versions);
+                        retired.add(new long[]{ts, key});
+                    }
+                    e.begin = ts;
+                    e.writer = null;
+                    e.pinned = null;
+                    if (e.isEmpty())
+                        stripe.remove(key);
+                }
+            }
+            lastCommit = ts;
+        }
+    }
+
+    /**
+     * Unpins the images tid pinned; the pages it modified must have been
+     * restored to them.
+     */
+    void abort(TransactionId tid) {
+        Set<Long> keys = pinnedBy.remove(tid);
+        if (keys == null)
+            return;
+        for (long key : keys) {
+            Map<Long, Entry> stripe = stripeOf(key);
+            synchronized (stripe) {
+                Entry e = stripe.get(key);
+                e.writer = null;
+                e.pinned = null;
+                if (e.isEmpty())
+                    stripe.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Drops the old versions that were replaced before the oldest running
+     * snapshot began.
+     */
+    void vacuum() {
+        synchronized (snapshots) {
+            long oldest = running.isEmpty() ? lastCommit : running.firstKey();
+            while (!retired.isEmpty() && retired.peekFirst()[0] <= oldest) {
+                long key = retired.pollFirst()[1];
+                Map<Long, Entry> stripe = stripeOf(key);
+                synchronized (stripe) {
+                    Entry e = stripe.get(key);
+                    if (e == null)
+                        continue;
+                    if (e.versions != null && e.versions.end <= oldest) {
+                        e.versions = null;
+                    } else {
+                        for (Version v = e.versions; v != null; v = v.older) {
+                            if (v.older != null && v.older.end <= oldest) {
+                                v.older = null;
+                                break;
+                            }
+                        }
+                    }
+                    if (e.isEmpty())
+                        stripe.remove(key);
+                }
+            }
+        }
+    }
+
+    /**
+     * @return the number of old versions kept
+     */
+    int getNumVersions() {
+        int n = 0;
+        for (Map<Long, Entry> stripe : stripes) {
+            synchronized (stripe) {
+                for (Entry e : stripe.values()) {
+                    for (Version v = e.versions; v != null; v = v.older)
+                        n++;
+                }
+            }
+        }
+        return n;
+    }
+}
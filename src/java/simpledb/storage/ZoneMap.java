@@ -0,0 +1,345 @@
+package simpledb.storage;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Predicate;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * ZoneMap records the smallest and the largest value of each INT_TYPE field
+ * on every page of a {@link HeapFile}, so that a scan with predicates on
+ * those fields skips the pages none of whose tuples can match. An empty
+ * page has a range with its smallest value above its largest one, and
+ * matches nothing.
+ * <p>
+ * The map is kept in memory and in a side file next to the heap file,
+ * named after it with {@link #SUFFIX} appended: a header of
+ * {@link #HEADER_SIZE} bytes, then for every page, the smallest and the
+ * largest value of each INT_TYPE field, in field order. The header holds
+ * the page size, the number of pages, the length and the modification time
+ * of the heap file as of the last write the side file accounts for; a
+ * side file whose header does not match the heap file, e.g. because the
+ * heap file was replaced, is rebuilt from the pages.
+ * Unlike the {@link FreeSpaceMap} it is not a hint, so every range covers
+ * at least the values on the page. Inserts widen the range of the page in
+ * memory; deletes leave it as it is, since older versions of the page may
+ * still be read by snapshots. The side file is updated around every write
+ * of a page: widened before the page is written, narrowed to the values
+ * written afterwards, so it covers the page on disk even if the write is
+ * interrupted. Pages the side file does not cover, e.g. every page the
+ * first time a file is used, are read once to fill the gap.
+ *
+ * @Threadsafe
+ */
+class ZoneMap {
+
+    static final String SUFFIX = ".zm";
+
+    /**
+     * Bytes of the header of the side file.
+     */
+    static final int HEADER_SIZE = 24;
+
+    private final HeapFile hf;
+    private final File file;
+    // FileChannelPool key of the side file
+    private final int channelKey;
+    // the INT_TYPE fields, and the ints a page takes in the map
+    private final int[] fields;
+    private final int width;
+
+    // the fields below are protected by this
+    private boolean loaded;
+    // the range of each field of each page, as in memory and as in the side
+    // file; the range of field fields[i] of page p is at p * width + 2 * i
+    private int[] ranges = new int[0];
+    private int[] stored = new int[0];
+    private int numPages;
+
+    ZoneMap(HeapFile hf) {
+        this.hf = hf;
+        this.file = sideFile(hf.getFile());
+        this.channelKey = channelKey(hf.getFile());
+        this.fields = intFields(hf.getTupleDesc());
+        this.width = 2 * fields.length;
+    }
+
+    /**
+     * @return the side file that holds the zone map of a heap file
+     */
+    static File sideFile(File heapFile) {
+        return new File(heapFile.getPath() + SUFFIX);
+    }
+
+    private static int channelKey(File heapFile) {
+        return sideFile(heapFile).getAbsoluteFile().hashCode();
+    }
+
+    /**
+     * @return the header of the side file of a heap file with pages of the
+     * given size, as the heap file is now
+     */
+    static ByteBuffer header(File heapFile, int pageSize) {
+        long length = heapFile.length();
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE);
+        buf.putInt(pageSize).putInt((int) (length / pageSize)).putLong(length).putLong(heapFile.lastModified());
+        return buf.flip();
+    }
+
+    /**
+     * Deletes the side file of a heap file, closing the channel open on it.
+     */
+    static void drop(File heapFile) {
+        Database.getFileChannelPool().close(channelKey(heapFile));
+        sideFile(heapFile).delete();
+    }
+
+    /**
+     * @return the indices of the INT_TYPE fields of td
+     */
+    static int[] intFields(TupleDesc td) {
+        int[] fields = new int[td.numFields()];
+        int n = 0;
+        for (int i = 0; i < td.numFields(); i++) {
+            if (td.getFieldType(i) == Type.INT_TYPE)
+                fields[n++] = i;
+        }
+        return Arrays.copyOf(fields, n);
+    }
+
+    /**
+     * Writes the ranges of the given fields over the tuples of a page to
+     * dst, the smallest and the largest value of each field in turn.
+     */
+    static void summarize(HeapPage page, int[] fields, ByteBuffer dst) {
+        int[] range = new int[2 * fields.length];
+        summarize(page, fields, range, 0);
+        for (int v : range)
+            dst.putInt(v);
+    }
+
+    private static void summarize(HeapPage page, int[] fields, int[] dst, int off) {
+        for (int i = 0; i < fields.length; i++) {
+            dst[off + 2 * i] = Integer.MAX_VALUE;
+            dst[off + 2 * i + 1] = Integer.MIN_VALUE;
+        }
+        Iterator<Tuple> it = page.iterator();
+        while (it.hasNext())
+            widen(it.next(), fields, dst, off);
+    }
+
+    private static void widen(Tuple t, int[] fields, int[] dst, int off) {
+        for (int i = 0; i < fields.length; i++) {
+            int v = ((IntField) t.getField(fields[i])).getValue();
+            dst[off + 2 * i] = Math.min(dst[off + 2 * i], v);
+            dst[off + 2 * i + 1] = Math.max(dst[off + 2 * i + 1], v);
+        }
+    }
+
+    /**
+     * @return false if no tuple of the page can satisfy all of the
+     * predicates, by the ranges of its INT_TYPE fields
+     */
+    synchronized boolean mayMatch(int pgNo, List<Predicate> predicates) throws IOException {
+        if (width == 0 || predicates.isEmpty())
+            return true;
+        load();
+        if (pgNo >= numPages)
+            return true;
+        int off = pgNo * width;
+        // no tuple at all
+        if (ranges[off] > ranges[off + 1])
+            return false;
+        for (Predicate p : predicates) {
+            int i = Arrays.binarySearch(fields, p.getField());
+            if (i < 0 || !(p.getOperand() instanceof IntField))
+                continue;
+            int min = ranges[off + 2 * i];
+            int max = ranges[off + 2 * i + 1];
+            int v = ((IntField) p.getOperand()).getValue();
+            boolean overlaps;
+            switch (p.getOp()) {
+                case EQUALS:
+                case LIKE:
+                    overlaps = min <= v && v <= max;
+                    break;
+                case NOT_EQUALS:
+                    overlaps = min != v || max != v;
+                    break;
+                case GREATER_THAN:
+                    overlaps = max > v;
+                    break;
+                case GREATER_THAN_OR_EQ:
+                    overlaps = max >= v;
+                    break;
+                case LESS_THAN:
+                    overlaps = min < v;
+                    break;
+                case LESS_THAN_OR_EQ:
+                    overlaps = min <= v;
+                    break;
+                default:
+                    overlaps = true;
+            }
+            if (!overlaps)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Widens the ranges of a page by a tuple inserted into it in the buffer
+     * pool.
+     */
+    synchronized void inserted(int pgNo, Tuple t) throws IOException {
+        if (width == 0)
+            return;
+        load();
+        cover(pgNo + 1);
+        widen(t, fields, ranges, pgNo * width);
+    }
+
+    /**
+     * Widens the ranges of a page by the tuples on it, e.g. after it was
+     * restored to its before image in the buffer pool.
+     */
+    synchronized void update(HeapPage page) throws IOException {
+        if (width == 0)
+            return;
+        load();
+        int pgNo = page.getId().getPageNumber();
+        cover(pgNo + 1);
+        int[] summary = new int[width];
+        summarize(page, fields, summary, 0);
+        union(summary, 0, ranges, pgNo * width);
+    }
+
+    /**
+     * Widens the ranges of consecutive pages about to be written to the
+     * heap file by the tuples on them, in the side file too.
+     *
+     * @return the ranges of the pages, to pass to {@link #written}
+     */
+    synchronized int[] writing(List<HeapPage> pages) throws IOException {
+        if (width == 0 || pages.isEmpty())
+            return null;
+        load();
+        int first = pages.get(0).getId().getPageNumber();
+        cover(first + pages.size());
+        int[] summary = new int[pages.size() * width];
+        boolean widens = false;
+        for (int i = 0; i < pages.size(); i++) {
+            int off = (first + i) * width;
+            summarize(pages.get(i), fields, summary, i * width);
+            union(summary, i * width, ranges, off);
+            if (!covers(stored, off, summary, i * width)) {
+                union(summary, i * width, stored, off);
+                widens = true;
+            }
+        }
+        if (widens)
+            store(first, first + pages.size());
+        return summary;
+    }
+
+    /**
+     * Narrows the ranges of consecutive pages in the side file to those of
+     * the tuples just written to the heap file, and records the heap file
+     * as it now is in the header.
+     *
+     * @param summary the ranges {@link #writing} returned for the pages
+     */
+    synchronized void written(int first, int[] summary) throws IOException {
+        if (summary == null)
+            return;
+        int from = first * width;
+        if (!Arrays.equals(summary, 0, summary.length, stored, from, from + summary.length)) {
+            System.arraycopy(summary, 0, stored, from, summary.length);
+            store(first, first + summary.length / width);
+        }
+        storeHeader();
+    }
+
+    // widens the ranges of a page at dst[dstOff] by those at src[srcOff]
+    private void union(int[] src, int srcOff, int[] dst, int dstOff) {
+        for (int i = 0; i < width; i += 2) {
+            dst[dstOff + i] = Math.min(dst[dstOff + i], src[srcOff + i]);
+            dst[dstOff + i + 1] = Math.max(dst[dstOff + i + 1], src[srcOff + i + 1]);
+        }
+    }
+
+    // whether the ranges of a page at a[aOff] cover those at b[bOff]
+    private boolean covers(int[] a, int aOff, int[] b, int bOff) {
+        for (int i = 0; i < width; i += 2) {
+            if (a[aOff + i] > b[bOff + i] || a[aOff + i + 1] < b[bOff + i + 1])
+                return false;
+        }
+        return true;
+    }
+
+    // makes room for the ranges of the given number of pages; pages the map
+    // did not cover are empty
+    private void cover(int pages) {
+        if (pages <= numPages)
+            return;
+        if (pages * width > ranges.length) {
+            int length = Math.max(pages * width, 2 * ranges.length);
+            ranges = Arrays.copyOf(ranges, length);
+            stored = Arrays.copyOf(stored, length);
+        }
+        for (int off = numPages * width; off < pages * width; off += 2) {
+            ranges[off] = stored[off] = Integer.MAX_VALUE;
+            ranges[off + 1] = stored[off + 1] = Integer.MIN_VALUE;
+        }
+        numPages = pages;
+    }
+
+    private void store(int from, int to) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate((to - from) * width * 4);
+        buf.asIntBuffer().put(stored, from * width, (to - from) * width);
+        Database.getFileChannelPool().write(channelKey, file, buf, HEADER_SIZE + (long) from * width * 4);
+    }
+
+    private void storeHeader() throws IOException {
+        Database.getFileChannelPool().write(channelKey, file, header(hf.getFile(), BufferPool.getPageSize()), 0);
+    }
+
+    /**
+     * Reads the side file, and the pages it does not cover, the first time
+     * the map is used. A side file whose header does not match the heap
+     * file covers no page.
+     */
+    private void load() throws IOException {
+        if (loaded)
+            return;
+        loaded = true;
+        int pages = hf.numPages();
+        cover(pages);
+        int covered = 0;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        if (file.exists() && Database.getFileChannelPool().read(channelKey, file, header, 0) == HEADER_SIZE
+                && header.flip().equals(header(hf.getFile(), BufferPool.getPageSize()))) {
+            ByteBuffer buf = ByteBuffer.allocate(pages * width * 4);
+            int read = Database.getFileChannelPool().read(channelKey, file, buf, HEADER_SIZE);
+            covered = read / (width * 4);
+            buf.rewind().asIntBuffer().get(ranges, 0, covered * width);
+            System.arraycopy(ranges, 0, stored, 0, covered * width);
+        }
+        for (int pgNo = covered; pgNo < pages; pgNo++) {
+            byte[] data = hf.readPageData(pgNo);
+            if (data != null)
+                summarize(new HeapPage(new HeapPageId(hf.getId(), pgNo), data), fields, ranges, pgNo * width);
+        }
+        if (covered < pages) {
+            System.arraycopy(ranges, covered * width, stored, covered * width, (pages - covered) * width);
+            store(covered, pages);
+            storeHeader();
+        }
+    }
+}
@@ -1,202 +1,803 @@
 package simpledb.transaction;
 
-import simpledb.common.Database;
 import simpledb.storage.PageId;
 
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
 
+/**
+ * LockManager grants locks on tables and pages to transactions.
+ * <p>
+ * The two form a hierarchy. Before locking a page, a transaction locks its
+ * table in an intention mode, {@link LockMode#IS} or {@link LockMode#IX},
+ * so that a lock on a whole table conflicts with the locks on its pages
+ * without anyone looking at them. A transaction holding a lock on a table
+ * that covers a request for one of its pages gets nothing more. Once a
+ * transaction holds more than a threshold of page locks in one table, they
+ * are escalated: it locks the whole table, exclusively if it holds any of
+ * them for writing, shared otherwise, and drops the locks the table lock
+ * covers.
+ * <p>
+ * Tuples are not locked on their own: recovery and the version store work
+ * on whole pages, so a writer holds the page it modifies exclusively.
+ * <p>
+ * The lock table is indexed by what is locked, the table id or the
+ * {@link PageId#pageKey() page key}, and split into
+ * stripes, each guarded by its own latch, so requests for unrelated pages
+ * neither contend nor look at each other's locks. A lock counts its holders
+ * in each mode, so deciding whether a request can be granted takes
+ * constant time. A separate per-transaction index of the locks each
+ * transaction holds is used to answer
+ * {@link #isLocked(TransactionId, PageId)}, to skip requests already
+ * granted and to release everything at the end of a transaction.
+ * <p>
+ * Every lock has a queue of the requests that could not be granted yet.
+ * Requests are granted in FIFO order: a request waits if it conflicts with
+ * a holder or if any request is queued before it, so a stream of shared
+ * requests cannot starve an exclusive one. A holder asking for a stronger
+ * mode is queued in front of the other waiters and granted as soon as the
+ * other holders allow it. Whoever releases a lock grants it to the waiters
+ * at the head of the queue and wakes exactly those, so a waiter runs as
+ * soon as its lock is free and never polls.
+ * <p>
+ * By default deadlocks are detected on a {@link WaitForGraph} that is
+ * updated whenever a request blocks or the lock it waits for changes hands.
+ * The transaction chosen by the {@link VictimPolicy} among those in a cycle
+ * is woken up and gets a {@link TransactionAbortedException}. Alternatively
+ * a {@link DeadlockMode} can prevent deadlocks by comparing the ages of the
+ * transactions, given by {@link TransactionId#getId()}, without any graph.
+ *
+ * @Threadsafe
+ */
 public class LockManager {
-    // TODO: Is there any more efficient way to store the meta data?
-    private final ConcurrentHashMap<Integer, Set<Integer>> sharedLockSets;
-    private final ConcurrentHashMap<Integer, Set<Integer>> exclusiveLockSets;
-    private final ConcurrentHashMap<Integer, Set<Integer>> graph;
-    private final ConcurrentHashMap<Integer, Integer> vertices;
-    private int v;
-
-    public LockManager() {
-        this.exclusiveLockSets = new ConcurrentHashMap<>();
-        this.sharedLockSets = new ConcurrentHashMap<>();
-        this.graph = new ConcurrentHashMap<>();
-        this.vertices = new ConcurrentHashMap<>();
-        this.v = 0;
-    }
 
     /**
-     * Add to the dependency graph and detect if there is a loop in the graph
-     *
-     * @param tid1      the txn that wants to acquire a lock
-     * @param tranHash2 the txn that holds the lock
-     */
-    private synchronized void addToGraph(TransactionId tid1, int tranHash2) throws TransactionAbortedException {
-        int tranHash1 = tid1.hashCode();
-        Set<Integer> set;
-        if (graph.containsKey(tranHash1)) {
-            set = graph.get(tranHash1);
-            set.add(tranHash2);
-        } else {
-            set = new HashSet<>();
-            set.add(tranHash2);
-            graph.put(tranHash1, set);
-        }
-        if (!vertices.containsKey(tranHash1)) {
-            vertices.put(tranHash1, v);
-            v++;
-        }
-        if (!vertices.containsKey(tranHash2)) {
-            vertices.put(tranHash2, v);
-            v++;
-        }
-        Digraph digraph = new Digraph(v);
-        for (int t1 : graph.keySet()) {
-            for (int t2 : graph.get(t1)) {
-                digraph.addEdge(vertices.get(t1), vertices.get(t2));
+     * The modes a lock can be held in.
+     */
+    public enum LockMode {
+        /** Intention to read some of what is below. */
+        IS,
+        /** Intention to modify some of what is below. */
+        IX,
+        /** Read, including everything below. */
+        S,
+        /** Read everything below and intend to modify some of it. */
+        SIX,
+        /** Modify, including everything below. */
+        X;
+
+        private static final LockMode[] MODES = values();
+
+        // COMPATIBLE[a][b]: a lock may be held in a and b by two transactions
+        private static final boolean[][] COMPATIBLE = {
+                //IS    IX     S      SIX    X
+                {true, true, true, true, false},     // IS
+                {true, true, false, false, false},   // IX
+                {true, false, true, false, false},   // S
+                {true, false, false, false, false},  // SIX
+                {false, false, false, false, false}, // X
+        };
+
+        public boolean isCompatible(LockMode other) {
+            return COMPATIBLE[ordinal()][other.ordinal()];
+        }
+
+        /**
+         * @return true if holding a lock in this mode allows everything
+         * holding it in other does
+         */
+        public boolean covers(LockMode other) {
+            switch (this) {
+            case X:
+                return true;
+            case SIX:
+                return other != X;
+            case S:
+            case IX:
+                return other == this || other == IS;
+            default:
+                return other == IS;
             }
         }
-        DirectedCycle directedCycle = new DirectedCycle(digraph);
-        if (directedCycle.hasCycle()) {
-            Database.getBufferPool().transactionComplete(tid1, false);
-            throw new TransactionAbortedException();
+
+        /**
+         * @return the weakest mode that covers both this and other
+         */
+        public LockMode join(LockMode other) {
+            if (covers(other))
+                return this;
+            if (other.covers(this))
+                return other;
+            return SIX;
+        }
+
+        /**
+         * @return the mode everything above must be locked in before
+         * something is locked in this mode
+         */
+        LockMode intention() {
+            return this == IS || this == S ? IS : IX;
+        }
+
+        /**
+         * @return true if holding a lock in this mode allows locking
+         * everything below in child without asking
+         */
+        boolean coversChildren(LockMode child) {
+            return this == X || ((this == S || this == SIX) && (child == S || child == IS));
         }
     }
 
-    public synchronized boolean acquireSharedLock(TransactionId tid, PageId pid) throws TransactionAbortedException {
-        Set<Integer> set;
-        int tranHash = tid.hashCode();
-        int pageHash = pid.hashCode();
+    /**
+     * Which transaction of a deadlock is aborted.
+     */
+    public enum VictimPolicy {
+        /** The transaction whose request closed the cycle. */
+        REQUESTER,
+        /** The transaction that started last. */
+        YOUNGEST,
+        /** The transaction holding the fewest locks, the youngest of those if several. */
+        LEAST_WORK
+    }
 
-        for (int key : exclusiveLockSets.keySet()) {
-            if (exclusiveLockSets.get(key).contains(pageHash) && key != tranHash) {
-                addToGraph(tid, key);
-                return false;
+    /**
+     * How deadlocks are dealt with.
+     */
+    public enum DeadlockMode {
+        /** Deadlocks are detected on a wait-for graph and broken by aborting a victim. */
+        DETECTION,
+        /**
+         * A transaction may only wait for younger ones; a request that would
+         * wait for an older transaction aborts its transaction instead.
+         */
+        WAIT_DIE,
+        /**
+         * A transaction may only wait for older ones; a request that would
+         * wait for a younger transaction aborts that transaction, which
+         * finds out when it waits for or requests a lock.
+         */
+        WOUND_WAIT
+    }
+
+    /**
+     * Number of stripes of the lock table.
+     */
+    public static final int NUM_STRIPES = 64;
+
+    /**
+     * Number of page locks a transaction may hold in one table
+     * before they are escalated to a lock on the table, unless the
+     * constructor is given another.
+     */
+    public static final int DEFAULT_ESCALATION_THRESHOLD = 1000;
+
+    private static final class Request {
+        final TransactionId tid;
+        // table id or page key
+        final Object key;
+        final LockMode mode;
+        final Condition granted;
+        boolean isGranted;
+        boolean isAborted;
+
+        Request(TransactionId tid, Object key, LockMode mode, Condition granted) {
+            this.tid = tid;
+            this.key = key;
+            this.mode = mode;
+            this.granted = granted;
+        }
+    }
+
+    private static final class Lock {
+        // holders and the modes they hold the lock in
+        final Map<TransactionId, LockMode> holders = new HashMap<>();
+        // number of holders in each mode
+        final int[] counts = new int[LockMode.MODES.length];
+        final ArrayDeque<Request> waiters = new ArrayDeque<>();
+
+        boolean isFree() {
+            return holders.isEmpty() && waiters.isEmpty();
+        }
+
+        /**
+         * @return true if request can be granted given the current holders
+         */
+        boolean isCompatible(Request request) {
+            LockMode own = holders.get(request.tid);
+            for (LockMode m : LockMode.MODES) {
+                int others = counts[m.ordinal()] - (m == own ? 1 : 0);
+                if (others > 0 && !request.mode.isCompatible(m))
+                    return false;
             }
+            return true;
         }
-        if (sharedLockSets.containsKey(tranHash)) {
-            set = sharedLockSets.get(tranHash);
-            set.add(pageHash);
-        } else {
-            set = new HashSet<>();
-            set.add(pageHash);
-            sharedLockSets.put(tranHash, set);
+
+        void hold(TransactionId tid, LockMode mode) {
+            LockMode old = holders.put(tid, mode);
+            if (old != null)
+                counts[old.ordinal()]--;
+            counts[mode.ordinal()]++;
         }
+
+        void unhold(TransactionId tid) {
+            LockMode old = holders.remove(tid);
+            if (old != null)
+                counts[old.ordinal()]--;
+        }
+    }
+
+    private static final class Stripe {
+        final ReentrantLock latch = new ReentrantLock();
+        // key -> lock; only what is locked or waited for; protected by latch
+        final Map<Object, Lock> locks = new HashMap<>();
+    }
+
+    /**
+     * The locks a transaction holds, changed under the latch of the stripe
+     * of each lock.
+     */
+    private static final class Held {
+        final Map<Object, LockMode> modes = new ConcurrentHashMap<>();
+        // table id -> number of page locks held in the table
+        final Map<Integer, Integer> below = new ConcurrentHashMap<>();
+    }
+
+    private final Stripe[] stripes = new Stripe[NUM_STRIPES];
+    private final Map<TransactionId, Held> held = new ConcurrentHashMap<>();
+    // transaction -> the request it is waiting for
+    private final Map<TransactionId, Request> waiting = new ConcurrentHashMap<>();
+    private final DeadlockMode deadlockMode;
+    private final VictimPolicy victimPolicy;
+    private final int escalationThreshold;
+    // only for DeadlockMode.DETECTION
+    private final WaitForGraph graph;
+    // transactions aborted to prevent a deadlock that have not ended yet
+    private final Set<TransactionId> doomed = ConcurrentHashMap.newKeySet();
+
+    public LockManager() {
+        this(VictimPolicy.YOUNGEST);
+    }
+
+    public LockManager(VictimPolicy victimPolicy) {
+        this(DeadlockMode.DETECTION, victimPolicy);
+    }
+
+    public LockManager(DeadlockMode deadlockMode) {
+        this(deadlockMode, VictimPolicy.YOUNGEST);
+    }
+
+    public LockManager(DeadlockMode deadlockMode, VictimPolicy victimPolicy) {
+        this(deadlockMode, victimPolicy, DEFAULT_ESCALATION_THRESHOLD);
+    }
+
+    /**
+     * @param victimPolicy        only used with DeadlockMode.DETECTION
+     * @param escalationThreshold number of page locks a
+     *                            transaction may hold in one table before
+     *                            they are escalated
+     */
+    public LockManager(DeadlockMode deadlockMode, VictimPolicy victimPolicy, int escalationThreshold) {
+        for (int i = 0; i < stripes.length; i++)
+            stripes[i] = new Stripe();
+        this.deadlockMode = deadlockMode;
+        this.victimPolicy = victimPolicy;
+        this.escalationThreshold = escalationThreshold;
+        this.graph = deadlockMode == DeadlockMode.DETECTION ? new WaitForGraph(this::chooseVictim) : null;
+    }
+
+    public DeadlockMode getDeadlockMode() {
+        return deadlockMode;
+    }
+
+    public VictimPolicy getVictimPolicy() {
+        return victimPolicy;
+    }
+
+    public int getEscalationThreshold() {
+        return escalationThreshold;
+    }
+
+    private Stripe stripeOf(Object key) {
+        return stripes[(int) ((key.hashCode() * 0x9E3779B97F4A7C15L) >>> 58) & (NUM_STRIPES - 1)];
+    }
+
+    /**
+     * @return the table a page lock is in, or null for a table lock
+     */
+    private static Integer tableOf(Object key) {
+        if (key instanceof Long pageKey)
+            return (int) (pageKey >>> 32);
+        return null;
+    }
+
+    private LockMode modeOf(TransactionId tid, Object key) {
+        Held h = held.get(tid);
+        return h == null ? null : h.modes.get(key);
+    }
+
+    public void acquireSharedLock(TransactionId tid, PageId pid) throws TransactionAbortedException {
+        acquireBelow(tid, pid.getTableId(), pid.pageKey(), LockMode.S);
+    }
+
+    public void acquireExclusiveLock(TransactionId tid, PageId pid) throws TransactionAbortedException {
+        acquireBelow(tid, pid.getTableId(), pid.pageKey(), LockMode.X);
+    }
+
+    /**
+     * Turns the shared lock tid holds on pid into an exclusive one, waiting
+     * for the other holders to release theirs. Acquires the exclusive lock
+     * if tid holds no lock on pid.
+     */
+    public void upgrade(TransactionId tid, PageId pid) throws TransactionAbortedException {
+        acquireBelow(tid, pid.getTableId(), pid.pageKey(), LockMode.X);
+    }
+
+    /**
+     * Acquires the exclusive lock on pid if no other transaction holds or
+     * waits for a lock on it. The intention lock on its table, and the
+     * table lock if this escalates, are waited for as usual.
+     *
+     * @return true if tid holds the exclusive lock on pid, or a lock on its
+     * table that covers it
+     */
+    public boolean tryAcquireExclusiveLock(TransactionId tid, PageId pid) throws TransactionAbortedException {
+        if (lockIntention(tid, pid.getTableId(), LockMode.X))
+            return true;
+        if (!acquire(tid, pid.pageKey(), LockMode.X, false))
+            return false;
+        escalate(tid, pid.getTableId());
         return true;
     }
 
-    public synchronized boolean acquireExclusiveLock(TransactionId tid, PageId pid) throws TransactionAbortedException {
-        Set<Integer> set;
-        int tranHash = tid.hashCode();
-        int pageHash = pid.hashCode();
+    /**
+     * Locks a whole table in the given mode.
+     */
+    public void acquireTableLock(TransactionId tid, int tableId, LockMode mode) throws TransactionAbortedException {
+        acquire(tid, tableId, mode, true);
+    }
 
-        for (int key : sharedLockSets.keySet()) {
-            if (sharedLockSets.get(key).contains(pageHash) && key != tranHash) {
-                addToGraph(tid, key);
-                return false;
+    private void acquireBelow(TransactionId tid, int table, long pageKey, LockMode mode)
+            throws TransactionAbortedException {
+        if (lockIntention(tid, table, mode))
+            return;
+        acquire(tid, pageKey, mode, true);
+        escalate(tid, table);
+    }
+
+    /**
+     * Locks a table in the intention mode that locking something in it in
+     * mode requires.
+     *
+     * @return true if the lock tid already holds on the table covers mode,
+     * so there is nothing left to lock
+     */
+    private boolean lockIntention(TransactionId tid, int table, LockMode mode) throws TransactionAbortedException {
+        LockMode holds = modeOf(tid, table);
+        if (holds != null && holds.coversChildren(mode))
+            return true;
+        acquire(tid, table, mode.intention(), true);
+        return false;
+    }
+
+    /**
+     * Escalates the page locks tid holds in a table to a lock on
+     * the table if there are too many of them.
+     */
+    private void escalate(TransactionId tid, int table) throws TransactionAbortedException {
+        Held h = held.get(tid);
+        Integer n = h == null ? null : h.below.get(table);
+        if (n == null || n <= escalationThreshold)
+            return;
+        boolean writes = false;
+        for (Map.Entry<Object, LockMode> e : h.modes.entrySet()) {
+            if (!LockMode.S.covers(e.getValue()) && Integer.valueOf(table).equals(tableOf(e.getKey()))) {
+                writes = true;
+                break;
             }
         }
-        for (int key : exclusiveLockSets.keySet()) {
-            if (exclusiveLockSets.get(key).contains(pageHash) && key != tranHash) {
-                addToGraph(tid, key);
-                return false;
+        acquire(tid, table, writes ? LockMode.X : LockMode.S, true);
+        LockMode mode = modeOf(tid, table);
+        for (Map.Entry<Object, LockMode> e : new ArrayList<>(h.modes.entrySet())) {
+            if (Integer.valueOf(table).equals(tableOf(e.getKey())) && mode.coversChildren(e.getValue()))
+                release(tid, e.getKey());
+        }
+    }
+
+    /**
+     * @param wait whether to wait for the lock if it cannot be granted
+     *             right away
+     * @return false if the lock was not granted because wait was false
+     */
+    private boolean acquire(TransactionId tid, Object key, LockMode mode, boolean wait)
+            throws TransactionAbortedException {
+        if (graph == null && !doomed.isEmpty() && doomed.contains(tid))
+            throw new TransactionAbortedException();
+        LockMode holds = modeOf(tid, key);
+        if (holds != null && holds.covers(mode))
+            return true;
+        Stripe stripe = stripeOf(key);
+        Request request;
+        boolean converted = false;
+        List<TransactionId> victims;
+        stripe.latch.lock();
+        try {
+            Lock lock = stripe.locks.computeIfAbsent(key, k -> new Lock());
+            holds = lock.holders.get(tid);
+            if (holds != null && holds.covers(mode))
+                return true;
+            request = new Request(tid, key, holds == null ? mode : holds.join(mode), stripe.latch.newCondition());
+            if (holds != null) {
+                // a conversion goes first, waiters behind it may wait for tid
+                if (lock.isCompatible(request)) {
+                    grant(lock, request);
+                    converted = true;
+                } else if (!wait) {
+                    return false;
+                } else {
+                    lock.waiters.addFirst(request);
+                }
+            } else {
+                if (lock.waiters.isEmpty() && lock.isCompatible(request)) {
+                    grant(lock, request);
+                    return true;
+                }
+                if (!wait) {
+                    if (lock.isFree())
+                        stripe.locks.remove(key);
+                    return false;
+                }
+                lock.waiters.addLast(request);
             }
+            if (!converted)
+                waiting.put(tid, request);
+            victims = updateWaiters(lock, null);
+        } finally {
+            stripe.latch.unlock();
         }
-        if (exclusiveLockSets.containsKey(tranHash)) {
-            set = exclusiveLockSets.get(tranHash);
-            set.add(pageHash);
-        } else {
-            set = new HashSet<>();
-            set.add(pageHash);
-            exclusiveLockSets.put(tranHash, set);
+        abort(victims);
+        if (converted)
+            return true;
+
+        boolean interrupted = false;
+        try {
+            stripe.latch.lock();
+            try {
+                while (!request.isGranted && !request.isAborted) {
+                    // wounded before it was waiting, see abort()
+                    if (graph == null && doomed.contains(tid)) {
+                        request.isAborted = true;
+                        break;
+                    }
+                    try {
+                        request.granted.await();
+                    } catch (InterruptedException e) {
+                        interrupted = true;
+                    }
+                }
+                if (!request.isGranted)
+                    throw new TransactionAbortedException();
+            } finally {
+                stripe.latch.unlock();
+            }
+        } finally {
+            victims = null;
+            waiting.remove(tid, request);
+            stripe.latch.lock();
+            try {
+                if (!request.isGranted) {
+                    Lock lock = stripe.locks.get(key);
+                    lock.waiters.remove(request);
+                    // waiters queued behind the request may go now
+                    victims = grantWaiters(lock, null);
+                    if (lock.isFree())
+                        stripe.locks.remove(key);
+                }
+                if (graph != null)
+                    graph.remove(tid);
+            } finally {
+                stripe.latch.unlock();
+            }
+            abort(victims);
+            if (interrupted)
+                Thread.currentThread().interrupt();
         }
         return true;
     }
 
-    public synchronized void releaseSharedLock(TransactionId tid, PageId pid) {
-        Set<Integer> set;
-        int tranHash = tid.hashCode();
-        int pageHash = pid.hashCode();
-        if (!sharedLockSets.containsKey(tranHash))
-            return;
-        set = sharedLockSets.get(tranHash);
-        if (!set.contains(pageHash))
-            return;
-        set.remove(pageHash);
-        if (set.isEmpty())
-            sharedLockSets.remove(tranHash);
+    private void grant(Lock lock, Request request) {
+        lock.hold(request.tid, request.mode);
+        Held h = held.computeIfAbsent(request.tid, t -> new Held());
+        if (h.modes.put(request.key, request.mode) == null) {
+            Integer table = tableOf(request.key);
+            if (table != null)
+                h.below.merge(table, 1, Integer::sum);
+        }
+        request.isGranted = true;
     }
 
-    public synchronized void releaseExclusiveLock(TransactionId tid, PageId pid) {
-        Set<Integer> set;
-        int tranHash = tid.hashCode();
-        int pageHash = pid.hashCode();
-        if (!exclusiveLockSets.containsKey(tranHash))
-            return;
-        set = exclusiveLockSets.get(tranHash);
-        if (!set.contains(pageHash))
-            return;
-        set.remove(pageHash);
-        if (set.isEmpty())
-            exclusiveLockSets.remove(tranHash);
+    /**
+     * Grants the lock to the waiters at the head of its queue that are
+     * compatible with the holders and wakes them.
+     *
+     * @return victims, with the transactions chosen to break deadlocks
+     * added; see {@link #updateWaiters(Lock, List)}
+     */
+    private List<TransactionId> grantWaiters(Lock lock, List<TransactionId> victims) {
+        while (!lock.waiters.isEmpty()) {
+            Request next = lock.waiters.peekFirst();
+            if (!lock.isCompatible(next))
+                break;
+            lock.waiters.pollFirst();
+            grant(lock, next);
+            if (graph != null)
+                graph.clearEdges(next.tid);
+            next.granted.signal();
+        }
+        return updateWaiters(lock, victims);
     }
 
-    public void releaseAll(TransactionId tid) {
-        int tranHash = tid.hashCode();
-        if (sharedLockSets.containsKey(tranHash)) {
-            for (int p : sharedLockSets.get(tranHash)) {
-                sharedLockSets.remove(p);
+    /**
+     * Applies the deadlock mode to the waiters of a lock after its holders
+     * or queue changed: brings their edges in the wait-for graph up to date,
+     * or aborts the transactions the ages of the waiters and of the
+     * transactions they wait for rule out.
+     *
+     * @return victims, with the transactions chosen to break or prevent
+     * deadlocks added; to be passed to {@link #abort(List)} once the latch
+     * is released
+     */
+    private List<TransactionId> updateWaiters(Lock lock, List<TransactionId> victims) {
+        for (Request request : lock.waiters) {
+            if (request.isAborted)
+                continue;
+            Set<TransactionId> blockers = blockers(lock, request);
+            switch (deadlockMode) {
+            case DETECTION:
+                List<TransactionId> chosen = graph.setEdges(request.tid, blockers);
+                if (chosen != null) {
+                    if (victims == null)
+                        victims = chosen;
+                    else
+                        victims.addAll(chosen);
+                }
+                break;
+            case WAIT_DIE:
+                for (TransactionId blocker : blockers) {
+                    if (blocker.getId() < request.tid.getId()) {
+                        doomed.add(request.tid);
+                        request.isAborted = true;
+                        request.granted.signal();
+                        break;
+                    }
+                }
+                break;
+            case WOUND_WAIT:
+                for (TransactionId blocker : blockers) {
+                    if (request.tid.getId() < blocker.getId() && doomed.add(blocker)) {
+                        if (victims == null)
+                            victims = new ArrayList<>();
+                        victims.add(blocker);
+                    }
+                }
+                break;
             }
-            sharedLockSets.remove(tranHash);
         }
-        if (exclusiveLockSets.containsKey(tranHash)) {
-            for (int p : exclusiveLockSets.get(tranHash)) {
-                exclusiveLockSets.remove(p);
+        return victims;
+    }
+
+    /**
+     * @return the transactions a waiting request waits for: the holders it
+     * conflicts with and the conflicting requests queued before it
+     */
+    private static Set<TransactionId> blockers(Lock lock, Request request) {
+        Set<TransactionId> blockers = new HashSet<>();
+        for (Map.Entry<TransactionId, LockMode> h : lock.holders.entrySet()) {
+            if (!h.getKey().equals(request.tid) && !request.mode.isCompatible(h.getValue()))
+                blockers.add(h.getKey());
+        }
+        for (Request ahead : lock.waiters) {
+            if (ahead == request)
+                break;
+            if (!ahead.tid.equals(request.tid) && !request.mode.isCompatible(ahead.mode))
+                blockers.add(ahead.tid);
+        }
+        return blockers;
+    }
+
+    private TransactionId chooseVictim(List<TransactionId> cycle) {
+        TransactionId victim = cycle.get(0);
+        if (victimPolicy == VictimPolicy.REQUESTER)
+            return victim;
+        for (TransactionId tid : cycle) {
+            if (victimPolicy == VictimPolicy.LEAST_WORK) {
+                int work = numHeld(tid);
+                int least = numHeld(victim);
+                if (work != least) {
+                    if (work < least)
+                        victim = tid;
+                    continue;
+                }
             }
-            exclusiveLockSets.remove(tranHash);
+            if (tid.getId() > victim.getId())
+                victim = tid;
         }
+        return victim;
+    }
+
+    private int numHeld(TransactionId tid) {
+        Held h = held.get(tid);
+        return h == null ? 0 : h.modes.size();
     }
 
-    public synchronized void upgrade(TransactionId tid, PageId pid) {
-        Set<Integer> set;
-        int tranHash = tid.hashCode();
-        int pageHash = pid.hashCode();
-        sharedLockSets.get(tranHash).remove(pageHash);
-        if (exclusiveLockSets.containsKey(tranHash)) {
-            set = exclusiveLockSets.get(tranHash);
-            set.add(pageHash);
-        } else {
-            set = new HashSet<>();
-            set.add(pageHash);
-            exclusiveLockSets.put(tranHash, set);
+    /**
+     * Wakes up the victims of deadlocks that are still waiting, making
+     * their requests throw TransactionAbortedException. Wounded victims
+     * that are not waiting find out when they next request a lock.
+     */
+    private void abort(List<TransactionId> victims) {
+        if (victims == null)
+            return;
+        for (TransactionId victim : victims) {
+            Request request = waiting.get(victim);
+            if (request == null)
+                continue;
+            Stripe stripe = stripeOf(request.key);
+            stripe.latch.lock();
+            try {
+                if (!request.isGranted && (graph == null ? doomed.contains(victim) : graph.isVictim(victim))) {
+                    request.isAborted = true;
+                    request.granted.signal();
+                }
+            } finally {
+                stripe.latch.unlock();
+            }
         }
     }
 
-    public synchronized boolean isLocked(TransactionId tid, PageId pid) {
-        boolean lockedBySharedLock = false, lockedByExclusiveLock = false;
-        if (sharedLockSets.containsKey(tid.hashCode()))
-            lockedBySharedLock = sharedLockSets.get(tid.hashCode()).contains(pid.hashCode());
-        if (exclusiveLockSets.containsKey(tid.hashCode()))
-            lockedByExclusiveLock = exclusiveLockSets.get(tid.hashCode()).contains(pid.hashCode());
-        return lockedBySharedLock || lockedByExclusiveLock;
+    /**
+     * Releases the lock tid holds on pid if it is a shared one.
+     */
+    public void releaseSharedLock(TransactionId tid, PageId pid) {
+        LockMode mode = modeOf(tid, pid.pageKey());
+        if (mode != null && LockMode.S.covers(mode))
+            release(tid, pid.pageKey());
+    }
+
+    /**
+     * Releases the lock tid holds on pid if it is an exclusive one.
+     */
+    public void releaseExclusiveLock(TransactionId tid, PageId pid) {
+        LockMode mode = modeOf(tid, pid.pageKey());
+        if (mode != null && !LockMode.S.covers(mode))
+            release(tid, pid.pageKey());
     }
 
-    public synchronized boolean isLocked(PageId pid) {
-        for (Set<Integer> set : sharedLockSets.values()) {
-            if (set.contains(pid.hashCode()))
-                return true;
+    private void release(TransactionId tid, Object key) {
+        Stripe stripe = stripeOf(key);
+        List<TransactionId> victims;
+        stripe.latch.lock();
+        try {
+            Lock lock = stripe.locks.get(key);
+            if (lock == null || !lock.holders.containsKey(tid))
+                return;
+            lock.unhold(tid);
+            unindex(tid, key);
+            victims = grantWaiters(lock, null);
+            if (lock.isFree())
+                stripe.locks.remove(key);
+        } finally {
+            stripe.latch.unlock();
         }
-        for (Set<Integer> set : exclusiveLockSets.values()) {
-            if (set.contains(pid.hashCode()))
-                return true;
+        abort(victims);
+    }
+
+    private void unindex(TransactionId tid, Object key) {
+        Held h = held.get(tid);
+        if (h == null || h.modes.remove(key) == null)
+            return;
+        Integer table = tableOf(key);
+        if (table != null)
+            h.below.computeIfPresent(table, (t, n) -> n == 1 ? null : n - 1);
+    }
+
+    /**
+     * Releases every lock tid holds.
+     */
+    public void releaseAll(TransactionId tid) {
+        Held h = held.remove(tid);
+        List<TransactionId> victims = null;
+        for (Object key : h == null ? Set.of() : h.modes.keySet()) {
+            Stripe stripe = stripeOf(key);
+            stripe.latch.lock();
+            try {
+                Lock lock = stripe.locks.get(key);
+                if (lock == null)
+                    continue;
+                lock.unhold(tid);
+                victims = grantWaiters(lock, victims);
+                if (lock.isFree())
+                    stripe.locks.remove(key);
+            } finally {
+                stripe.latch.unlock();
+            }
         }
-        return false;
+        // only now, since tid may be wounded until its last lock is released
+        if (graph != null)
+            graph.remove(tid);
+        else
+            doomed.remove(tid);
+        abort(victims);
     }
 
-    public synchronized void release(PageId pid) {
-        for (Set<Integer> set : sharedLockSets.values()) {
-            set.remove(pid.hashCode());
+    /**
+     * @return true if tid holds a lock on pid, or on its table in a mode
+     * that covers reading it
+     */
+    public boolean isLocked(TransactionId tid, PageId pid) {
+        Held h = held.get(tid);
+        if (h == null)
+            return false;
+        if (h.modes.containsKey(pid.pageKey()))
+            return true;
+        LockMode table = h.modes.get(pid.getTableId());
+        return table != null && table.coversChildren(LockMode.S);
+    }
+
+    /**
+     * @return true if any transaction holds a lock on pid, or on its table
+     * in a mode that covers reading it
+     */
+    public boolean isLocked(PageId pid) {
+        return isHeld(pid.pageKey(), LockMode.MODES) || isHeld(pid.getTableId(), LockMode.S, LockMode.SIX, LockMode.X);
+    }
+
+    private boolean isHeld(Object key, LockMode... modes) {
+        Stripe stripe = stripeOf(key);
+        stripe.latch.lock();
+        try {
+            Lock lock = stripe.locks.get(key);
+            if (lock == null)
+                return false;
+            for (LockMode m : modes) {
+                if (lock.counts[m.ordinal()] > 0)
+                    return true;
+            }
+            return false;
+        } finally {
+            stripe.latch.unlock();
         }
-        for (Set<Integer> set : exclusiveLockSets.values()) {
-            set.remove(pid.hashCode());
+    }
+
+    /**
+     * Releases every lock held on pid.
+     */
+    public void release(PageId pid) {
+        Object key = pid.pageKey();
+        Stripe stripe = stripeOf(key);
+        List<TransactionId> victims;
+        stripe.latch.lock();
+        try {
+            Lock lock = stripe.locks.get(key);
+            if (lock == null)
+                return;
+            for (TransactionId tid : new HashSet<>(lock.holders.keySet())) {
+                lock.unhold(tid);
+                unindex(tid, key);
+            }
+            victims = grantWaiters(lock, null);
+            if (lock.isFree())
+                stripe.locks.remove(key);
+        } finally {
+            stripe.latch.unlock();
         }
+        abort(victims);
     }
 }
@@ -29,6 +29,16 @@ public class Transaction {
         }
     }
 
+    /**
+     * Start the transaction running as a read-only snapshot, which sees the
+     * heap files as the transactions committed so far left them and never
+     * waits for their locks
+     */
+    public void startSnapshot() {
+        start();
+        Database.getBufferPool().beginSnapshot(tid);
+    }
+
     public TransactionId getId() {
         return tid;
     }
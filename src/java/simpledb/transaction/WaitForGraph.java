@@ -0,0 +1,120 @@
+package simpledb.transaction;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+
+/**
+ * WaitForGraph has an edge from every waiting transaction to each
+ * transaction it waits for. The edges of a waiter are replaced whenever the
+ * lock it waits for changes hands and dropped once it stops waiting, so the
+ * graph is never rebuilt. Since the graph had no cycle before, a cycle can
+ * only go through an edge that was just added, and only the transactions
+ * reachable from such an edge are searched.
+ * <p>
+ * When a cycle is found, the victim chosen from it loses its edges, which
+ * breaks the cycle, and is ignored until it stops waiting, so a deadlock
+ * costs exactly one transaction.
+ *
+ * @Threadsafe
+ */
+class WaitForGraph {
+
+    // waiter -> the transactions it waits for; only non-empty sets
+    private final Map<TransactionId, Set<TransactionId>> edges = new HashMap<>();
+    private final Set<TransactionId> victims = new HashSet<>();
+    private final Function<List<TransactionId>, TransactionId> chooseVictim;
+
+    /**
+     * @param chooseVictim picks the transaction to abort from the members of
+     *                     a cycle, the first of which closed it
+     */
+    WaitForGraph(Function<List<TransactionId>, TransactionId> chooseVictim) {
+        this.chooseVictim = chooseVictim;
+    }
+
+    /**
+     * Replaces the edges of waiter.
+     *
+     * @return the victims chosen to break the cycles the new edges close,
+     * or null if there are none
+     */
+    synchronized List<TransactionId> setEdges(TransactionId waiter, Set<TransactionId> waitsFor) {
+        if (victims.contains(waiter))
+            return null;
+        Set<TransactionId> old = waitsFor.isEmpty() ? edges.remove(waiter) : edges.put(waiter, waitsFor);
+        List<TransactionId> chosen = null;
+        for (TransactionId to : waitsFor) {
+            if (old != null && old.contains(to))
+                continue;
+            // the edge may close several cycles; each victim breaks at least one
+            List<TransactionId> cycle;
+            while (!victims.contains(waiter) && (cycle = path(to, waiter)) != null) {
+                cycle.add(0, waiter);
+                TransactionId victim = chooseVictim.apply(cycle);
+                edges.remove(victim);
+                victims.add(victim);
+                if (chosen == null)
+                    chosen = new LinkedList<>();
+                chosen.add(victim);
+            }
+            if (victims.contains(waiter))
+                break;
+        }
+        return chosen;
+    }
+
+    /**
+     * @return the transactions on a path from one transaction to another,
+     * starting with from and without to, or null if there is none
+     */
+    private List<TransactionId> path(TransactionId from, TransactionId to) {
+        Map<TransactionId, TransactionId> parent = new HashMap<>();
+        ArrayDeque<TransactionId> stack = new ArrayDeque<>();
+        parent.put(from, null);
+        stack.push(from);
+        while (!stack.isEmpty()) {
+            TransactionId t = stack.pop();
+            Set<TransactionId> next = edges.get(t);
+            if (next == null)
+                continue;
+            for (TransactionId n : next) {
+                if (n.equals(to)) {
+                    LinkedList<TransactionId> path = new LinkedList<>();
+                    for (TransactionId p = t; p != null; p = parent.get(p))
+                        path.addFirst(p);
+                    return path;
+                }
+                if (!parent.containsKey(n)) {
+                    parent.put(n, t);
+                    stack.push(n);
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Drops the edges of a transaction that got the lock it waited for.
+     */
+    synchronized void clearEdges(TransactionId tid) {
+        edges.remove(tid);
+    }
+
+    /**
+     * Forgets a transaction that stopped waiting or ended.
+     */
+    synchronized void remove(TransactionId tid) {
+        edges.remove(tid);
+        victims.remove(tid);
+    }
+
+    synchronized boolean isVictim(TransactionId tid) {
+        return victims.contains(tid);
+    }
+}
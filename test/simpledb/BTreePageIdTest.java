@@ -69,6 +69,17 @@ public class BTreePageIdTest extends SimpleDbTestBase {
 		assertEquals(code4, headerId.hashCode());
 	}
 
+	/**
+	 * Unit test for BTreePageId.pageKey()
+	 */
+	@Test public void pageKey() {
+		BTreePageId leaf = new BTreePageId(1, 1, BTreePageId.LEAF);
+		assertEquals(leaf.pageKey(), new BTreePageId(1, 1, BTreePageId.LEAF).pageKey());
+		assertNotEquals(leaf.pageKey(), new BTreePageId(1, 1, BTreePageId.INTERNAL).pageKey());
+		assertNotEquals(leaf.pageKey(), new BTreePageId(1, 2, BTreePageId.LEAF).pageKey());
+		assertNotEquals(leaf.pageKey(), new BTreePageId(2, 1, BTreePageId.LEAF).pageKey());
+	}
+
 	/**
 	 * Unit test for BTreePageId.equals()
 	 */
@@ -0,0 +1,92 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Permissions;
+import simpledb.storage.BufferPool;
+import simpledb.storage.ClockReplacer;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.TwoQueueReplacer;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import static org.junit.Assert.*;
+
+public class BufferPoolShardTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // 40 pages of two int columns
+        hf = SystemTestUtil.createRandomHeapFile(2, 40 * 504, null, null);
+    }
+
+    private int countCached(BufferPool bp) {
+        int cached = 0;
+        for (int i = 0; i < hf.numPages(); i++) {
+            if (bp.isCached(new HeapPageId(hf.getId(), i)))
+                cached++;
+        }
+        return cached;
+    }
+
+    /**
+     * Unit test for BufferPool(int): small pools are not split.
+     */
+    @Test public void defaultShards() {
+        assertEquals(1, new BufferPool(BufferPool.DEFAULT_PAGES).getNumShards());
+        assertEquals(1, new BufferPool(2 * BufferPool.MIN_SHARD_PAGES - 1).getNumShards());
+        BufferPool bp = new BufferPool(1 << 14);
+        assertTrue(bp.getNumShards() >= 1);
+        assertEquals(1, Integer.bitCount(bp.getNumShards()));
+    }
+
+    /**
+     * Unit test for BufferPool(int, int, IntFunction): the shard count must
+     * be a power of two no larger than the pool.
+     */
+    @Test public void invalidShards() {
+        for (int shards : new int[]{0, 3, 16}) {
+            try {
+                new BufferPool(8, shards, TwoQueueReplacer::new);
+                fail("expected " + shards + " shards to be rejected");
+            } catch (IllegalArgumentException expected) {
+            }
+        }
+    }
+
+    /**
+     * Unit test for BufferPool.getPage() on a sharded pool: reading a table
+     * larger than the pool never caches more pages than the pool holds, and
+     * every page read last is still cached while the pool has room.
+     */
+    @Test public void capacity() throws Exception {
+        BufferPool bp = new BufferPool(16, 4, ClockReplacer::new);
+        TransactionId tid = new TransactionId();
+        for (int i = 0; i < hf.numPages(); i++) {
+            bp.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+            assertTrue(bp.isCached(new HeapPageId(hf.getId(), i)));
+            assertTrue(countCached(bp) <= 16);
+        }
+        bp.transactionComplete(tid);
+
+        BufferPool large = new BufferPool(64, 4, ClockReplacer::new);
+        for (int i = 0; i < hf.numPages(); i++)
+            large.getPage(tid, new HeapPageId(hf.getId(), i), Permissions.READ_ONLY);
+        assertEquals(hf.numPages(), countCached(large));
+        large.transactionComplete(tid);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(BufferPoolShardTest.class);
+    }
+}
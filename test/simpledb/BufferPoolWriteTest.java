@@ -6,6 +6,7 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.List;
+import java.util.concurrent.CountDownLatch;
 
 import org.junit.After;
 import org.junit.Before;
@@ -19,6 +20,7 @@ import simpledb.storage.*;
 import simpledb.systemtest.SystemTestUtil;
 import static org.junit.Assert.*;
 import junit.framework.JUnit4TestAdapter;
+import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
@@ -140,6 +142,219 @@ public class BufferPoolWriteTest extends TestUtil.CreateHeapFile {
     	assertEquals(10, count);
     }
 
+    /**
+     * Unit test for BufferPool.insertTuple() dirtying more pages than the
+     * buffer pool holds, then aborting
+     */
+    @Test public void stealDirtyPages() throws Exception {
+    	HeapFileDuplicates hfd = new HeapFileDuplicates(empty.getFile(), empty.getTupleDesc(), 10);
+    	Database.getCatalog().addTable(hfd, SystemTestUtil.getUUID());
+    	BufferPool bp = Database.resetBufferPool(3);
+    	bp.insertTuple(tid, hfd.getId(), Utility.getHeapTuple(1, 2));
+    	assertEquals(10, countTuples(hfd, tid));
+
+    	// the pages written out to make room must be rolled back on disk too
+    	bp.transactionComplete(tid, false);
+    	tid = new TransactionId();
+    	assertEquals(0, countTuples(hfd, tid));
+    }
+
+    /**
+     * Unit test for BufferPool.transactionComplete() leaving committed pages
+     * to the background writer
+     */
+    @Test public void writeBehind() throws Exception {
+    	BufferPool bp = Database.getBufferPool();
+    	bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(1, 2));
+    	bp.transactionComplete(tid, true);
+    	tid = new TransactionId();
+
+    	long deadline = System.currentTimeMillis() + 5000;
+    	while (bp.getNumUnwritten() > 0 && System.currentTimeMillis() < deadline)
+    		Thread.sleep(10);
+    	assertEquals(0, bp.getNumUnwritten());
+    	HeapPage p = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), 0));
+    	assertEquals(504 - 1, p.getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for BufferPool.transactionComplete() on a page the
+     * transaction fetched for writing and dirtied itself, rather than
+     * through insertTuple or deleteTuple
+     */
+    @Test public void completeFetchedPage() throws Exception {
+    	BufferPool bp = Database.getBufferPool();
+    	bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(1, 2));
+    	bp.transactionComplete(tid, true);
+    	HeapPageId pid = new HeapPageId(empty.getId(), 0);
+
+    	tid = new TransactionId();
+    	HeapPage p = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+    	p.insertTuple(Utility.getHeapTuple(2, 2));
+    	p.markDirty(true, tid);
+    	bp.transactionComplete(tid, false);
+    	tid = new TransactionId();
+    	p = (HeapPage) bp.getPage(tid, pid, Permissions.READ_WRITE);
+    	assertEquals(504 - 1, p.getNumEmptySlots());
+
+    	p.insertTuple(Utility.getHeapTuple(3, 2));
+    	p.markDirty(true, tid);
+    	bp.transactionComplete(tid, true);
+    	tid = new TransactionId();
+    	p = (HeapPage) bp.getPage(tid, pid, Permissions.READ_ONLY);
+    	assertNull(p.isDirty());
+    	assertEquals(504 - 2, p.getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for LogFile.logCheckpoint() while another thread waits for a
+     * page lock in the middle of a delete, and the holder of the lock commits
+     */
+    @Test public void checkpointDuringDelete() throws Exception {
+    	BufferPool bp = Database.getBufferPool();
+    	Tuple t = Utility.getHeapTuple(1, 2);
+    	bp.insertTuple(tid, empty.getId(), t);
+    	bp.transactionComplete(tid, true);
+
+    	// tid dirties a page and locks the page of t
+    	tid = new TransactionId();
+    	bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(2, 2));
+    	bp.getPage(tid, t.getRecordId().getPageId(), Permissions.READ_WRITE);
+    	TransactionId deleter = new TransactionId();
+    	Thread delete = start(() -> bp.deleteTuple(deleter, t));
+    	Thread.sleep(100);
+    	Thread checkpoint = start(() -> Database.getLogFile().logCheckpoint());
+    	Thread.sleep(100);
+    	TransactionId committer = tid;
+    	Thread commit = start(() -> bp.transactionComplete(committer, true));
+    	tid = new TransactionId();
+
+    	for (Thread thread : new Thread[]{delete, checkpoint, commit}) {
+    		thread.join(10000);
+    		assertFalse(thread.getName(), thread.isAlive());
+    	}
+    	bp.transactionComplete(deleter, true);
+    }
+
+    /**
+     * Unit test for LogFile.logCheckpoint() waiting for another thread to
+     * finish modifying a page before it writes the pages
+     */
+    @Test public void checkpointWaitsForDelete() throws Exception {
+    	BufferPool bp = Database.getBufferPool();
+    	Tuple t = Utility.getHeapTuple(1, 2);
+    	bp.insertTuple(tid, empty.getId(), t);
+    	bp.transactionComplete(tid, true);
+    	tid = new TransactionId();
+
+    	// a delete that stops after modifying the page
+    	CountDownLatch deleted = new CountDownLatch(1), resume = new CountDownLatch(1);
+    	HeapFile blocking = new HeapFile(empty.getFile(), empty.getTupleDesc()) {
+    		@Override
+    		public ArrayList<Page> deleteTuple(TransactionId tid, Tuple t)
+    				throws DbException, TransactionAbortedException {
+    			ArrayList<Page> pages = super.deleteTuple(tid, t);
+    			deleted.countDown();
+    			try {
+    				resume.await();
+    			} catch (InterruptedException ignored) {
+    			}
+    			return pages;
+    		}
+    	};
+    	Database.getCatalog().addTable(blocking, SystemTestUtil.getUUID());
+    	TransactionId deleter = new TransactionId();
+    	Thread delete = start(() -> bp.deleteTuple(deleter, t));
+    	deleted.await();
+
+    	Thread checkpoint = start(() -> Database.getLogFile().logCheckpoint());
+    	checkpoint.join(200);
+    	boolean waited = checkpoint.isAlive();
+    	resume.countDown();
+    	assertTrue(waited);
+    	for (Thread thread : new Thread[]{delete, checkpoint}) {
+    		thread.join(10000);
+    		assertFalse(thread.getName(), thread.isAlive());
+    	}
+    	assertEquals(0, bp.getNumUnwritten());
+
+    	// the checkpoint wrote the delete; aborting it writes the tuple back
+    	bp.transactionComplete(deleter, false);
+    	HeapPage p = (HeapPage) empty.readPage(t.getRecordId().getPageId());
+    	assertEquals(504 - 1, p.getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for the background writer writing committed pages without
+     * holding the pool's monitor, so that other transactions may commit
+     * meanwhile
+     */
+    @Test public void writeBehindOutsideMonitor() throws Exception {
+    	CountDownLatch writing = new CountDownLatch(1), resume = new CountDownLatch(1);
+    	HeapFile blocking = new HeapFile(empty.getFile(), empty.getTupleDesc()) {
+    		@Override
+    		public void writePage(Page page) throws IOException {
+    			if (Thread.currentThread().getName().equals("simpledb-pagewriter")) {
+    				writing.countDown();
+    				try {
+    					resume.await();
+    				} catch (InterruptedException ignored) {
+    				}
+    			}
+    			super.writePage(page);
+    		}
+    	};
+    	Database.getCatalog().addTable(blocking, SystemTestUtil.getUUID());
+    	BufferPool bp = Database.getBufferPool();
+    	bp.insertTuple(tid, blocking.getId(), Utility.getHeapTuple(1, 2));
+    	bp.transactionComplete(tid, true);
+    	tid = new TransactionId();
+    	writing.await();
+
+    	TransactionId other = new TransactionId();
+    	Thread commit = start(() -> bp.transactionComplete(other, true));
+    	commit.join(10000);
+    	boolean committed = !commit.isAlive();
+    	resume.countDown();
+    	assertTrue(committed);
+
+    	long deadline = System.currentTimeMillis() + 5000;
+    	while (bp.getNumUnwritten() > 0 && System.currentTimeMillis() < deadline)
+    		Thread.sleep(10);
+    	assertEquals(0, bp.getNumUnwritten());
+    	HeapPage p = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), 0));
+    	assertEquals(504 - 1, p.getNumEmptySlots());
+    }
+
+    private interface Action {
+    	void run() throws Exception;
+    }
+
+    private static Thread start(Action action) {
+    	Thread thread = new Thread(() -> {
+    		try {
+    			action.run();
+    		} catch (Exception e) {
+    			e.printStackTrace();
+    		}
+    	});
+    	thread.setDaemon(true);
+    	thread.start();
+    	return thread;
+    }
+
+    private static int countTuples(DbFile f, TransactionId tid) throws Exception {
+    	DbFileIterator it = f.iterator(tid);
+    	it.open();
+    	int count = 0;
+    	while (it.hasNext()) {
+    		it.next();
+    		count++;
+    	}
+    	it.close();
+    	return count;
+    }
+
     /**
      * JUnit suite target
      */
@@ -1,7 +1,12 @@
 package simpledb;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
 import java.util.NoSuchElementException;
 import java.util.Random;
 
@@ -13,8 +18,11 @@ import org.junit.Test;
 
 import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.Database;
+import simpledb.common.Type;
 import simpledb.common.Utility;
 import simpledb.storage.DbFile;
+import simpledb.storage.HeapFile;
+import simpledb.storage.PageLayout;
 import simpledb.storage.TupleDesc;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -97,6 +105,37 @@ public class CatalogTest extends SimpleDbTestBase {
     	assertEquals(f, Database.getCatalog().getDatabaseFile(id2));
     }
 
+    /**
+     * Unit test for Catalog.loadSchema() with the layouts of tables
+     */
+    @Test public void loadSchemaLayouts() throws Exception {
+        File schema = File.createTempFile("catalog", ".txt");
+        schema.deleteOnExit();
+        String prefix = SystemTestUtil.getUUID();
+        try (Writer w = new FileWriter(schema)) {
+            w.write(prefix + "row (a int, b string)\n");
+            w.write(prefix + "pax (a int, b int) pax\n");
+            w.write(prefix + "slotted (a int pk, b varchar(10))\n");
+            w.write(prefix + "compressed (a int, b int) pax compressed\n");
+        }
+        Database.getCatalog().loadSchema(schema.getAbsolutePath());
+
+        HeapFile row = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(prefix + "row"));
+        HeapFile pax = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(prefix + "pax"));
+        int slottedId = Database.getCatalog().getTableId(prefix + "slotted");
+        HeapFile slotted = (HeapFile) Database.getCatalog().getDatabaseFile(slottedId);
+        assertEquals(PageLayout.ROW, row.getLayout());
+        assertEquals(PageLayout.PAX, pax.getLayout());
+        assertEquals(PageLayout.SLOTTED, slotted.getLayout());
+        assertEquals(Type.STRING_TYPE, slotted.getTupleDesc().getFieldType(1));
+        assertEquals(10, slotted.getTupleDesc().getMaxLength(1));
+        assertEquals("a", Database.getCatalog().getPrimaryKey(slottedId));
+        HeapFile compressed = (HeapFile) Database.getCatalog().getDatabaseFile(Database.getCatalog().getTableId(prefix + "compressed"));
+        assertEquals(PageLayout.PAX, compressed.getLayout());
+        assertTrue(compressed.isCompressed());
+        assertFalse(pax.isCompressed());
+    }
+
     /**
      * JUnit suite target
      */
@@ -3,10 +3,13 @@ package simpledb;
 import simpledb.TestUtil.LockGrabber;
 
 import java.util.*;
+import java.util.concurrent.atomic.AtomicReference;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
 import simpledb.common.Permissions;
@@ -14,6 +17,8 @@ import simpledb.common.Utility;
 import simpledb.storage.BufferPool;
 import simpledb.storage.HeapPageId;
 import simpledb.storage.PageId;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.TransactionAbortedException;
 import simpledb.transaction.TransactionId;
 
 public class DeadlockTest extends TestUtil.CreateHeapFile {
@@ -219,6 +224,133 @@ public class DeadlockTest extends TestUtil.CreateHeapFile {
     System.out.println("testUpgradeWriteDeadlock resolved deadlock");
   }
 
+  /**
+   * Starts a thread acquiring an exclusive lock from lm; the exception it
+   * fails with, if any, ends up in error.
+   */
+  private Thread startAcquire(LockManager lm, TransactionId tid, PageId pid,
+      AtomicReference<Exception> error) {
+    Thread t = new Thread(() -> {
+      try {
+        lm.acquireExclusiveLock(tid, pid);
+      } catch (Exception e) {
+        error.set(e);
+      }
+    });
+    t.start();
+    return t;
+  }
+
+  /**
+   * Deadlocks an older and a younger transaction, with the older one
+   * closing the cycle, and lets the other one finish once the victim has
+   * released its locks.
+   *
+   * @param oldWorksMore whether the older transaction holds one more lock
+   *                     than the younger one, or the other way around
+   * @return true if the older transaction was aborted
+   */
+  private boolean oldAborted(LockManager.VictimPolicy policy, boolean oldWorksMore)
+      throws Exception {
+    LockManager lm = new LockManager(policy);
+    TransactionId old = new TransactionId();
+    TransactionId young = new TransactionId();
+    PageId p2 = new HeapPageId(empty.getId(), 2);
+    lm.acquireExclusiveLock(old, p0);
+    lm.acquireExclusiveLock(young, p1);
+    lm.acquireExclusiveLock(oldWorksMore ? old : young, p2);
+
+    AtomicReference<Exception> youngError = new AtomicReference<>();
+    AtomicReference<Exception> oldError = new AtomicReference<>();
+    Thread youngWaits = startAcquire(lm, young, p0, youngError);
+    Thread.sleep(POLL_INTERVAL);
+    Thread oldWaits = startAcquire(lm, old, p1, oldError);
+
+    long deadline = System.currentTimeMillis() + WAIT_INTERVAL;
+    while (youngError.get() == null && oldError.get() == null
+        && System.currentTimeMillis() < deadline)
+      Thread.sleep(10);
+    TransactionId victim = youngError.get() != null ? young : old;
+    assertTrue(youngError.get() != null || oldError.get() != null);
+    assertFalse(youngError.get() != null && oldError.get() != null);
+
+    lm.releaseAll(victim);
+    youngWaits.join(WAIT_INTERVAL);
+    oldWaits.join(WAIT_INTERVAL);
+    assertFalse(youngWaits.isAlive() || oldWaits.isAlive());
+    assertTrue(lm.isLocked(victim == old ? young : old, victim == old ? p0 : p1));
+    return victim == old;
+  }
+
+  /**
+   * Unit test for LockManager.VictimPolicy: exactly one transaction of a
+   * deadlock is aborted, chosen by the policy rather than by which
+   * transaction closed the cycle.
+   */
+  @Test public void victimPolicy() throws Exception {
+    assertEquals(LockManager.VictimPolicy.YOUNGEST, new LockManager().getVictimPolicy());
+    assertTrue(oldAborted(LockManager.VictimPolicy.REQUESTER, true));
+    assertFalse(oldAborted(LockManager.VictimPolicy.YOUNGEST, false));
+    assertFalse(oldAborted(LockManager.VictimPolicy.LEAST_WORK, true));
+    assertTrue(oldAborted(LockManager.VictimPolicy.LEAST_WORK, false));
+  }
+
+  /**
+   * Unit test for LockManager.DeadlockMode.WAIT_DIE: a transaction waits
+   * for younger ones only and is aborted rather than wait for an older one.
+   */
+  @Test public void waitDie() throws Exception {
+    LockManager lm = new LockManager(LockManager.DeadlockMode.WAIT_DIE);
+    TransactionId old = new TransactionId();
+    TransactionId young = new TransactionId();
+    lm.acquireExclusiveLock(old, p0);
+    lm.acquireExclusiveLock(young, p1);
+
+    AtomicReference<Exception> error = new AtomicReference<>();
+    Thread youngWaits = startAcquire(lm, young, p0, error);
+    youngWaits.join(WAIT_INTERVAL);
+    assertFalse(youngWaits.isAlive());
+    assertTrue(error.get() instanceof TransactionAbortedException);
+    lm.releaseAll(young);
+
+    lm.acquireExclusiveLock(young = new TransactionId(), p1);
+    error.set(null);
+    Thread oldWaits = startAcquire(lm, old, p1, error);
+    oldWaits.join(POLL_INTERVAL);
+    assertTrue(oldWaits.isAlive());
+    lm.releaseAll(young);
+    oldWaits.join(WAIT_INTERVAL);
+    assertNull(error.get());
+    assertTrue(lm.isLocked(old, p1));
+  }
+
+  /**
+   * Unit test for LockManager.DeadlockMode.WOUND_WAIT: a transaction waits
+   * for older ones only and aborts a younger one it would wait for, which
+   * fails its next request.
+   */
+  @Test public void woundWait() throws Exception {
+    LockManager lm = new LockManager(LockManager.DeadlockMode.WOUND_WAIT);
+    TransactionId old = new TransactionId();
+    TransactionId young = new TransactionId();
+    lm.acquireExclusiveLock(old, p0);
+    lm.acquireExclusiveLock(young, p1);
+
+    AtomicReference<Exception> error = new AtomicReference<>();
+    Thread youngWaits = startAcquire(lm, young, p0, error);
+    youngWaits.join(POLL_INTERVAL);
+    assertTrue(youngWaits.isAlive());
+
+    Thread oldWaits = startAcquire(lm, old, p1, error);
+    youngWaits.join(WAIT_INTERVAL);
+    assertFalse(youngWaits.isAlive());
+    assertTrue(error.get() instanceof TransactionAbortedException);
+    assertTrue(oldWaits.isAlive());
+    lm.releaseAll(young);
+    oldWaits.join(WAIT_INTERVAL);
+    assertTrue(lm.isLocked(old, p1));
+  }
+
   /**
    * JUnit suite target
    */
@@ -0,0 +1,88 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.storage.FileChannelPool;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+
+import static org.junit.Assert.*;
+
+public class FileChannelPoolTest extends SimpleDbTestBase {
+
+    private FileChannelPool pool;
+
+    @Before public void createPool() {
+        pool = new FileChannelPool(2);
+    }
+
+    /**
+     * Unit test for FileChannelPool.write() and FileChannelPool.read()
+     */
+    @Test public void readWrite() throws Exception {
+        File f = TestUtil.createTempFile(".dat");
+        pool.write(1, f, ByteBuffer.wrap(new byte[]{1, 2, 3, 4}), 8);
+        assertEquals(12, f.length());
+
+        ByteBuffer buf = ByteBuffer.allocate(4);
+        assertEquals(4, pool.read(1, f, buf, 8));
+        assertArrayEquals(new byte[]{1, 2, 3, 4}, buf.array());
+
+        // reads stop at the end of the file
+        buf = ByteBuffer.allocate(8);
+        assertEquals(2, pool.read(1, f, buf, 10));
+    }
+
+    /**
+     * Unit test for FileChannelPool.append()
+     */
+    @Test public void append() throws Exception {
+        File f = TestUtil.createTempFile(".dat");
+        assertEquals(0, pool.append(1, f, ByteBuffer.wrap(new byte[4])));
+        assertEquals(4, pool.append(1, f, ByteBuffer.wrap(new byte[4])));
+        assertEquals(8, f.length());
+    }
+
+    /**
+     * The pool must never keep more idle channels open than its bound.
+     */
+    @Test public void bounded() throws Exception {
+        File[] files = new File[]{TestUtil.createTempFile(".dat"), TestUtil.createTempFile(".dat"), TestUtil.createTempFile(".dat")};
+        for (int i = 0; i < files.length; i++) {
+            pool.write(i, files[i], ByteBuffer.wrap(new byte[]{(byte) i}), 0);
+        }
+        assertEquals(2, pool.getNumOpen());
+
+        // an evicted channel is transparently reopened
+        ByteBuffer buf = ByteBuffer.allocate(1);
+        assertEquals(1, pool.read(0, files[0], buf, 0));
+        assertEquals(0, buf.get(0));
+        assertEquals(2, pool.getNumOpen());
+    }
+
+    /**
+     * Unit test for FileChannelPool.closeAll()
+     */
+    @Test public void closeAll() throws Exception {
+        File f = TestUtil.createTempFile(".dat");
+        pool.write(1, f, ByteBuffer.wrap(new byte[]{7}), 0);
+        pool.closeAll();
+        assertEquals(0, pool.getNumOpen());
+
+        ByteBuffer buf = ByteBuffer.allocate(1);
+        assertEquals(1, pool.read(1, f, buf, 0));
+        assertEquals(7, buf.get(0));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(FileChannelPoolTest.class);
+    }
+}
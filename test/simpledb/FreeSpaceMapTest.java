@@ -0,0 +1,123 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+
+public class FreeSpaceMapTest extends TestUtil.CreateHeapFile {
+  private PageId p0, p1, p2;
+
+  // just so we have a pointer shorter than Database.getBufferPool()
+  private BufferPool bp;
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+    // three pages, the last one with empty slots
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 1025; ++i)
+      bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+    bp.transactionComplete(tid, true);
+    bp.flushAllPages();
+    assertEquals(3, empty.numPages());
+
+    this.p0 = new HeapPageId(empty.getId(), 0);
+    this.p1 = new HeapPageId(empty.getId(), 1);
+    this.p2 = new HeapPageId(empty.getId(), 2);
+
+    // start over with the file as it is on disk
+    empty = Utility.openHeapFile(2, empty.getFile());
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+  }
+
+  /**
+   * Unit test for HeapFile.insertTuple().
+   * An insert goes to the page with empty slots without reading the full
+   * pages before it, using the map kept next to the file.
+   */
+  @Test public void insertSkipsFullPages() throws Exception {
+    assertTrue(new File(empty.getFile().getPath() + ".fsm").exists());
+    TransactionId tid = new TransactionId();
+    bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(1025, 2));
+    assertTrue(bp.isCached(p2));
+    assertFalse(bp.isCached(p0));
+    assertFalse(bp.isCached(p1));
+    bp.transactionComplete(tid, true);
+  }
+
+  /**
+   * Unit test for HeapFile.deleteTuple().
+   * The slot a delete frees is the first an insert fills.
+   */
+  @Test public void insertReusesDeletedSlot() throws Exception {
+    TransactionId tid = new TransactionId();
+    Tuple t = ((HeapPage) bp.getPage(tid, p0, Permissions.READ_ONLY)).iterator().next();
+    bp.deleteTuple(tid, t);
+    bp.transactionComplete(tid, true);
+
+    tid = new TransactionId();
+    bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(1025, 2));
+    assertEquals(0, ((HeapPage) bp.getPage(tid, p0, Permissions.READ_ONLY)).getNumEmptySlots());
+    assertFalse(bp.isCached(p1));
+    bp.transactionComplete(tid, true);
+  }
+
+  /**
+   * Unit test for HeapFile.insertTuple().
+   * The room an aborted insert took is used again.
+   */
+  @Test public void abortFreesSpace() throws Exception {
+    TransactionId tid = new TransactionId();
+    int empties = ((HeapPage) bp.getPage(tid, p2, Permissions.READ_ONLY)).getNumEmptySlots();
+    for (int i = 0; i < empties; ++i)
+      bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+    bp.transactionComplete(tid, false);
+    assertEquals(3, empty.numPages());
+
+    tid = new TransactionId();
+    bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(1025, 2));
+    assertEquals(3, empty.numPages());
+    bp.transactionComplete(tid, true);
+  }
+
+  /**
+   * Unit test for HeapFile.dropFreeSpaceMap().
+   * Without its map a file is read once to rebuild it.
+   */
+  @Test public void rebuildMap() throws Exception {
+    HeapFile.dropFreeSpaceMap(empty.getFile());
+    empty = Utility.openHeapFile(2, empty.getFile());
+    TransactionId tid = new TransactionId();
+    bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(1025, 2));
+    assertTrue(new File(empty.getFile().getPath() + ".fsm").exists());
+    assertEquals(3, empty.numPages());
+    assertFalse(bp.isCached(p0));
+    bp.transactionComplete(tid, true);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(FreeSpaceMapTest.class);
+  }
+}
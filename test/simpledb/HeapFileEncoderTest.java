@@ -0,0 +1,77 @@
+package simpledb;
+
+import org.junit.Test;
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.Tuple;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.Iterator;
+
+public class HeapFileEncoderTest extends SimpleDbTestBase {
+  private static final Type[] TYPES = {Type.INT_TYPE, Type.INT_TYPE};
+
+  /**
+   * Unit test for HeapFileEncoder.convert() with several threads.
+   * The pages are the same as one thread builds, over many chunks.
+   */
+  @Test public void convertParallel() throws Exception {
+    File in = TestUtil.createTempFile(".txt");
+    try (Writer w = new FileWriter(in)) {
+      for (int i = 0; i < 100000; i++)
+        w.write(i + "," + -i + "\n");
+    }
+    File one = TestUtil.createTempFile(".dat");
+    File four = TestUtil.createTempFile(".dat");
+    assertEquals(100000, HeapFileEncoder.convert(in, one, BufferPool.getPageSize(), 2, TYPES, ',', 1));
+    assertEquals(100000, HeapFileEncoder.convert(in, four, BufferPool.getPageSize(), 2, TYPES, ',', 4));
+    assertArrayEquals(Files.readAllBytes(one.toPath()), Files.readAllBytes(four.toPath()));
+    assertEquals((100000 + 503) / 504 * BufferPool.getPageSize(), four.length());
+  }
+
+  /**
+   * Unit test for HeapFileEncoder.convert().
+   * Blank lines and carriage returns are skipped, and the last line needs
+   * no newline.
+   */
+  @Test public void convertLines() throws Exception {
+    File in = TestUtil.createTempFile(".txt");
+    try (Writer w = new FileWriter(in)) {
+      w.write("\n1, 2\r\n\r\n 3,4\n5,6");
+    }
+    File out = TestUtil.createTempFile(".dat");
+    assertEquals(3, HeapFileEncoder.convert(in, out, BufferPool.getPageSize(), 2, TYPES, ',', 2));
+
+    HeapFile hf = Utility.openHeapFile(2, out);
+    HeapPage page = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 0));
+    assertEquals(501, page.getNumEmptySlots());
+    Iterator<Tuple> it = page.iterator();
+    int i = 1;
+    while (it.hasNext()) {
+      Tuple t = it.next();
+      assertEquals(Utility.getHeapTuple(new int[]{i, i + 1}).getField(0), t.getField(0));
+      assertEquals(Utility.getHeapTuple(new int[]{i, i + 1}).getField(1), t.getField(1));
+      i += 2;
+    }
+    assertEquals(7, i);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(HeapFileEncoderTest.class);
+  }
+}
@@ -81,6 +81,38 @@ public class HeapFileReadTest extends SimpleDbTestBase {
         assertFalse(page.isSlotUsed(20));
     }
 
+    /**
+     * Unit test for HeapFile.readPage() when the file is memory mapped
+     */
+    @Test
+    public void readPageMemoryMapped() {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        HeapPage copied = (HeapPage) hf.readPage(pid);
+
+        Database.getCatalog().setMemoryMapped(hf.getId(), true);
+        assertTrue(hf.isMemoryMapped());
+        HeapPage mapped = (HeapPage) hf.readPage(pid);
+
+        assertEquals(484, mapped.getNumEmptySlots());
+        assertArrayEquals(copied.getPageData(), mapped.getPageData());
+    }
+
+    /**
+     * A page read through the memory mapping must not change when the file
+     * is written under it.
+     */
+    @Test
+    public void readPageMemoryMappedIsCopy() throws Exception {
+        HeapPageId pid = new HeapPageId(hf.getId(), 0);
+        Database.getCatalog().setMemoryMapped(hf.getId(), true);
+        HeapPage mapped = (HeapPage) hf.readPage(pid);
+        byte[] before = mapped.getPageData();
+
+        hf.writePage(new HeapPage(pid, HeapPage.createEmptyPageData()));
+        assertArrayEquals(before, mapped.getPageData());
+        assertEquals(484, mapped.getNumEmptySlots());
+    }
+
     @Test
     public void testIteratorBasic() throws Exception {
         HeapFile smallFile = SystemTestUtil.createRandomHeapFile(2, 3, null,
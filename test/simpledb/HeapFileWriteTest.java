@@ -12,7 +12,10 @@ import simpledb.storage.*;
 import simpledb.systemtest.SystemTestUtil;
 import simpledb.transaction.TransactionId;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Iterator;
+import java.util.List;
 
 public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
     private TransactionId tid;
@@ -50,6 +53,141 @@ public class HeapFileWriteTest extends TestUtil.CreateHeapFile {
         assertEquals(3, empty.numPages());
     }
 
+    /**
+     * Pages appended by insertTuple must be readable through the memory
+     * mapping of the file.
+     */
+    @Test public void addTupleMemoryMapped() throws Exception {
+        empty.setMemoryMapped(true);
+        for (int i = 0; i < 1009; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(3, empty.numPages());
+        Database.getBufferPool().flushAllPages();
+
+        HeapPage last = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), 2));
+        assertEquals(503, last.getNumEmptySlots());
+        Tuple t = last.iterator().next();
+        assertEquals(Utility.getHeapTuple(1008, 2).getField(0), t.getField(0));
+    }
+
+    /**
+     * Unit test for HeapFile.setFillFactor()
+     */
+    @Test public void addTupleFillFactor() throws Exception {
+        empty.setFillFactor(0.5);
+        // half of the 504 slots of a page are filled
+        for (int i = 0; i < 252; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+            assertEquals(1, empty.numPages());
+        }
+        empty.insertTuple(tid, Utility.getHeapTuple(252, 2));
+        assertEquals(2, empty.numPages());
+    }
+
+    /**
+     * Concurrent transactions insert into pages of their own, which others
+     * may fill once they end.
+     */
+    @Test public void addTupleInsertTargets() throws Exception {
+        TransactionId other = new TransactionId();
+        HeapPageId p0 = new HeapPageId(empty.getId(), 0);
+        HeapPageId p1 = new HeapPageId(empty.getId(), 1);
+        for (int i = 0; i < 10; ++i) {
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+            empty.insertTuple(other, Utility.getHeapTuple(i, 2));
+        }
+        assertEquals(2, empty.numPages());
+        assertTrue(Database.getBufferPool().holdsLock(tid, p0));
+        assertFalse(Database.getBufferPool().holdsLock(tid, p1));
+        assertTrue(Database.getBufferPool().holdsLock(other, p1));
+        Database.getBufferPool().transactionComplete(other);
+
+        // the page of the transaction that ended is filled up
+        for (int i = 0; i < 2 * 504 - 20; ++i)
+            empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+        assertEquals(2, empty.numPages());
+    }
+
+    private int count(TransactionId tid) throws Exception {
+        DbFileIterator it = empty.iterator(tid);
+        it.open();
+        int n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        return n;
+    }
+
+    private static Iterator<Tuple> tuples(int n) {
+        List<Tuple> tuples = new ArrayList<>();
+        for (int i = 0; i < n; ++i)
+            tuples.add(Utility.getHeapTuple(i, 2));
+        return tuples.iterator();
+    }
+
+    /**
+     * Unit test for HeapFile.bulkLoad()
+     */
+    @Test public void bulkLoad() throws Exception {
+        empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        assertEquals(1009, empty.bulkLoad(tid, tuples(1009)));
+        // the loaded tuples go on new, full pages
+        assertEquals(4, empty.numPages());
+        assertEquals(1010, count(tid));
+        Database.getBufferPool().transactionComplete(tid);
+
+        tid = new TransactionId();
+        assertEquals(1010, count(tid));
+        HeapPage last = (HeapPage) empty.readPage(new HeapPageId(empty.getId(), 3));
+        assertEquals(503, last.getNumEmptySlots());
+    }
+
+    /**
+     * Unit test for HeapFile.bulkLoad() in a transaction that aborts
+     */
+    @Test public void bulkLoadAbort() throws Exception {
+        empty.bulkLoad(tid, tuples(600));
+        Database.getBufferPool().transactionComplete(tid, false);
+
+        tid = new TransactionId();
+        assertEquals(0, count(tid));
+        // the emptied pages are used again
+        empty.insertTuple(tid, Utility.getHeapTuple(0, 2));
+        assertEquals(3, empty.numPages());
+    }
+
+    /**
+     * Unit test for HeapFile.bulkLoad() with a snapshot reader running
+     */
+    @Test public void bulkLoadSnapshot() throws Exception {
+        BufferPool bp = Database.getBufferPool();
+        TransactionId reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        empty.bulkLoad(tid, tuples(1000));
+        assertEquals(0, count(reader));
+        bp.transactionComplete(tid, false);
+        assertEquals(0, count(reader));
+        bp.transactionComplete(reader);
+
+        // a snapshot that began before the load commits does not see it
+        reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        tid = new TransactionId();
+        empty.bulkLoad(tid, tuples(1000));
+        bp.transactionComplete(tid);
+        assertEquals(0, count(reader));
+        bp.transactionComplete(reader);
+
+        reader = new TransactionId();
+        bp.beginSnapshot(reader);
+        assertEquals(1000, count(reader));
+        bp.transactionComplete(reader);
+        tid = new TransactionId();
+    }
+
     @Test
     public void testAlternateEmptyAndFullPagesThenIterate() throws Exception {
         // Create HeapFile/Table
@@ -51,6 +51,20 @@ public class HeapPageIdTest extends SimpleDbTestBase {
         assertEquals(code2, pid.hashCode());
     }
 
+    /**
+     * Unit test for HeapPageId.pageKey()
+     */
+    @Test public void pageKey() {
+        // these two collide in hashCode() but must not share a key
+        HeapPageId pid1 = new HeapPageId(1, 2);
+        HeapPageId pid2 = new HeapPageId(2, 1);
+        assertEquals(pid1.hashCode(), pid2.hashCode());
+        assertNotEquals(pid1.pageKey(), pid2.pageKey());
+
+        assertEquals(pid1.pageKey(), new HeapPageId(1, 2).pageKey());
+        assertNotEquals(new HeapPageId(-1, 0).pageKey(), new HeapPageId(0, -1).pageKey());
+    }
+
     /**
      * Unit test for HeapPageId.equals()
      */
@@ -3,6 +3,7 @@ package simpledb;
 import simpledb.TestUtil.SkeletonFile;
 import simpledb.common.Database;
 import simpledb.common.Utility;
+import simpledb.execution.Predicate;
 import simpledb.storage.*;
 import simpledb.systemtest.SimpleDbTestBase;
 import simpledb.systemtest.SystemTestUtil;
@@ -102,6 +103,50 @@ public class HeapPageReadTest extends SimpleDbTestBase {
         }
     }
 
+    /**
+     * Unit test for HeapPage.iterator()
+     * Tuples read their fields from the page's memory when they are first
+     * asked for, until they are materialized.
+     */
+    @Test public void lazyDecoding() throws Exception {
+        byte[] data = EXAMPLE_DATA.clone();
+        HeapPage page = new HeapPage(pid, data);
+        Iterator<Tuple> it = page.iterator();
+        it.hasNext();
+        Tuple lazy = it.next();
+        it.hasNext();
+        Tuple materialized = it.next();
+        materialized.materialize();
+
+        // the field 0 of the tuples in slots 0 and 1 starts after the header
+        int header = 63;
+        data[header + 3] = 7;
+        data[header + 8 + 3] = 7;
+        assertEquals(EXAMPLE_VALUES[0][0] - EXAMPLE_VALUES[0][0] % 256 + 7, ((IntField) lazy.getField(0)).getValue());
+        assertEquals(EXAMPLE_VALUES[1][0], ((IntField) materialized.getField(0)).getValue());
+        assertEquals(EXAMPLE_VALUES[1][1], ((IntField) materialized.getField(1)).getValue());
+    }
+
+    /**
+     * Unit test for HeapPage.iterator() with predicates
+     */
+    @Test public void testIteratorPredicates() throws Exception {
+        HeapPage page = new HeapPage(pid, EXAMPLE_DATA);
+        List<Predicate> predicates = List.of(new Predicate(0, Predicate.Op.GREATER_THAN, new IntField(30000)),
+                new Predicate(1, Predicate.Op.LESS_THAN_OR_EQ, new IntField(44947)));
+        Iterator<Tuple> it = page.iterator(predicates);
+
+        for (int row = 0; row < EXAMPLE_VALUES.length; row++) {
+            if (EXAMPLE_VALUES[row][0] <= 30000 || EXAMPLE_VALUES[row][1] > 44947)
+                continue;
+            assertTrue(it.hasNext());
+            Tuple tup = it.next();
+            assertEquals(row, tup.getRecordId().getTupleNumber());
+            assertEquals(EXAMPLE_VALUES[row][0], ((IntField) tup.getField(0)).getValue());
+        }
+        assertFalse(it.hasNext());
+    }
+
     /**
      * Unit test for HeapPage.getNumEmptySlots()
      */
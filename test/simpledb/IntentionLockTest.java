@@ -0,0 +1,176 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.LockManager.LockMode;
+import simpledb.transaction.TransactionId;
+
+public class IntentionLockTest extends TestUtil.CreateHeapFile {
+  private PageId p0, p1, p2;
+  private TransactionId tid1, tid2;
+
+  /** Time to wait before checking the state of lock contention, in ms */
+  private static final int TIMEOUT = 100;
+
+  // just so we have a pointer shorter than Database.getBufferPool()
+  private BufferPool bp;
+
+  private interface Locking {
+    void lock() throws Exception;
+  }
+
+  /**
+   * Runs a lock request in another thread.
+   */
+  private static class Grabber extends Thread {
+    private final Locking locking;
+    private volatile boolean acquired;
+
+    Grabber(Locking locking) {
+      this.locking = locking;
+      setDaemon(true);
+      start();
+    }
+
+    public void run() {
+      try {
+        locking.lock();
+        acquired = true;
+      } catch (Exception e) {
+        e.printStackTrace();
+      }
+    }
+  }
+
+  private static boolean acquires(Locking locking) throws InterruptedException {
+    Grabber g = new Grabber(locking);
+    g.join(TIMEOUT);
+    return g.acquired;
+  }
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+    // three pages, the last one with empty slots
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 1025; ++i) {
+      empty.insertTuple(tid, Utility.getHeapTuple(i, 2));
+    }
+    assertEquals(3, empty.numPages());
+
+    this.p0 = new HeapPageId(empty.getId(), 0);
+    this.p1 = new HeapPageId(empty.getId(), 1);
+    this.p2 = new HeapPageId(empty.getId(), 2);
+    this.tid1 = new TransactionId();
+    this.tid2 = new TransactionId();
+
+    bp.getPage(tid, p0, Permissions.READ_WRITE).markDirty(true, tid);
+    bp.getPage(tid, p1, Permissions.READ_WRITE).markDirty(true, tid);
+    bp.getPage(tid, p2, Permissions.READ_WRITE).markDirty(true, tid);
+    bp.flushAllPages();
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+  }
+
+  /**
+   * Unit test for LockManager.LockMode.
+   */
+  @Test public void lockModes() {
+    assertTrue(LockMode.IS.isCompatible(LockMode.SIX));
+    assertFalse(LockMode.IX.isCompatible(LockMode.S));
+    assertFalse(LockMode.X.isCompatible(LockMode.IS));
+    assertEquals(LockMode.SIX, LockMode.IX.join(LockMode.S));
+    assertEquals(LockMode.X, LockMode.SIX.join(LockMode.X));
+    assertEquals(LockMode.S, LockMode.IS.join(LockMode.S));
+    assertTrue(LockMode.SIX.covers(LockMode.IX));
+    assertFalse(LockMode.S.covers(LockMode.IX));
+  }
+
+  /**
+   * Unit test for BufferPool.lockTable().
+   * A shared table lock lets other transactions read pages but not write
+   * them, and covers every page of the table.
+   */
+  @Test public void sharedTableLock() throws Exception {
+    bp.lockTable(tid1, empty.getId(), Permissions.READ_ONLY);
+    assertTrue(bp.holdsLock(tid1, p1));
+    assertTrue(acquires(() -> bp.getPage(tid2, p0, Permissions.READ_ONLY)));
+    TransactionId tid3 = new TransactionId();
+    assertFalse(acquires(() -> bp.getPage(tid3, p1, Permissions.READ_WRITE)));
+  }
+
+  /**
+   * Unit test for BufferPool.lockTable().
+   * An exclusive table lock waits for the readers of its pages.
+   */
+  @Test public void exclusiveTableLock() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    assertFalse(acquires(() -> bp.lockTable(tid2, empty.getId(), Permissions.READ_WRITE)));
+  }
+
+  /**
+   * Unit test for LockManager.acquireSharedLock() and acquireExclusiveLock().
+   * Too many page locks in a table are escalated to a table lock that is
+   * exclusive if any of them was.
+   */
+  @Test public void escalation() throws Exception {
+    LockManager lm = new LockManager(LockManager.DeadlockMode.DETECTION, LockManager.VictimPolicy.YOUNGEST, 10);
+    int table = empty.getId();
+    for (int i = 0; i < 10; i++)
+      lm.acquireSharedLock(tid1, new HeapPageId(table, i));
+    assertFalse(lm.isLocked(tid1, new HeapPageId(table, 11)));
+    lm.acquireSharedLock(tid1, new HeapPageId(table, 10));
+    assertTrue(lm.isLocked(tid1, new HeapPageId(table, 11)));
+    assertTrue(acquires(() -> lm.acquireSharedLock(tid2, p1)));
+    lm.releaseAll(tid2);
+
+    // the exclusive lock on the table waits for the reader of a page
+    lm.acquireSharedLock(tid2, p2);
+    Grabber writer = new Grabber(() -> {
+      for (int i = 0; i <= 10; i++)
+        lm.acquireExclusiveLock(tid1, new HeapPageId(table, 20 + i));
+    });
+    writer.join(TIMEOUT);
+    assertFalse(writer.acquired);
+    lm.releaseAll(tid2);
+    writer.join(TIMEOUT);
+    assertTrue(writer.acquired);
+    TransactionId tid3 = new TransactionId();
+    assertFalse(acquires(() -> lm.acquireSharedLock(tid3, p0)));
+  }
+
+  /**
+   * Unit test for HeapFile.insertTuple().
+   * An insert does not wait for another transaction writing the page with
+   * empty slots; it appends a page instead.
+   */
+  @Test(timeout = 10000) public void insertSkipsLockedPage() throws Exception {
+    bp.getPage(tid1, p2, Permissions.READ_WRITE);
+    bp.insertTuple(tid2, empty.getId(), Utility.getHeapTuple(1025, 2));
+    assertEquals(4, empty.numPages());
+    assertFalse(bp.holdsLock(tid2, p2));
+    bp.transactionComplete(tid2);
+    bp.transactionComplete(tid1);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(IntentionLockTest.class);
+  }
+}
@@ -3,7 +3,9 @@ package simpledb;
 import org.junit.Before;
 import org.junit.Test;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 import junit.framework.JUnit4TestAdapter;
 import simpledb.common.Database;
 import simpledb.common.Permissions;
@@ -193,6 +195,68 @@ public class LockingTest extends TestUtil.CreateHeapFile {
     bp.getPage(tid1, p1, Permissions.READ_WRITE);
   }
 
+  /**
+   * Unit test for BufferPool.getPage() assuming locking.
+   * A read lock requested after a blocked write lock must queue behind it.
+   */
+  @Test public void writerNotStarved() throws Exception {
+    TransactionId tid3 = new TransactionId();
+    bp.getPage(tid1, p0, Permissions.READ_ONLY);
+    TestUtil.LockGrabber writer = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_WRITE);
+    writer.start();
+    Thread.sleep(TIMEOUT);
+    assertFalse(writer.acquired());
+    grabLock(tid3, p0, Permissions.READ_ONLY, false);
+
+    bp.transactionComplete(tid1);
+    writer.join(TIMEOUT);
+    assertTrue(writer.acquired());
+  }
+
+  /**
+   * Unit test for BufferPool.getPage() assuming locking.
+   * A waiter gets the lock as soon as it is released.
+   */
+  @Test public void wakeUpOnRelease() throws Exception {
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    TestUtil.LockGrabber t = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_WRITE);
+    t.start();
+    Thread.sleep(TIMEOUT);
+
+    long start = System.nanoTime();
+    bp.transactionComplete(tid1);
+    t.join(TIMEOUT);
+    assertTrue(t.acquired());
+    // a poller would take its polling interval at worst; allow for slow
+    // machines but not for a sleep loop
+    assertTrue(System.nanoTime() - start < TIMEOUT * 1000000L);
+  }
+
+  /**
+   * Unit test for BufferPool.transactionComplete() assuming locking.
+   * Completing a transaction wakes the waiters on every page it locked.
+   */
+  @Test public void releaseAllPages() throws Exception {
+    TransactionId tid3 = new TransactionId();
+    bp.getPage(tid1, p0, Permissions.READ_WRITE);
+    bp.getPage(tid1, p1, Permissions.READ_ONLY);
+    TestUtil.LockGrabber t0 = new TestUtil.LockGrabber(tid2, p0, Permissions.READ_ONLY);
+    TestUtil.LockGrabber t1 = new TestUtil.LockGrabber(tid3, p1, Permissions.READ_WRITE);
+    t0.start();
+    t1.start();
+    Thread.sleep(TIMEOUT);
+    assertFalse(t0.acquired());
+    assertFalse(t1.acquired());
+
+    bp.transactionComplete(tid1);
+    t0.join(TIMEOUT);
+    t1.join(TIMEOUT);
+    assertTrue(t0.acquired());
+    assertTrue(t1.acquired());
+    assertFalse(bp.holdsLock(tid1, p0));
+    assertFalse(bp.holdsLock(tid1, p1));
+  }
+
   /**
    * JUnit suite target
    */
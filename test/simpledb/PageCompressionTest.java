@@ -0,0 +1,153 @@
+package simpledb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.index.BTreeFile;
+import simpledb.index.BTreeUtility;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+public class PageCompressionTest extends SimpleDbTestBase {
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE};
+    // the slots of a page of TYPES
+    private static final int SLOTS = BufferPool.getPageSize() * 8 / (140 * 8 + 1);
+
+    private TransactionId tid;
+
+    private static Tuple tuple(int i) {
+        Tuple t = new Tuple(new TupleDesc(TYPES));
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField("s" + i % 10, Type.STRING_LEN));
+        t.setField(2, new IntField(i % 100));
+        return t;
+    }
+
+    @Before public void setUp() {
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for PageCompression.encode() and PageCompression.decode()
+     */
+    @Test public void roundTrip() throws Exception {
+        int pageSize = BufferPool.getPageSize();
+        HeapFile hf = TestUtil.openHeapFile(TestUtil.createTempFile(".dat"), TYPES, PageLayout.ROW);
+        HeapPage page = new HeapPage(new HeapPageId(hf.getId(), 0), HeapPage.createEmptyPageData());
+        for (int i = 0; i < 20; i++)
+            page.insertTuple(tuple(i));
+        byte[] data = page.getPageData();
+
+        ByteBuffer stored = PageCompression.encode(data);
+        assertTrue(stored.remaining() < pageSize / 10);
+        assertArrayEquals(data, PageCompression.decode(stored, pageSize));
+        assertArrayEquals(new byte[pageSize], PageCompression.decode(PageCompression.encode(new byte[pageSize]), pageSize));
+
+        // a page that does not compress is stored as is
+        byte[] random = new byte[pageSize];
+        new Random(42).nextBytes(random);
+        stored = PageCompression.encode(random);
+        assertEquals(pageSize, stored.remaining());
+        assertNull(PageCompression.decode(stored, pageSize));
+        assertNull(PageCompression.decode(ByteBuffer.wrap(data), pageSize));
+
+        // nor is a page that starts like a compressed one but fails its CRC
+        byte[] tampered = new byte[pageSize];
+        PageCompression.encode(data).get(tampered, 0, PageCompression.HEADER_SIZE);
+        assertNull(PageCompression.decode(ByteBuffer.wrap(tampered), pageSize));
+    }
+
+    /**
+     * Unit test for HeapFile.writePage() and HeapFile.readPage() of a file
+     * that holds compressed and uncompressed pages.
+     */
+    @Test public void mixedHeapFile() throws Exception {
+        File f = TestUtil.createTempFile(".dat");
+        HeapFile hf = TestUtil.openHeapFile(f, TYPES, PageLayout.ROW);
+        for (int i = 0; i < 3 * SLOTS; i++)
+            hf.insertTuple(tid, tuple(i));
+        Database.getBufferPool().flushAllPages();
+
+        // the first page is left as it is, the others compressed
+        hf.setCompressed(true);
+        for (int pgNo = 1; pgNo < 3; pgNo++)
+            hf.writePage(hf.readPage(new HeapPageId(hf.getId(), pgNo)));
+        hf.insertTuple(tid, tuple(3 * SLOTS));
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(4L * BufferPool.getPageSize(), f.length());
+
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        long before = Database.getFileChannelPool().getBytesRead();
+        HeapPage compressed = (HeapPage) hf.readPage(new HeapPageId(hf.getId(), 1));
+        assertTrue(Database.getFileChannelPool().getBytesRead() - before < BufferPool.getPageSize() / 4);
+        assertEquals(0, compressed.getNumEmptySlots());
+
+        // both kinds read with compression off too
+        hf.setCompressed(false);
+        tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int i = 0;
+        while (it.hasNext()) {
+            assertEquals(tuple(i).toString(), it.next().toString());
+            i++;
+        }
+        it.close();
+        assertEquals(3 * SLOTS + 1, i);
+    }
+
+    /**
+     * Unit test for BTreeFile.writePage() and BTreeFile.readPage() with
+     * compression on.
+     */
+    @Test public void compressedBTreeFile() throws Exception {
+        File f = TestUtil.createTempFile(".dat");
+        BTreeFile bf = BTreeUtility.createEmptyBTreeFile(f.getAbsolutePath(), 2, 0);
+        bf.setCompressed(true);
+        Random r = new Random(42);
+        for (int i = 0; i < 2000; i++)
+            Database.getBufferPool().insertTuple(tid, bf.getId(), BTreeUtility.getBTreeTuple(r.nextInt(100), 2));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        tid = new TransactionId();
+        long before = Database.getFileChannelPool().getBytesRead();
+        DbFileIterator it = bf.iterator(tid);
+        it.open();
+        int n = 0;
+        int last = Integer.MIN_VALUE;
+        while (it.hasNext()) {
+            int key = ((IntField) it.next().getField(0)).getValue();
+            assertTrue(key >= last);
+            last = key;
+            n++;
+        }
+        it.close();
+        assertEquals(2000, n);
+        assertTrue(Database.getFileChannelPool().getBytesRead() - before < (long) bf.numPages() * BufferPool.getPageSize() / 2);
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageCompressionTest.class);
+    }
+}
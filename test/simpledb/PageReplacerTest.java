@@ -0,0 +1,156 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Test;
+
+import simpledb.storage.AccessHint;
+import simpledb.storage.ClockReplacer;
+import simpledb.storage.LRUKReplacer;
+import simpledb.storage.PageReplacer;
+import simpledb.storage.TwoQueueReplacer;
+import simpledb.systemtest.SimpleDbTestBase;
+
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.*;
+
+public class PageReplacerTest extends SimpleDbTestBase {
+
+    private static long victim(PageReplacer r) {
+        return r.evict(key -> true).orElseThrow();
+    }
+
+    /**
+     * CLOCK gives recently accessed pages a second chance.
+     */
+    @Test public void clockSecondChance() {
+        PageReplacer r = new ClockReplacer(4);
+        for (long key = 1; key <= 4; key++)
+            r.add(key);
+        // the first sweep clears every bit and comes back to page 1
+        assertEquals(1, victim(r));
+        r.add(5);
+        r.access(2);
+        assertEquals(3, victim(r));
+        assertEquals(4, victim(r));
+        assertEquals(2, r.size());
+    }
+
+    /**
+     * LRU-K evicts pages seen fewer than K times first, oldest first.
+     */
+    @Test public void lruKPrefersColdPages() {
+        PageReplacer r = new LRUKReplacer(8, 2);
+        for (long key = 1; key <= 4; key++)
+            r.add(key);
+        r.access(1);
+        r.access(2);
+        r.access(1);
+        assertEquals(3, victim(r));
+        assertEquals(4, victim(r));
+        // both remaining pages are hot, 2 was used least recently
+        assertEquals(2, victim(r));
+        assertEquals(1, victim(r));
+        assertFalse(r.evict(key -> true).isPresent());
+    }
+
+    /**
+     * 2Q only admits a page to its main queue when it is read again shortly
+     * after leaving the probation queue.
+     */
+    @Test public void twoQueueAdmission() {
+        TwoQueueReplacer r = new TwoQueueReplacer(4, 2, 2);
+        for (long key = 1; key <= 4; key++)
+            r.add(key);
+        // hits in the probation queue do not promote
+        r.access(1);
+        assertEquals(1, victim(r));
+        r.add(1);
+        assertEquals(1, r.getNumHot());
+        assertEquals(2, victim(r));
+        // A1in is down to its target size, so Am gives up a page
+        assertEquals(1, victim(r));
+        r.add(2);
+        assertEquals(1, r.getNumHot());
+    }
+
+    /**
+     * A sequential scan through a 2Q pool leaves pages in the main queue
+     * alone, however long it is.
+     */
+    @Test public void twoQueueScanResistance() {
+        int capacity = 8;
+        TwoQueueReplacer r = new TwoQueueReplacer(capacity, 2, capacity);
+        Set<Long> cached = new HashSet<>();
+        for (long key = 1; key <= 4; key++)
+            load(r, cached, capacity, key, AccessHint.NORMAL);
+        for (long key = 1000; key < 1008; key++)
+            load(r, cached, capacity, key, AccessHint.NORMAL);
+        for (long key = 1; key <= 4; key++)
+            load(r, cached, capacity, key, AccessHint.NORMAL);
+        assertEquals(4, r.getNumHot());
+
+        for (long key = 2000; key < 3000; key++)
+            load(r, cached, capacity, key, AccessHint.SEQUENTIAL);
+        for (long key = 1; key <= 4; key++)
+            assertTrue("hot page " + key + " was evicted", cached.contains(key));
+        // a second pass of the same scan must not promote anything either
+        for (long key = 2000; key < 3000; key++)
+            load(r, cached, capacity, key, AccessHint.SEQUENTIAL);
+        assertEquals(4, r.getNumHot());
+    }
+
+    private static void load(PageReplacer r, Set<Long> cached, int capacity, long key, AccessHint hint) {
+        if (cached.contains(key)) {
+            r.access(key, hint);
+            return;
+        }
+        if (cached.size() >= capacity)
+            assertTrue(cached.remove(victim(r)));
+        r.add(key, hint);
+        cached.add(key);
+    }
+
+    /**
+     * Pages that may not be evicted are skipped, and removed pages are
+     * never chosen.
+     */
+    @Test public void skipAndRemove() {
+        for (PageReplacer r : new PageReplacer[]{new ClockReplacer(4), new LRUKReplacer(4, 2),
+                new TwoQueueReplacer(4)}) {
+            for (long key = 1; key <= 4; key++)
+                r.add(key);
+            r.remove(1);
+            assertEquals(3, r.evict(key -> key != 2).orElseThrow());
+            assertEquals(4, r.evict(key -> key != 2).orElseThrow());
+            assertFalse(r.evict(key -> key != 2).isPresent());
+            assertEquals(1, r.size());
+        }
+    }
+
+    /**
+     * A replacer grows when more pages are added than it was sized for,
+     * and evicts every page exactly once.
+     */
+    @Test public void grow() {
+        for (PageReplacer r : new PageReplacer[]{new ClockReplacer(2), new LRUKReplacer(2, 2),
+                new TwoQueueReplacer(2)}) {
+            for (long key = 0; key < 100; key++)
+                r.add(key * 31);
+            assertEquals(100, r.size());
+            Set<Long> evicted = new HashSet<>();
+            for (int i = 0; i < 100; i++)
+                assertTrue(evicted.add(victim(r)));
+            assertEquals(0, r.size());
+        }
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PageReplacerTest.class);
+    }
+}
@@ -0,0 +1,138 @@
+package simpledb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+
+public class PaxLayoutTest extends SimpleDbTestBase {
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE};
+    // the slots of a page of TYPES, and the bytes of its header
+    private static final int SLOTS = BufferPool.getPageSize() * 8 / (140 * 8 + 1);
+    private static final int HEADER = (SLOTS + 7) / 8;
+
+    private TransactionId tid;
+
+    private static Tuple tuple(int i) {
+        Tuple t = new Tuple(new TupleDesc(TYPES));
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField("s" + i, Type.STRING_LEN));
+        t.setField(2, new IntField(-i));
+        return t;
+    }
+
+    @Before public void setUp() {
+        tid = new TransactionId();
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for HeapPage.getPageData() on a PAX page.
+     * Each column is stored contiguously after the header.
+     */
+    @Test public void pageData() throws Exception {
+        HeapFile hf = TestUtil.openHeapFile(TestUtil.createTempFile(".dat"), TYPES, PageLayout.PAX);
+        HeapPage page = new HeapPage(new HeapPageId(hf.getId(), 0), HeapPage.createEmptyPageData());
+        for (int i = 0; i < 3; ++i)
+            page.insertTuple(tuple(i + 1));
+        ByteBuffer data = ByteBuffer.wrap(page.getPageData());
+        for (int i = 0; i < 3; ++i) {
+            assertEquals(i + 1, data.getInt(HEADER + 4 * i));
+            assertEquals(-(i + 1), data.getInt(HEADER + SLOTS * 136 + 4 * i));
+        }
+        assertEquals(2, data.getInt(HEADER + SLOTS * 4));
+
+        // read back, the page is the same
+        HeapPage read = new HeapPage(page.getId(), page.getPageData());
+        assertArrayEquals(page.getPageData(), read.getPageData());
+        int i = 1;
+        for (Tuple t : (Iterable<Tuple>) read::iterator) {
+            assertEquals(tuple(i).toString(), t.toString());
+            i++;
+        }
+        assertEquals(4, i);
+    }
+
+    /**
+     * Unit test for HeapFile.insertTuple() and HeapFile.iterator() on a PAX
+     * file.
+     */
+    @Test public void insertAndScan() throws Exception {
+        HeapFile hf = TestUtil.openHeapFile(TestUtil.createTempFile(".dat"), TYPES, PageLayout.PAX);
+        for (int i = 0; i < SLOTS + 10; ++i)
+            hf.insertTuple(tid, tuple(i));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        tid = new TransactionId();
+        assertEquals(2, hf.numPages());
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int i = 0;
+        while (it.hasNext()) {
+            assertEquals(tuple(i).toString(), it.next().toString());
+            i++;
+        }
+        it.close();
+        assertEquals(SLOTS + 10, i);
+    }
+
+    /**
+     * Unit test for HeapFileEncoder.convert() with the PAX layout.
+     * The pages hold the same tuples as the row layout builds.
+     */
+    @Test public void convert() throws Exception {
+        File in = TestUtil.createTempFile(".txt");
+        try (Writer w = new FileWriter(in)) {
+            for (int i = 0; i < 20; i++)
+                w.write(i + ",s" + i + "," + -i + "\n");
+        }
+        File row = TestUtil.createTempFile(".dat");
+        File pax = TestUtil.createTempFile(".dat");
+        HeapFileEncoder.convert(in, row, BufferPool.getPageSize(), 3, TYPES, ',', 1, PageLayout.ROW);
+        HeapFileEncoder.convert(in, pax, BufferPool.getPageSize(), 3, TYPES, ',', 2, PageLayout.PAX);
+        HeapFile rowFile = TestUtil.openHeapFile(row, TYPES, PageLayout.ROW);
+        HeapFile paxFile = TestUtil.openHeapFile(pax, TYPES, PageLayout.PAX);
+
+        HeapPage rowPage = (HeapPage) rowFile.readPage(new HeapPageId(rowFile.getId(), 0));
+        HeapPage paxPage = (HeapPage) paxFile.readPage(new HeapPageId(paxFile.getId(), 0));
+        assertEquals(rowPage.getNumEmptySlots(), paxPage.getNumEmptySlots());
+        int i = 0;
+        for (Tuple t : (Iterable<Tuple>) paxPage::iterator) {
+            assertEquals(tuple(i).toString(), t.toString());
+            i++;
+        }
+        assertEquals(20, i);
+
+        // the encoder writes the page HeapPage writes
+        HeapPage rebuilt = new HeapPage(paxPage.getId(), HeapPage.createEmptyPageData());
+        for (int j = 0; j < 20; ++j)
+            rebuilt.insertTuple(tuple(j));
+        assertArrayEquals(Files.readAllBytes(pax.toPath()), rebuilt.getPageData());
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(PaxLayoutTest.class);
+    }
+}
@@ -0,0 +1,75 @@
+package simpledb;
+
+import junit.framework.JUnit4TestAdapter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import simpledb.common.Database;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.ReadAhead;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.systemtest.SystemTestUtil;
+
+import static org.junit.Assert.*;
+
+public class ReadAheadTest extends SimpleDbTestBase {
+
+    private HeapFile hf;
+    private BufferPool bp;
+
+    @Before public void setUp() throws Exception {
+        super.setUp();
+        // 20 pages of two int columns
+        hf = SystemTestUtil.createRandomHeapFile(2, 20 * 504, null, null);
+        bp = Database.resetBufferPool(50);
+    }
+
+    private void assertCached(int pgNo) {
+        HeapPageId pid = new HeapPageId(hf.getId(), pgNo);
+        assertTrue("page " + pgNo + " was not read ahead", bp.isCached(pid));
+    }
+
+    /**
+     * Sequential accesses must read the following pages into the buffer pool.
+     */
+    @Test public void sequential() throws Exception {
+        ReadAhead ra = new ReadAhead(bp, hf.getId(), hf.numPages());
+        ra.access(0);
+        ra.access(1);
+        ra.awaitReads();
+        assertCached(2);
+        assertCached(3);
+
+        ra.access(2);
+        assertEquals(1, ra.getHits());
+        assertEquals(2, ra.getMisses());
+        ra.close();
+    }
+
+    /**
+     * Random accesses must not trigger any read-ahead.
+     */
+    @Test public void random() throws Exception {
+        ReadAhead ra = new ReadAhead(bp, hf.getId(), hf.numPages());
+        ra.access(10);
+        ra.access(3);
+        ra.access(17);
+        ra.access(6);
+        ra.awaitReads();
+        for (int i = 0; i < hf.numPages(); i++)
+            assertFalse(bp.isCached(new HeapPageId(hf.getId(), i)));
+        assertEquals(0, ra.getHits());
+        assertEquals(4, ra.getMisses());
+        ra.close();
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(ReadAheadTest.class);
+    }
+}
@@ -0,0 +1,244 @@
+package simpledb;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Type;
+import simpledb.storage.*;
+import simpledb.systemtest.SimpleDbTestBase;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.UUID;
+
+public class SlottedPageTest extends SimpleDbTestBase {
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.STRING_TYPE};
+
+    private TransactionId tid;
+    private HeapFile hf;
+
+    // a tuple whose record takes 4 + 4 + 2 bytes for i < 10, a byte more
+    // for every digit of i % 1000 after that
+    private static Tuple tuple(int i) {
+        Tuple t = new Tuple(new TupleDesc(TYPES));
+        t.setField(0, new IntField(i));
+        t.setField(1, new StringField("c" + i % 1000, Type.STRING_LEN));
+        return t;
+    }
+
+    private HeapPage emptyPage() throws IOException {
+        return new HeapPage(new HeapPageId(hf.getId(), 0), HeapPage.createEmptyPageData());
+    }
+
+    @Before public void setUp() throws Exception {
+        tid = new TransactionId();
+        hf = TestUtil.openHeapFile(TestUtil.createTempFile(".dat"), TYPES, PageLayout.SLOTTED);
+    }
+
+    @After public void tearDown() {
+        Database.getBufferPool().transactionComplete(tid);
+    }
+
+    /**
+     * Unit test for HeapPage.insertTuple() on a SLOTTED page.
+     * The page holds as many short strings as fit, not as many padded ones.
+     */
+    @Test public void insertUntilFull() throws Exception {
+        HeapPage page = emptyPage();
+        int n = 0;
+        try {
+            for (; ; n++)
+                page.insertTuple(tuple(n));
+        } catch (DbException e) {
+            // the page is full
+        }
+        // records of 10, 11 and 12 bytes, and a 4 byte entry for each
+        assertEquals(100 + (BufferPool.getPageSize() - 2 - 10 * 14 - 90 * 15) / 16, n);
+        // 30 tuples fit on a ROW page
+        assertTrue(n > 8 * 30);
+
+        ByteBuffer data = ByteBuffer.wrap(page.getPageData());
+        assertEquals(n, data.getShort(0));
+        // the first record is at the end of the page
+        assertEquals(BufferPool.getPageSize() - 10, data.getShort(2));
+        assertEquals(10, data.getShort(4));
+        assertEquals(0, data.getInt(BufferPool.getPageSize() - 10));
+        assertEquals(2, data.getInt(BufferPool.getPageSize() - 6));
+    }
+
+    /**
+     * Unit test for HeapPage.insertTuple() on a SLOTTED page with a
+     * varchar(3) field. Longer strings are cut to 3 characters.
+     */
+    @Test public void insertCutsVarchar() throws Exception {
+        TupleDesc td = new TupleDesc(TYPES, new String[]{"a", "b"}, new int[]{Type.STRING_LEN, 3});
+        HeapFile varchar = new HeapFile(TestUtil.createTempFile(".dat"), td, PageLayout.SLOTTED);
+        Database.getCatalog().addTable(varchar, UUID.randomUUID().toString());
+        HeapPage page = new HeapPage(new HeapPageId(varchar.getId(), 0), HeapPage.createEmptyPageData());
+        Tuple t = tuple(123);
+        page.insertTuple(t);
+        assertEquals("c12", ((StringField) t.getField(1)).getValue());
+
+        HeapPage read = new HeapPage(page.getId(), page.getPageData());
+        assertEquals("c12", ((StringField) read.iterator().next().getField(1)).getValue());
+        // a record of 4 + 4 + 3 bytes
+        assertEquals(11, ByteBuffer.wrap(read.getPageData()).getShort(4));
+    }
+
+    /**
+     * Unit test for HeapPage.deleteTuple() on a SLOTTED page.
+     * The bytes of deleted records are reclaimed, and the other tuples keep
+     * their slots.
+     */
+    @Test public void deleteCompacts() throws Exception {
+        HeapPage page = emptyPage();
+        Tuple[] inserted = new Tuple[50];
+        for (int i = 0; i < 50; i++) {
+            inserted[i] = tuple(i);
+            page.insertTuple(inserted[i]);
+        }
+        for (int i = 0; i < 50; i += 2)
+            page.deleteTuple(inserted[i]);
+        HeapPage read = new HeapPage(page.getId(), page.getPageData());
+        assertEquals(page.getNumEmptySlots(), read.getNumEmptySlots());
+        ByteBuffer data = ByteBuffer.wrap(read.getPageData());
+        // the directory ends with slot 49, the records are packed
+        assertEquals(50, data.getShort(0));
+        assertEquals(0, data.getShort(2 + 4 * 2 + 2));
+        assertEquals(BufferPool.getPageSize() - 10, data.getShort(2 + 4));
+        int i = 1;
+        for (Tuple t : (Iterable<Tuple>) read::iterator) {
+            assertEquals(tuple(i).toString(), t.toString());
+            assertEquals(i, t.getRecordId().getTupleNumber());
+            i += 2;
+        }
+        assertEquals(51, i);
+
+        // the freed bytes take new tuples, in the freed slots first
+        Tuple t = tuple(7);
+        read.insertTuple(t);
+        assertEquals(0, t.getRecordId().getTupleNumber());
+        HeapPage reread = new HeapPage(page.getId(), read.getPageData());
+        int n = 0;
+        try {
+            for (; ; n++)
+                reread.insertTuple(tuple(7));
+        } catch (DbException e) {
+            // the page is full
+        }
+        // 24 freed slots, then new ones with their entries
+        int free = BufferPool.getPageSize() - 2 - 50 * 4 - 6 * 10 - 20 * 11;
+        assertEquals(24 + (free - 24 * 10) / 14, n);
+    }
+
+    /**
+     * Unit test for HeapFile.insertTuple() and HeapFile.iterator() on a
+     * SLOTTED file.
+     */
+    @Test public void insertAndScan() throws Exception {
+        for (int i = 0; i < 1000; ++i)
+            hf.insertTuple(tid, tuple(i));
+        // a ROW file takes 34 pages
+        assertEquals(4, hf.numPages());
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        int i = 0;
+        while (it.hasNext()) {
+            assertEquals(tuple(i).toString(), it.next().toString());
+            i++;
+        }
+        it.close();
+        assertEquals(1000, i);
+    }
+
+    /**
+     * Unit test for HeapFile.deleteTuple() on a memory mapped SLOTTED file.
+     * The delete moves records; a page read through the mapping before the
+     * delete was flushed must not see them move.
+     */
+    @Test public void deleteAndScanMapped() throws Exception {
+        Database.getCatalog().setMemoryMapped(hf.getId(), true);
+        for (int i = 0; i < 10; ++i)
+            hf.insertTuple(tid, tuple(i));
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+        tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        Database.getBufferPool().deleteTuple(tid, it.next());
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        Database.getBufferPool().flushAllPages();
+
+        tid = new TransactionId();
+        it = hf.iterator(tid);
+        it.open();
+        int i = 1;
+        while (it.hasNext()) {
+            assertEquals(tuple(i).toString(), it.next().toString());
+            i++;
+        }
+        it.close();
+        assertEquals(10, i);
+    }
+
+    /**
+     * Unit test for HeapFileEncoder.convert() with the SLOTTED layout.
+     * The encoder writes the pages HeapPage writes.
+     */
+    @Test public void convert() throws Exception {
+        File in = TestUtil.createTempFile(".txt");
+        try (Writer w = new FileWriter(in)) {
+            for (int i = 0; i < 500; i++)
+                w.write(i + ",c" + i % 1000 + "\n");
+        }
+        File out = TestUtil.createTempFile(".dat");
+        assertEquals(500, HeapFileEncoder.convert(in, out, BufferPool.getPageSize(), 2, TYPES, ',', 2,
+                PageLayout.SLOTTED));
+        HeapFile converted = TestUtil.openHeapFile(out, TYPES, PageLayout.SLOTTED);
+        assertEquals(2, converted.numPages());
+
+        byte[] pages = Files.readAllBytes(out.toPath());
+        HeapPage first = new HeapPage(new HeapPageId(converted.getId(), 0), HeapPage.createEmptyPageData());
+        HeapPage second = new HeapPage(new HeapPageId(converted.getId(), 1), HeapPage.createEmptyPageData());
+        int i = 0;
+        try {
+            for (; i < 500; i++)
+                first.insertTuple(tuple(i));
+        } catch (DbException e) {
+            // the first page is full
+        }
+        for (; i < 500; i++)
+            second.insertTuple(tuple(i));
+        int pageSize = BufferPool.getPageSize();
+        assertArrayEquals(first.getPageData(), Arrays.copyOfRange(pages, 0, pageSize));
+        assertArrayEquals(second.getPageData(), Arrays.copyOfRange(pages, pageSize, 2 * pageSize));
+    }
+
+    /**
+     * JUnit suite target
+     */
+    public static junit.framework.Test suite() {
+        return new JUnit4TestAdapter(SlottedPageTest.class);
+    }
+}
@@ -0,0 +1,126 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.PageId;
+import simpledb.transaction.TransactionId;
+
+public class SnapshotTest extends TestUtil.CreateHeapFile {
+  private PageId p0;
+  private TransactionId writer, reader;
+
+  // just so we have a pointer shorter than Database.getBufferPool()
+  private BufferPool bp;
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 10; ++i)
+      bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+    bp.transactionComplete(tid, true);
+
+    this.p0 = new HeapPageId(empty.getId(), 0);
+    this.writer = new TransactionId();
+    this.reader = new TransactionId();
+  }
+
+  private int count(TransactionId tid) throws Exception {
+    DbFileIterator it = empty.iterator(tid);
+    it.open();
+    int n = 0;
+    while (it.hasNext()) {
+      it.next();
+      n++;
+    }
+    it.close();
+    return n;
+  }
+
+  /**
+   * Unit test for BufferPool.getPage() with a snapshot.
+   * A snapshot reader neither waits for a writer nor sees what it has not
+   * committed, and the writer does not wait for the reader either.
+   */
+  @Test(timeout = 10000) public void readersAndWritersDoNotBlock() throws Exception {
+    bp.beginSnapshot(reader);
+    assertEquals(10, count(reader));
+    bp.insertTuple(writer, empty.getId(), Utility.getHeapTuple(10, 2));
+    assertTrue(bp.holdsLock(writer, p0));
+    assertEquals(10, count(reader));
+    assertFalse(bp.holdsLock(reader, p0));
+
+    bp.transactionComplete(writer, false);
+    assertEquals(10, count(reader));
+    bp.transactionComplete(reader);
+  }
+
+  /**
+   * Unit test for BufferPool.getPage() with a snapshot.
+   * A snapshot keeps seeing the pages as they were when it began, while a
+   * later one sees the new commits.
+   */
+  @Test(timeout = 10000) public void snapshotIsolation() throws Exception {
+    bp.beginSnapshot(reader);
+    bp.insertTuple(writer, empty.getId(), Utility.getHeapTuple(10, 2));
+    bp.transactionComplete(writer, true);
+
+    TransactionId later = new TransactionId();
+    bp.beginSnapshot(later);
+    assertEquals(10, count(reader));
+    assertEquals(11, count(later));
+    bp.transactionComplete(later);
+    bp.transactionComplete(reader);
+  }
+
+  /**
+   * Unit test for BufferPool.transactionComplete() with a snapshot.
+   * Old versions are dropped once no snapshot needs them, and none are kept
+   * while no snapshot is running.
+   */
+  @Test public void vacuum() throws Exception {
+    bp.beginSnapshot(reader);
+    bp.insertTuple(writer, empty.getId(), Utility.getHeapTuple(10, 2));
+    bp.transactionComplete(writer, true);
+    assertEquals(1, bp.getNumVersions());
+
+    bp.transactionComplete(reader);
+    assertEquals(0, bp.getNumVersions());
+
+    TransactionId tid = new TransactionId();
+    bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(11, 2));
+    bp.transactionComplete(tid, true);
+    assertEquals(0, bp.getNumVersions());
+  }
+
+  /**
+   * Unit test for BufferPool.getPage() with a snapshot.
+   * Snapshot transactions are read-only.
+   */
+  @Test(expected = DbException.class) public void snapshotCannotWrite() throws Exception {
+    bp.beginSnapshot(reader);
+    bp.getPage(reader, p0, Permissions.READ_WRITE);
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(SnapshotTest.class);
+  }
+}
@@ -168,6 +168,27 @@ public class TestUtil {
         }
     }
 
+    /**
+     * Creates an empty temporary file that is deleted, together with the
+     * side files a heap file keeps next to it, when the virtual machine
+     * exits.
+     */
+    public static File createTempFile(String suffix) throws IOException {
+        File f = File.createTempFile("simpledb", suffix);
+        f.deleteOnExit();
+        return f;
+    }
+
+    /**
+     * Opens the heap file stored in f, with fields of the given types laid
+     * out as specified, and adds it to the catalog under a random name.
+     */
+    public static HeapFile openHeapFile(File f, Type[] types, PageLayout layout) {
+        HeapFile hf = new HeapFile(f, new TupleDesc(types), layout);
+        Database.getCatalog().addTable(hf, UUID.randomUUID().toString());
+        return hf;
+    }
+
     /**
      * @return a byte array containing the contents of the file 'path'
      */
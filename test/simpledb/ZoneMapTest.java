@@ -0,0 +1,206 @@
+package simpledb;
+
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import junit.framework.JUnit4TestAdapter;
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Type;
+import simpledb.common.Utility;
+import simpledb.execution.Predicate;
+import simpledb.storage.AccessHint;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapFileEncoder;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.PageId;
+import simpledb.storage.Tuple;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.FileWriter;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.List;
+
+public class ZoneMapTest extends TestUtil.CreateHeapFile {
+  private PageId p0, p1, p2;
+
+  // just so we have a pointer shorter than Database.getBufferPool()
+  private BufferPool bp;
+
+  /**
+   * Set up initial resources for each unit test.
+   */
+  @Before public void setUp() throws Exception {
+    super.setUp();
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+
+    // three pages of ascending values: 0-503, 504-1007 and 1008-1024
+    TransactionId tid = new TransactionId();
+    for (int i = 0; i < 1025; ++i)
+      bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(i, 2));
+    bp.transactionComplete(tid, true);
+    bp.flushAllPages();
+    assertEquals(3, empty.numPages());
+
+    this.p0 = new HeapPageId(empty.getId(), 0);
+    this.p1 = new HeapPageId(empty.getId(), 1);
+    this.p2 = new HeapPageId(empty.getId(), 2);
+
+    // start over with the file as it is on disk
+    reopen();
+  }
+
+  private void reopen() {
+    empty = Utility.openHeapFile(2, empty.getFile());
+    empty.setReadAhead(false);
+    bp = Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+  }
+
+  private static Predicate pred(int field, Predicate.Op op, int value) {
+    return new Predicate(field, op, new IntField(value));
+  }
+
+  // the number of tuples a scan with the predicates returns
+  private int scan(TransactionId tid, Predicate... predicates) throws Exception {
+    DbFileIterator it = empty.iterator(tid, AccessHint.NORMAL, List.of(predicates));
+    it.open();
+    int n = 0;
+    while (it.hasNext()) {
+      assertTrue(Predicate.filterAll(List.of(predicates), it.next()));
+      n++;
+    }
+    it.close();
+    return n;
+  }
+
+  /**
+   * Unit test for HeapFile.iterator() with predicates.
+   * Pages whose ranges rule out the predicates are not read.
+   */
+  @Test public void scanSkipsPages() throws Exception {
+    assertTrue(new File(empty.getFile().getPath() + ".zm").exists());
+    TransactionId tid = new TransactionId();
+    assertEquals(24, scan(tid, pred(0, Predicate.Op.GREATER_THAN, 1000)));
+    assertFalse(bp.isCached(p0));
+    assertTrue(bp.isCached(p2));
+    bp.transactionComplete(tid, true);
+
+    reopen();
+    tid = new TransactionId();
+    assertEquals(10, scan(tid, pred(0, Predicate.Op.GREATER_THAN_OR_EQ, 10), pred(1, Predicate.Op.LESS_THAN, 20)));
+    assertFalse(bp.isCached(p1));
+    assertFalse(bp.isCached(p2));
+
+    assertEquals(1, scan(tid, pred(0, Predicate.Op.EQUALS, 600)));
+    assertTrue(bp.isCached(p1));
+    assertEquals(0, scan(tid, pred(1, Predicate.Op.LESS_THAN, 0)));
+    assertFalse(bp.isCached(p2));
+    // predicates the ranges do not rule out skip nothing
+    assertEquals(1024, scan(tid, pred(0, Predicate.Op.NOT_EQUALS, 600)));
+    bp.transactionComplete(tid, true);
+  }
+
+  /**
+   * Unit test for HeapFile.insertTuple().
+   * An insert widens the ranges of its page, in memory and on disk.
+   */
+  @Test public void insertWidens() throws Exception {
+    TransactionId tid = new TransactionId();
+    Tuple t = ((HeapPage) bp.getPage(tid, p0, Permissions.READ_ONLY)).iterator().next();
+    bp.deleteTuple(tid, t);
+    bp.transactionComplete(tid, true);
+
+    // the insert goes to the slot freed on the first page
+    tid = new TransactionId();
+    bp.insertTuple(tid, empty.getId(), Utility.getHeapTuple(5000, 2));
+    assertEquals(1, scan(tid, pred(0, Predicate.Op.GREATER_THAN, 4000)));
+    bp.transactionComplete(tid, true);
+    bp.flushAllPages();
+
+    reopen();
+    tid = new TransactionId();
+    assertEquals(1, scan(tid, pred(0, Predicate.Op.GREATER_THAN, 4000)));
+    assertFalse(bp.isCached(p1));
+    bp.transactionComplete(tid, true);
+  }
+
+  /**
+   * Unit test for HeapFile.dropZoneMap().
+   * Without its map a file is read once to rebuild it.
+   */
+  @Test public void rebuildMap() throws Exception {
+    HeapFile.dropZoneMap(empty.getFile());
+    reopen();
+    TransactionId tid = new TransactionId();
+    assertEquals(17, scan(tid, pred(1, Predicate.Op.GREATER_THAN, 1007)));
+    assertTrue(new File(empty.getFile().getPath() + ".zm").exists());
+    assertFalse(bp.isCached(p0));
+    bp.transactionComplete(tid, true);
+  }
+
+  /**
+   * Unit test for HeapFile.iterator() with predicates.
+   * A map that does not match its file, because the file was rewritten
+   * other than through a HeapFile, is rebuilt rather than trusted.
+   */
+  @Test public void staleMapRebuilt() throws Exception {
+    File in = File.createTempFile("zonemap", ".txt");
+    in.deleteOnExit();
+    try (Writer w = new FileWriter(in)) {
+      for (int i = 0; i < 1025; i++)
+        w.write((5000 + i) + "," + i + "\n");
+    }
+    File other = File.createTempFile("zonemap", ".dat");
+    other.deleteOnExit();
+    HeapFileEncoder.convert(in, other, BufferPool.getPageSize(), 2, new Type[]{Type.INT_TYPE, Type.INT_TYPE}, ',', 2);
+    File f = empty.getFile();
+    Files.write(f.toPath(), Files.readAllBytes(other.toPath()));
+    // as if the copy was made a second later
+    assertTrue(f.setLastModified(f.lastModified() + 1000));
+
+    reopen();
+    TransactionId tid = new TransactionId();
+    assertEquals(1025, scan(tid, pred(0, Predicate.Op.GREATER_THAN, 4000)));
+    bp.transactionComplete(tid, true);
+  }
+
+  /**
+   * Unit test for HeapFileEncoder.convert().
+   * The encoder writes the map of the file it converts.
+   */
+  @Test public void convertWritesMap() throws Exception {
+    File in = File.createTempFile("zonemap", ".txt");
+    in.deleteOnExit();
+    try (Writer w = new FileWriter(in)) {
+      for (int i = 0; i < 1025; i++)
+        w.write(i + "," + (1025 - i) + "\n");
+    }
+    File out = empty.getFile();
+    HeapFileEncoder.convert(in, out, BufferPool.getPageSize(), 2, new Type[]{Type.INT_TYPE, Type.INT_TYPE}, ',', 2);
+    File zm = new File(out.getPath() + ".zm");
+    assertEquals(24 + 3 * 2 * 8, zm.length());
+
+    reopen();
+    TransactionId tid = new TransactionId();
+    assertEquals(17, scan(tid, pred(1, Predicate.Op.LESS_THAN_OR_EQ, 17)));
+    assertFalse(bp.isCached(p0));
+    assertFalse(bp.isCached(p1));
+    bp.transactionComplete(tid, true);
+    assertEquals(24 + 3 * 2 * 8, zm.length());
+  }
+
+  /**
+   * JUnit suite target
+   */
+  public static junit.framework.Test suite() {
+    return new JUnit4TestAdapter(ZoneMapTest.class);
+  }
+}
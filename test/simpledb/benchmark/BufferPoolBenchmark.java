@@ -0,0 +1,102 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Permissions;
+import simpledb.common.Utility;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPage;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.TwoQueueReplacer;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Measures how many random page reads per second a BufferPool serves to 1
+ * up to twice as many threads as there are processors, with a single shard
+ * and with the default number of shards. The table is twice as large as the
+ * pool, so about half the reads miss and evict a page. Each thread commits
+ * a read-only transaction every 100 reads to keep its lock set small.
+ * <p>
+ * Usage: ant runbench -Dbench=BufferPoolBenchmark [-Dbench.args="poolPages readsPerThread"]
+ */
+public class BufferPoolBenchmark {
+
+    private static final int READS_PER_TRANSACTION = 100;
+
+    public static void main(String[] args) throws Exception {
+        int poolPages = args.length > 0 ? Integer.parseInt(args[0]) : 4096;
+        int reads = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+        int tablePages = 2 * poolPages;
+
+        File f = File.createTempFile("bufferpool", ".dat");
+        f.deleteOnExit();
+        try (OutputStream out = new BufferedOutputStream(new FileOutputStream(f))) {
+            byte[] empty = HeapPage.createEmptyPageData();
+            for (int i = 0; i < tablePages; i++)
+                out.write(empty);
+        }
+        HeapFile hf = new HeapFile(f, Utility.getTupleDesc(2));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+
+        int maxThreads = 2 * Runtime.getRuntime().availableProcessors();
+        int defaultShards = new BufferPool(poolPages).getNumShards();
+        System.out.println("table: " + tablePages + " pages, pool: " + poolPages + " pages, "
+                + reads + " random reads per thread, default shards: " + defaultShards);
+        for (int run = 0; run < 2; run++) {
+            for (int threads = 1; threads <= maxThreads; threads *= 2) {
+                double single = run(new BufferPool(poolPages, 1, TwoQueueReplacer::new), hf, threads, reads);
+                double sharded = run(new BufferPool(poolPages), hf, threads, reads);
+                System.out.printf("%3d threads: 1 shard %10.0f reads/s, %3d shards %10.0f reads/s%n",
+                        threads, single, defaultShards, sharded);
+            }
+        }
+        Database.getFileChannelPool().closeAll();
+    }
+
+    private static double run(BufferPool bp, HeapFile hf, int threads, int reads) throws Exception {
+        int tablePages = hf.numPages();
+        List<Thread> workers = new ArrayList<>();
+        List<Exception> errors = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            workers.add(new Thread(() -> {
+                Random r = new Random(seed);
+                try {
+                    TransactionId tid = new TransactionId();
+                    for (int i = 0; i < reads; i++) {
+                        bp.getPage(tid, new HeapPageId(hf.getId(), r.nextInt(tablePages)), Permissions.READ_ONLY);
+                        if ((i + 1) % READS_PER_TRANSACTION == 0) {
+                            bp.transactionComplete(tid);
+                            tid = new TransactionId();
+                        }
+                    }
+                    bp.transactionComplete(tid);
+                } catch (Exception e) {
+                    synchronized (errors) {
+                        errors.add(e);
+                    }
+                }
+            }));
+        }
+        long start = System.nanoTime();
+        for (Thread w : workers)
+            w.start();
+        for (Thread w : workers)
+            w.join();
+        long nanos = System.nanoTime() - start;
+        bp.close(false);
+        if (!errors.isEmpty())
+            throw errors.get(0);
+        return (double) threads * reads / nanos * 1e9;
+    }
+}
@@ -0,0 +1,124 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.storage.BufferPool;
+import simpledb.storage.DbFileIterator;
+import simpledb.storage.HeapFile;
+import simpledb.storage.HeapPageId;
+import simpledb.storage.IntField;
+import simpledb.storage.PageCompression;
+import simpledb.storage.PageLayout;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares full scans of a table stored with and without page compression,
+ * in the row and PAX layouts: the bytes each scan reads from the file, the
+ * time it takes, and the time compressing and decompressing a page takes.
+ * The table has small ints and strings of few distinct values. Scans read
+ * through the OS page cache, so their times show the CPU cost of
+ * decompression rather than savings of disk I/O.
+ * <p>
+ * Usage: ant runbench -Dbench=CompressionBenchmark [-Dbench.args="rows"]
+ */
+public class CompressionBenchmark {
+
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.STRING_TYPE, Type.INT_TYPE};
+    private static final String[] CITIES = {"boston", "cambridge", "somerville", "medford", "newton"};
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        List<Tuple> tuples = new ArrayList<>(rows);
+        Random r = new Random(42);
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(new TupleDesc(TYPES));
+            t.setField(0, new IntField(r.nextInt(1000)));
+            t.setField(1, new StringField(CITIES[r.nextInt(CITIES.length)], Type.STRING_LEN));
+            t.setField(2, new IntField(r.nextInt(10)));
+            tuples.add(t);
+        }
+
+        for (PageLayout layout : new PageLayout[]{PageLayout.ROW, PageLayout.PAX}) {
+            HeapFile plain = load(tuples, layout, false);
+            HeapFile compressed = load(tuples, layout, true);
+            System.out.printf("%s: %d pages, compress %6.0f ns/page, decompress %6.0f ns/page%n", layout,
+                    plain.numPages(), codecNanos(plain, true), codecNanos(plain, false));
+            for (int run = 0; run < 3; run++) {
+                long[] p = scan(plain);
+                long[] c = scan(compressed);
+                System.out.printf("  run %d: plain %9d bytes %7.1f ms, compressed %9d bytes %7.1f ms%n",
+                        run, p[0], p[1] / 1e6, c[0], c[1] / 1e6);
+            }
+        }
+        Database.getFileChannelPool().closeAll();
+    }
+
+    private static HeapFile load(List<Tuple> tuples, PageLayout layout, boolean compressed) throws Exception {
+        File f = File.createTempFile("compression", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, new TupleDesc(TYPES), layout);
+        hf.setCompressed(compressed);
+        hf.setReadAhead(false);
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        hf.bulkLoad(tid, tuples.iterator());
+        Database.getBufferPool().transactionComplete(tid);
+        return hf;
+    }
+
+    // the bytes a full scan of hf with an empty buffer pool reads, and the
+    // nanoseconds it takes
+    private static long[] scan(HeapFile hf) throws Exception {
+        Database.resetBufferPool(BufferPool.DEFAULT_PAGES);
+        long before = Database.getFileChannelPool().getBytesRead();
+        long start = System.nanoTime();
+        TransactionId tid = new TransactionId();
+        DbFileIterator it = hf.iterator(tid);
+        it.open();
+        long sum = 0;
+        while (it.hasNext())
+            sum += ((IntField) it.next().getField(2)).getValue();
+        it.close();
+        Database.getBufferPool().transactionComplete(tid);
+        long nanos = System.nanoTime() - start;
+        if (sum < 0)
+            throw new AssertionError();
+        return new long[]{Database.getFileChannelPool().getBytesRead() - before, nanos};
+    }
+
+    // the nanoseconds compressing, or decompressing, a page of hf takes
+    private static double codecNanos(HeapFile hf, boolean compress) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        int numPages = hf.numPages();
+        List<byte[]> pages = new ArrayList<>(numPages);
+        List<ByteBuffer> stored = new ArrayList<>(numPages);
+        for (int pgNo = 0; pgNo < numPages; pgNo++) {
+            byte[] data = hf.readPage(new HeapPageId(hf.getId(), pgNo)).getPageData();
+            pages.add(data);
+            stored.add(PageCompression.encode(data));
+        }
+        long best = Long.MAX_VALUE;
+        for (int run = 0; run < 5; run++) {
+            long start = System.nanoTime();
+            for (int i = 0; i < numPages; i++) {
+                if (compress)
+                    PageCompression.encode(pages.get(i));
+                else
+                    PageCompression.decode(stored.get(i), pageSize);
+            }
+            best = Math.min(best, System.nanoTime() - start);
+        }
+        return (double) best / numPages;
+    }
+}
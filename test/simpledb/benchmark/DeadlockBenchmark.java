@@ -0,0 +1,102 @@
+package simpledb.benchmark;
+
+import simpledb.storage.HeapPageId;
+import simpledb.transaction.LockManager;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compares how deadlock detection on a wait-for graph, wait-die and
+ * wound-wait cope with transactions contending for a few hot pages. Each
+ * transaction locks a number of random pages, half of them exclusively and
+ * in random order, does a little work while holding each lock and commits.
+ * An aborted transaction releases its locks and starts over with the same
+ * TransactionId, so it keeps its age and cannot starve under wait-die or
+ * wound-wait. Reports commits per second, aborts per 100 commits and the
+ * longest time a transaction took to commit, retries included.
+ * <p>
+ * Usage: ant runbench -Dbench=DeadlockBenchmark [-Dbench.args="threads hotPages locksPerTransaction seconds"]
+ */
+public class DeadlockBenchmark {
+
+    private static final int WORK_ITERATIONS = 2000;
+
+    private static volatile long sink;
+
+    public static void main(String[] args) throws Exception {
+        int threads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+        int hotPages = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+        int locks = args.length > 2 ? Integer.parseInt(args[2]) : 4;
+        int seconds = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+
+        System.out.println(threads + " threads, " + hotPages + " hot pages, " + locks
+                + " locks per transaction, " + seconds + "s per run");
+        for (int run = 0; run < 2; run++) {
+            for (LockManager.DeadlockMode mode : LockManager.DeadlockMode.values())
+                run(new LockManager(mode), threads, hotPages, locks, seconds);
+        }
+    }
+
+    private static void run(LockManager lm, int threads, int hotPages, int locks, int seconds)
+            throws Exception {
+        AtomicBoolean stop = new AtomicBoolean();
+        AtomicLong commits = new AtomicLong();
+        AtomicLong aborts = new AtomicLong();
+        AtomicLong longest = new AtomicLong();
+        List<Thread> workers = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            long seed = t;
+            workers.add(new Thread(() -> {
+                Random r = new Random(seed);
+                while (!stop.get()) {
+                    TransactionId tid = new TransactionId();
+                    long start = System.nanoTime();
+                    while (!stop.get()) {
+                        try {
+                            for (int i = 0; i < locks; i++) {
+                                HeapPageId pid = new HeapPageId(0, r.nextInt(hotPages));
+                                if (r.nextBoolean())
+                                    lm.acquireExclusiveLock(tid, pid);
+                                else
+                                    lm.acquireSharedLock(tid, pid);
+                                work(r);
+                            }
+                            lm.releaseAll(tid);
+                            commits.incrementAndGet();
+                            longest.accumulateAndGet(System.nanoTime() - start, Math::max);
+                            break;
+                        } catch (TransactionAbortedException e) {
+                            lm.releaseAll(tid);
+                            aborts.incrementAndGet();
+                        }
+                    }
+                    // a transaction cut short by stop is not counted
+                    lm.releaseAll(tid);
+                }
+            }));
+        }
+        for (Thread w : workers)
+            w.start();
+        Thread.sleep(seconds * 1000L);
+        stop.set(true);
+        for (Thread w : workers)
+            w.join();
+
+        System.out.printf("%-10s %10.0f commits/s %8.1f aborts/100 commits %8.1f ms longest%n",
+                lm.getDeadlockMode(), commits.get() / (double) seconds,
+                100.0 * aborts.get() / Math.max(1, commits.get()), longest.get() / 1e6);
+    }
+
+    private static void work(Random r) {
+        long x = r.nextLong();
+        for (int i = 0; i < WORK_ITERATIONS; i++)
+            x = x * 6364136223846793005L + 1442695040888963407L;
+        sink = x;
+    }
+}
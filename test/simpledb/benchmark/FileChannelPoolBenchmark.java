@@ -0,0 +1,67 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.systemtest.SystemTestUtil;
+
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Random;
+
+/**
+ * Compares reading random pages of a HeapFile by opening a RandomAccessFile
+ * per page (the old HeapFile.readPage path) with positional reads through
+ * the shared FileChannelPool.
+ * <p>
+ * Usage: ant runbench -Dbench=FileChannelPoolBenchmark [-Dbench.args="rows reads"]
+ */
+public class FileChannelPoolBenchmark {
+
+    public static void main(String[] args) throws IOException {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 200000;
+        int reads = args.length > 1 ? Integer.parseInt(args[1]) : 200000;
+
+        HeapFile hf = SystemTestUtil.createRandomHeapFile(2, rows, null, null);
+        int numPages = hf.numPages();
+        System.out.println("table: " + numPages + " pages, " + reads + " random page reads per run");
+
+        int[] pages = new int[reads];
+        Random r = new Random(42);
+        for (int i = 0; i < reads; i++)
+            pages[i] = r.nextInt(numPages);
+
+        for (int run = 0; run < 5; run++) {
+            long legacy = openPerRead(hf, pages);
+            long pooled = pooled(hf, pages);
+            System.out.printf("run %d: open-per-read %7.1f ns/page, pooled channel %7.1f ns/page%n",
+                    run, (double) legacy / reads, (double) pooled / reads);
+        }
+        Database.getFileChannelPool().closeAll();
+    }
+
+    private static long openPerRead(HeapFile hf, int[] pages) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        byte[] bytes = new byte[pageSize];
+        long start = System.nanoTime();
+        for (int pgNo : pages) {
+            try (RandomAccessFile f = new RandomAccessFile(hf.getFile(), "r")) {
+                f.seek((long) pgNo * pageSize);
+                f.readFully(bytes);
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    private static long pooled(HeapFile hf, int[] pages) throws IOException {
+        int pageSize = BufferPool.getPageSize();
+        ByteBuffer buf = ByteBuffer.allocate(pageSize);
+        long start = System.nanoTime();
+        for (int pgNo : pages) {
+            buf.clear();
+            Database.getFileChannelPool().read(hf.getId(), hf.getFile(), buf, (long) pgNo * pageSize);
+        }
+        return System.nanoTime() - start;
+    }
+}
@@ -0,0 +1,119 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.HashEquiJoin;
+import simpledb.execution.JoinPredicate;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.Project;
+import simpledb.execution.SeqScan;
+import simpledb.storage.AccessHint;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.StringField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares a join of a wide table with a small one, projected onto two int
+ * fields, run with the Project on top of full width scans and with the
+ * scans cut down to the fields the query uses: the bytes the thread
+ * allocates and the time the query takes. The wide table has two string
+ * fields the query does not use, which the full width join decodes and
+ * copies into every joined tuple. The tables are cached in the buffer pool.
+ * <p>
+ * Usage: ant runbench -Dbench=ProjectionBenchmark [-Dbench.args="rows"]
+ */
+public class ProjectionBenchmark {
+
+    private static final Type[] WIDE = {Type.INT_TYPE, Type.STRING_TYPE, Type.STRING_TYPE, Type.INT_TYPE};
+    private static final Type[] SMALL = {Type.INT_TYPE, Type.STRING_TYPE};
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 100000;
+        Random r = new Random(42);
+        List<Tuple> wideTuples = new ArrayList<>(rows);
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(new TupleDesc(WIDE));
+            t.setField(0, new IntField(r.nextInt(1000)));
+            t.setField(1, new StringField("name" + r.nextInt(), Type.STRING_LEN));
+            t.setField(2, new StringField("address" + r.nextInt(), Type.STRING_LEN));
+            t.setField(3, new IntField(i));
+            wideTuples.add(t);
+        }
+        List<Tuple> smallTuples = new ArrayList<>();
+        for (int i = 0; i < 1000; i++) {
+            Tuple t = new Tuple(new TupleDesc(SMALL));
+            t.setField(0, new IntField(i));
+            t.setField(1, new StringField("key" + i, Type.STRING_LEN));
+            smallTuples.add(t);
+        }
+        HeapFile wide = load(WIDE, wideTuples);
+        HeapFile small = load(SMALL, smallTuples);
+        Database.resetBufferPool(wide.numPages() + small.numPages() + BufferPool.DEFAULT_PAGES);
+
+        for (int run = 0; run < 5; run++) {
+            long[] full = join(wide, small, false);
+            long[] projected = join(wide, small, true);
+            System.out.printf("run %d: %d tuples, full width %6.1f MB %7.1f ms, projected %6.1f MB %7.1f ms%n",
+                    run, full[0], full[1] / 1e6, full[2] / 1e6, projected[1] / 1e6, projected[2] / 1e6);
+        }
+        Database.getFileChannelPool().closeAll();
+    }
+
+    private static HeapFile load(Type[] types, List<Tuple> tuples) throws Exception {
+        File f = File.createTempFile("projection", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, new TupleDesc(types));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId tid = new TransactionId();
+        hf.bulkLoad(tid, tuples.iterator());
+        Database.getBufferPool().transactionComplete(tid);
+        return hf;
+    }
+
+    // the tuples the join returns, the bytes the thread allocates running
+    // it and the nanoseconds it takes
+    private static long[] join(HeapFile wide, HeapFile small, boolean projectScans) throws Exception {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        TransactionId tid = new TransactionId();
+        SeqScan w = new SeqScan(tid, wide.getId(), "w");
+        SeqScan s = new SeqScan(tid, small.getId(), "s");
+        w.setAccessHint(AccessHint.NORMAL);
+        s.setAccessHint(AccessHint.NORMAL);
+        OpIterator plan;
+        if (projectScans) {
+            w.setProjection(List.of(0, 3));
+            s.setProjection(List.of(0));
+            plan = new Project(List.of(1, 2), new Type[]{Type.INT_TYPE, Type.INT_TYPE},
+                    new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), w, s));
+        } else {
+            plan = new Project(List.of(3, 4), new Type[]{Type.INT_TYPE, Type.INT_TYPE},
+                    new HashEquiJoin(new JoinPredicate(0, Predicate.Op.EQUALS, 0), w, s));
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread);
+        long start = System.nanoTime();
+        plan.open();
+        long n = 0;
+        while (plan.hasNext()) {
+            plan.next();
+            n++;
+        }
+        plan.close();
+        long nanos = System.nanoTime() - start;
+        allocated = threads.getThreadAllocatedBytes(thread) - allocated;
+        Database.getBufferPool().transactionComplete(tid);
+        return new long[]{n, allocated, nanos};
+    }
+}
@@ -0,0 +1,88 @@
+package simpledb.benchmark;
+
+import simpledb.common.Database;
+import simpledb.common.Type;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.storage.AccessHint;
+import simpledb.storage.BufferPool;
+import simpledb.storage.HeapFile;
+import simpledb.storage.IntField;
+import simpledb.storage.Tuple;
+import simpledb.storage.TupleDesc;
+import simpledb.systemtest.SystemTestUtil;
+import simpledb.transaction.TransactionId;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * Compares a selective scan run as a Filter over a SeqScan with the same
+ * scan given the predicate, which tests it on the bytes of the pages before
+ * it builds the tuples. The table is cached in the buffer pool, so the times
+ * show the CPU cost per tuple rather than I/O. Values are random, so the
+ * zone maps skip no pages.
+ * <p>
+ * Usage: ant runbench -Dbench=PushdownBenchmark [-Dbench.args="rows"]
+ */
+public class PushdownBenchmark {
+
+    private static final Type[] TYPES = {Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE, Type.INT_TYPE};
+
+    public static void main(String[] args) throws Exception {
+        int rows = args.length > 0 ? Integer.parseInt(args[0]) : 500000;
+        List<Tuple> tuples = new ArrayList<>(rows);
+        Random r = new Random(42);
+        for (int i = 0; i < rows; i++) {
+            Tuple t = new Tuple(new TupleDesc(TYPES));
+            for (int j = 0; j < TYPES.length; j++)
+                t.setField(j, new IntField(r.nextInt(1000)));
+            tuples.add(t);
+        }
+        File f = File.createTempFile("pushdown", ".dat");
+        f.deleteOnExit();
+        HeapFile hf = new HeapFile(f, new TupleDesc(TYPES));
+        Database.getCatalog().addTable(hf, SystemTestUtil.getUUID());
+        TransactionId load = new TransactionId();
+        hf.bulkLoad(load, tuples.iterator());
+        Database.getBufferPool().transactionComplete(load);
+        Database.resetBufferPool(hf.numPages() + BufferPool.DEFAULT_PAGES);
+
+        Predicate p = new Predicate(2, Predicate.Op.LESS_THAN, new IntField(10));
+        for (int run = 0; run < 5; run++) {
+            long[] filter = scan(hf, p, false);
+            long[] pushed = scan(hf, p, true);
+            System.out.printf("run %d: %d of %d tuples, filter %7.1f ms, pushed down %7.1f ms%n",
+                    run, filter[0], rows, filter[1] / 1e6, pushed[1] / 1e6);
+        }
+        Database.getFileChannelPool().closeAll();
+    }
+
+    // the tuples a scan of hf with the predicate returns, and the
+    // nanoseconds it takes
+    private static long[] scan(HeapFile hf, Predicate p, boolean pushDown) throws Exception {
+        TransactionId tid = new TransactionId();
+        SeqScan ss = new SeqScan(tid, hf.getId());
+        ss.setAccessHint(AccessHint.NORMAL);
+        OpIterator it = ss;
+        if (pushDown)
+            ss.setPredicates(List.of(p));
+        else
+            it = new Filter(p, ss);
+        long start = System.nanoTime();
+        it.open();
+        long n = 0;
+        while (it.hasNext()) {
+            it.next();
+            n++;
+        }
+        it.close();
+        long nanos = System.nanoTime() - start;
+        Database.getBufferPool().transactionComplete(tid);
+        return new long[]{n, nanos};
+    }
+}
@@ -0,0 +1,115 @@
+package simpledb.benchmark;
+
+import simpledb.storage.AccessHint;
+import simpledb.storage.ClockReplacer;
+import simpledb.storage.LRUKReplacer;
+import simpledb.storage.PageReplacer;
+import simpledb.storage.TwoQueueReplacer;
+
+import java.util.OptionalLong;
+import java.util.Random;
+import java.util.function.IntFunction;
+
+/**
+ * Drives each PageReplacer with a simulated buffer pool of 10k to 1M frames
+ * and reports the cost of a hit and of a miss (eviction plus insertion).
+ * The working set is twice the pool size, accessed with an 80/20 skew, and
+ * one page in ten is treated as dirty and may not be evicted.
+ * <p>
+ * A second workload mixes lookups of a hot set of half the pool with a scan
+ * of pages that are never reused, with and without marking the scan's
+ * accesses as sequential, and reports how many of the lookups still hit.
+ * <p>
+ * Usage: ant runbench -Dbench=ReplacerBenchmark [-Dbench.args="accesses"]
+ */
+public class ReplacerBenchmark {
+
+    public static void main(String[] args) {
+        int accesses = args.length > 0 ? Integer.parseInt(args[0]) : 5000000;
+        for (int frames : new int[]{10000, 100000, 1000000}) {
+            for (int run = 0; run < 2; run++) {
+                report("clock", frames, accesses, ClockReplacer::new);
+                report("lru-2", frames, accesses, n -> new LRUKReplacer(n, 2));
+                report("2q", frames, accesses, TwoQueueReplacer::new);
+            }
+        }
+        for (int frames : new int[]{10000, 100000}) {
+            for (boolean hints : new boolean[]{false, true}) {
+                mixed("clock", frames, accesses, hints, ClockReplacer::new);
+                mixed("lru-2", frames, accesses, hints, n -> new LRUKReplacer(n, 2));
+                mixed("2q", frames, accesses, hints, TwoQueueReplacer::new);
+            }
+        }
+    }
+
+    private static void mixed(String name, int frames, int accesses, boolean hints,
+                              IntFunction<PageReplacer> factory) {
+        PageReplacer replacer = factory.apply(frames);
+        int hotPages = frames / 2;
+        // hot pages are 0..hotPages-1, scanned pages follow
+        boolean[] cached = new boolean[hotPages + accesses];
+        int size = 0;
+        long nextScanPage = hotPages;
+        long lookups = 0, lookupHits = 0;
+        Random r = new Random(42);
+        for (int i = 0; i < accesses; i++) {
+            boolean lookup = (i & 1) == 0;
+            int key = lookup ? r.nextInt(hotPages) : (int) nextScanPage++;
+            AccessHint hint = lookup || !hints ? AccessHint.NORMAL : AccessHint.SEQUENTIAL;
+            if (lookup)
+                lookups++;
+            if (cached[key]) {
+                replacer.access(key, hint);
+                if (lookup)
+                    lookupHits++;
+                continue;
+            }
+            if (size >= frames) {
+                cached[(int) replacer.evict(k -> true).orElseThrow()] = false;
+                size--;
+            }
+            replacer.add(key, hint);
+            cached[key] = true;
+            size++;
+        }
+        System.out.printf("%-6s %8d frames, hot set + scan%s: lookup hit ratio %.3f%n",
+                name, frames, hints ? " (hinted)" : "", (double) lookupHits / lookups);
+    }
+
+    private static void report(String name, int frames, int accesses, IntFunction<PageReplacer> factory) {
+        PageReplacer replacer = factory.apply(frames);
+        int pages = frames * 2;
+        boolean[] cached = new boolean[pages];
+        for (int key = 0; key < frames; key++) {
+            replacer.add(key);
+            cached[key] = true;
+        }
+
+        Random r = new Random(42);
+        int[] trace = new int[accesses];
+        for (int i = 0; i < accesses; i++) {
+            // 80% of the accesses go to the first 20% of the pages
+            trace[i] = r.nextInt(5) < 4 ? r.nextInt(pages / 5) : r.nextInt(pages);
+        }
+
+        long hits = 0, misses = 0, hitNanos = 0, missNanos = 0;
+        for (int key : trace) {
+            long start = System.nanoTime();
+            if (cached[key]) {
+                replacer.access(key);
+                hitNanos += System.nanoTime() - start;
+                hits++;
+            } else {
+                OptionalLong victim = replacer.evict(k -> k % 10 != 0);
+                cached[(int) victim.orElseThrow()] = false;
+                replacer.add(key);
+                cached[key] = true;
+                missNanos += System.nanoTime() - start;
+                misses++;
+            }
+        }
+        System.out.printf("%-6s %8d frames: hit %6.1f ns, miss %6.1f ns, hit ratio %.3f%n",
+                name, frames, (double) hitNanos / hits, (double) missNanos / misses,
+                (double) hits / accesses);
+    }
+}
@@ -0,0 +1,99 @@
+package simpledb.systemtest;
+
+import static org.junit.Assert.*;
+
+import org.junit.Test;
+
+import simpledb.Parser;
+import simpledb.ParsingException;
+import simpledb.common.Database;
+import simpledb.common.DbException;
+import simpledb.execution.Filter;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
+import simpledb.execution.SeqScan;
+import simpledb.optimizer.TableStats;
+import simpledb.storage.HeapFile;
+import simpledb.transaction.TransactionAbortedException;
+import simpledb.transaction.TransactionId;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs the tests of FilterBase with the predicate pushed down into the scan.
+ */
+public class ScanFilterTest extends FilterBase {
+    @Override
+    protected int applyPredicate(HeapFile table, TransactionId tid, Predicate predicate)
+            throws DbException, TransactionAbortedException {
+        SeqScan ss = new SeqScan(tid, table.getId(), "");
+        ss.setPredicates(List.of(predicate));
+        ss.open();
+
+        int resultCount = 0;
+        while (ss.hasNext()) {
+            assertTrue(predicate.filter(ss.next()));
+            resultCount += 1;
+        }
+
+        ss.close();
+        return resultCount;
+    }
+
+    /** The planner pushes the filters of a table into its scan. */
+    @Test public void testPlannerPushesDown() throws IOException, ParsingException,
+            DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile table = SystemTestUtil.createRandomHeapFile(3, 1097, null, tuples, "c");
+        Database.getCatalog().addTable(table, "pushdown");
+        TableStats.setTableStats("pushdown", new TableStats(table.getId(), 100));
+        List<List<Integer>> keys = new ArrayList<>();
+        HeapFile small = SystemTestUtil.createRandomHeapFile(1, 1, null, keys, "c");
+        Database.getCatalog().addTable(small, "small");
+        TableStats.setTableStats("small", new TableStats(small.getId(), 100));
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = new Parser().generateLogicalPlan(tid,
+                "SELECT * FROM pushdown, small WHERE pushdown.c1 <> small.c0 "
+                        + "AND pushdown.c0 < 1000 AND pushdown.c2 >= 100;")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        List<SeqScan> scans = new ArrayList<>();
+        collectScans(plan, scans);
+        assertEquals(2, scans.size());
+        for (SeqScan scan : scans)
+            assertEquals(scan.getTableName().equals("pushdown") ? 2 : 0, scan.getPredicates().size());
+
+        int expected = 0;
+        for (List<Integer> t : tuples) {
+            if (t.get(0) < 1000 && t.get(2) >= 100 && !t.get(1).equals(keys.get(0).get(0)))
+                expected++;
+        }
+        plan.open();
+        int resultCount = 0;
+        while (plan.hasNext()) {
+            assertNotNull(plan.next());
+            resultCount += 1;
+        }
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(expected, resultCount);
+    }
+
+    // adds the scans under op to scans, checking that no Filter is left
+    private static void collectScans(OpIterator op, List<SeqScan> scans) {
+        assertFalse(op instanceof Filter);
+        if (op instanceof SeqScan)
+            scans.add((SeqScan) op);
+        else
+            for (OpIterator child : ((Operator) op).getChildren())
+                collectScans(child, scans);
+    }
+
+    /** Make test compatible with older version of ant. */
+    public static junit.framework.Test suite() {
+        return new junit.framework.JUnit4TestAdapter(ScanFilterTest.class);
+    }
+}
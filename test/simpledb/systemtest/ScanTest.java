@@ -1,9 +1,15 @@
 package simpledb.systemtest;
 
+import simpledb.Parser;
+import simpledb.ParsingException;
 import simpledb.common.Database;
 import simpledb.common.DbException;
 import simpledb.common.Utility;
+import simpledb.execution.OpIterator;
+import simpledb.execution.Operator;
+import simpledb.execution.Predicate;
 import simpledb.execution.SeqScan;
+import simpledb.optimizer.TableStats;
 import simpledb.storage.*;
 
 import static org.junit.Assert.*;
@@ -11,6 +17,7 @@ import static org.junit.Assert.*;
 import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Comparator;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Random;
@@ -134,6 +141,98 @@ public class ScanTest extends SimpleDbTestBase {
         }
     }
 
+    /** Verifies a SeqScan with a projection returns only those fields, in order. */
+    @Test public void testProjection() throws IOException, DbException, TransactionAbortedException {
+        List<List<Integer>> tuples = new ArrayList<>();
+        HeapFile f = SystemTestUtil.createRandomHeapFile(3, 1000, 1000, null, tuples, "c");
+
+        TransactionId tid = new TransactionId();
+        // a tuple inserted into the buffer pool, not read from the file
+        Tuple inserted = new Tuple(f.getTupleDesc());
+        for (int i = 0; i < 3; i++)
+            inserted.setField(i, new IntField(i + 1));
+        Database.getBufferPool().insertTuple(tid, f.getId(), inserted);
+        tuples.add(List.of(1, 2, 3));
+
+        SeqScan scan = new SeqScan(tid, f.getId(), "t");
+        scan.setProjection(List.of(2, 0));
+        scan.setPredicates(List.of(new Predicate(1, Predicate.Op.LESS_THAN, new IntField(500))));
+        TupleDesc td = scan.getTupleDesc();
+        assertEquals(2, td.numFields());
+        assertEquals("t.c2", td.getFieldName(0));
+        assertEquals("t.c0", td.getFieldName(1));
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> t : tuples) {
+            if (t.get(1) < 500)
+                expected.add(List.of(t.get(2), t.get(0)));
+        }
+        scan.open();
+        List<List<Integer>> actual = new ArrayList<>();
+        while (scan.hasNext()) {
+            Tuple t = scan.next();
+            assertEquals(2, t.getTupleDesc().numFields());
+            actual.add(SystemTestUtil.tupleToList(t));
+        }
+        scan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        assertEquals(expected, actual);
+    }
+
+    /** Verifies the planner cuts scans down to the fields the query uses. */
+    @Test public void testPlannerProjects() throws IOException, ParsingException,
+            DbException, TransactionAbortedException {
+        List<List<Integer>> wideTuples = new ArrayList<>();
+        HeapFile wide = SystemTestUtil.createRandomHeapFile(5, 500, 100, null, wideTuples, "c");
+        Database.getCatalog().addTable(wide, "wide");
+        TableStats.setTableStats("wide", new TableStats(wide.getId(), 100));
+        List<List<Integer>> narrowTuples = new ArrayList<>();
+        HeapFile narrow = SystemTestUtil.createRandomHeapFile(3, 50, 100, null, narrowTuples, "c");
+        Database.getCatalog().addTable(narrow, "narrow");
+        TableStats.setTableStats("narrow", new TableStats(narrow.getId(), 100));
+
+        TransactionId tid = new TransactionId();
+        OpIterator plan = new Parser().generateLogicalPlan(tid,
+                "SELECT w.c4, n.c2 FROM wide w, narrow n WHERE w.c1 = n.c0 AND w.c3 < 50;")
+                .physicalPlan(tid, TableStats.getStatsMap(), false);
+        List<SeqScan> scans = new ArrayList<>();
+        collectScans(plan, scans);
+        assertEquals(2, scans.size());
+        for (SeqScan scan : scans) {
+            if (scan.getAlias().equals("w"))
+                assertEquals(List.of(1, 4), scan.getProjection());
+            else
+                assertEquals(List.of(0, 2), scan.getProjection());
+        }
+
+        List<List<Integer>> expected = new ArrayList<>();
+        for (List<Integer> w : wideTuples) {
+            for (List<Integer> n : narrowTuples) {
+                if (w.get(1).equals(n.get(0)) && w.get(3) < 50)
+                    expected.add(List.of(w.get(4), n.get(2)));
+            }
+        }
+        plan.open();
+        List<List<Integer>> actual = new ArrayList<>();
+        while (plan.hasNext())
+            actual.add(SystemTestUtil.tupleToList(plan.next()));
+        plan.close();
+        Database.getBufferPool().transactionComplete(tid);
+        Comparator<List<Integer>> order = Comparator.<List<Integer>, Integer>comparing(t -> t.get(0))
+                .thenComparing(t -> t.get(1));
+        expected.sort(order);
+        actual.sort(order);
+        assertEquals(expected, actual);
+    }
+
+    private static void collectScans(OpIterator op, List<SeqScan> scans) {
+        if (op instanceof SeqScan)
+            scans.add((SeqScan) op);
+        else
+            for (OpIterator child : ((Operator) op).getChildren())
+                collectScans(child, scans);
+    }
+
     /** Make test compatible with older version of ant. */
     public static junit.framework.Test suite() {
         return new junit.framework.JUnit4TestAdapter(ScanTest.class);
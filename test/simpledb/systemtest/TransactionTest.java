@@ -234,7 +234,7 @@ public class TransactionTest extends SimpleDbTestBase {
         validateTransactions(10);
     }
 
-    @Test public void testAllDirtyFails()
+    @Test public void testAllDirtyStolen()
             throws IOException, DbException, TransactionAbortedException {
         // Allocate a file with ~10 pages of data
         HeapFile f = SystemTestUtil.createRandomHeapFile(2, 512*10, null, null);
@@ -247,11 +247,14 @@ public class TransactionTest extends SimpleDbTestBase {
         // Insert a new row
         AbortEvictionTest.insertRow(f, t);
 
-        // Scanning the table must fail because it can't evict the dirty page
-        try {
-            AbortEvictionTest.findMagicTuple(f, t);
-            fail("Expected scan to run out of available buffer pages");
-        } catch (DbException ignored) {}
+        // Scanning the table has to write the dirty page out to evict it
+        assertTrue(AbortEvictionTest.findMagicTuple(f, t));
+        t.transactionComplete(true);
+
+        // the stolen page must have been rolled back
+        t = new Transaction();
+        t.start();
+        assertFalse(AbortEvictionTest.findMagicTuple(f, t));
         t.commit();
     }
 